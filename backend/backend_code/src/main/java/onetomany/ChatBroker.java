@@ -0,0 +1,33 @@
+package onetomany;
+
+import java.util.Map;
+
+/**
+ * Publish/subscribe between the backend instances for the chat sockets.
+ *
+ * A socket endpoint publishes every outgoing message on its channel with a
+ * key (a group, a recipient username, or "*" for everyone) instead of
+ * sending it, and subscribes to its channel to deliver what arrives to the
+ * sessions connected to this instance only. Every message is delivered to
+ * the subscribers of every instance, this one included, so members of one
+ * group can be spread over several instances behind a load balancer.
+ *
+ * roomba.broker.type selects the implementation: local (one instance, the
+ * default) or tcp (a full mesh of instances, see TcpChatBroker).
+ * Subscribers are called on the publishing thread or on a broker thread and
+ * must not block.
+ */
+public interface ChatBroker {
+
+    String ALL = "*";
+
+    interface Subscriber {
+        void deliver(String key, String message);
+    }
+
+    void publish(String channel, String key, String message);
+
+    void subscribe(String channel, Subscriber subscriber);
+
+    Map<String, Long> getCounters();
+}
@@ -0,0 +1,36 @@
+package onetomany;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * One page of a list ordered by id. Pass next as the after parameter (before,
+ * for lists read newest first) to get the following page; it is null on the
+ * last page.
+ */
+public class KeysetPage<T> {
+
+    public static final int MAX_LIMIT = 1000;
+
+    private final List<T> items;
+    private final Long next;
+
+
+    public KeysetPage(List<T> items, Long next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    public static <T> KeysetPage<T> of(List<T> items, int limit, ToLongFunction<T> id) {
+        Long next = items.size() == limit ? id.applyAsLong(items.get(items.size() - 1)) : null;
+        return new KeysetPage<>(items, next);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public Long getNext() {
+        return next;
+    }
+}
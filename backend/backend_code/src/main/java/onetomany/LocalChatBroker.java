@@ -0,0 +1,65 @@
+package onetomany;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/** Chat broker of a single instance: a publish goes straight to this instance's subscribers. */
+@Component
+@ConditionalOnProperty(name = "roomba.broker.type", havingValue = "local", matchIfMissing = true)
+public class LocalChatBroker implements ChatBroker {
+
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(LocalChatBroker.class);
+
+    @Override
+    public void publish(String channel, String key, String message) {
+        published.increment();
+        deliver(channel, key, message);
+    }
+
+    /** Hands a message to the subscribers of this instance. */
+    void deliver(String channel, String key, String message) {
+        List<Subscriber> list = subscribers.get(channel);
+        if (list == null)
+            return;
+        for (Subscriber subscriber : list) {
+            try {
+                subscriber.deliver(key, message);
+                delivered.increment();
+            }
+            catch (RuntimeException e) {
+                // the other subscribers and, for a remote message, the broker connection carry on
+                failed.increment();
+                logger.warn("Chat broker subscriber of {} failed", channel, e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, Subscriber subscriber) {
+        subscribers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("published", published.sum());
+        counters.put("delivered", delivered.sum());
+        counters.put("failed", failed.sum());
+        return counters;
+    }
+}
@@ -0,0 +1,76 @@
+package onetomany;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Writes the rows of a repository Stream query as newline-delimited JSON.
+ *
+ * The query runs in its own read-only transaction on the thread that writes
+ * the response, and the persistence context is cleared every FETCH_SIZE rows,
+ * so memory stays flat however many rows there are.
+ */
+@Component
+public class NdjsonStreams {
+
+    /** Fetch size used by the streaming repository queries. */
+    public static final int FETCH_SIZE = 500;
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    public <T> ResponseEntity<StreamingResponseBody> stream(Supplier<Stream<T>> query) {
+        StreamingResponseBody body = out -> {
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+            transaction.setReadOnly(true);
+            ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                transaction.executeWithoutResult(status -> {
+                    try (Stream<T> rows = query.get()) {
+                        Iterator<T> it = rows.iterator();
+                        int written = 0;
+                        while (it.hasNext()) {
+                            writer.writeValue(generator, it.next());
+                            generator.writeRaw('\n');
+                            if (++written % FETCH_SIZE == 0) {
+                                generator.flush();
+                                entityManager.clear();
+                            }
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+}
@@ -0,0 +1,65 @@
+package onetomany;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Applies the body of a PATCH request to an entity.
+ *
+ * Only the fields present in the body are set, and only through their
+ * setters, so together with @DynamicUpdate the UPDATE statement touches just
+ * the columns that really changed. If the body carries a version it must
+ * match the entity's @Version, otherwise the client edited a stale copy; a
+ * concurrent write between the load and the save is caught by Hibernate's
+ * version check. Both are answered with 409.
+ */
+@Component
+public class PartialUpdates {
+
+    public static final String VERSION = "version";
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    public <T> T apply(T entity, long currentVersion, Map<String, Object> changes, Set<String> patchable,
+                       UnaryOperator<T> save) {
+        if (changes == null || changes.isEmpty())
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "nothing to change");
+        Map<String, Object> fields = new HashMap<>(changes);
+        Object expected = fields.remove(VERSION);
+        for (String field : fields.keySet()) {
+            if (!patchable.contains(field))
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, field + " cannot be changed, allowed: " + patchable);
+        }
+        if (expected != null) {
+            if (!(expected instanceof Number))
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "version must be a number");
+            if (((Number) expected).longValue() != currentVersion)
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "version " + expected + " is stale, current version is " + currentVersion);
+        }
+
+        try {
+            objectMapper.updateValue(entity, fields);
+        }
+        catch (JsonMappingException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getOriginalMessage());
+        }
+        try {
+            return save.apply(entity);
+        }
+        catch (ObjectOptimisticLockingFailureException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "changed by someone else, reload and retry");
+        }
+    }
+}
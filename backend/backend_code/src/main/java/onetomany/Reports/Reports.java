@@ -15,7 +15,8 @@ public class Reports {
     private String report;
 
 
-    @ManyToOne
+    // never serialized, so not loaded unless asked for
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonIgnore
     @JoinColumn
     private roomba roomba1;
@@ -1,19 +1,27 @@
 package onetomany.Reports;
 import java.util.List;
 
+import onetomany.KeysetPage;
+import onetomany.NdjsonStreams;
 
 import onetomany.Users.User;
 import onetomany.Users.UserRepository;
 import onetomany.roomba.roomba;
 import onetomany.roomba.roombaRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 @RestController
 public class ReportsController {
     @Autowired
@@ -23,13 +31,26 @@ public class ReportsController {
 
     @Autowired
     UserRepository userRepository;
+
+    @Autowired
+    NdjsonStreams ndjsonStreams;
     private String success = "{\"message\":\"success\"}";
     private String failure = "{\"message\":\"failure\"}";
 
-//    @GetMapping(path = "/reports")
-//    List<Reports> getAllReports(){
-//        return reportsRepository.findAll();
-//    }
+    @GetMapping(path = "/reports")
+    KeysetPage<Reports> getAllReports(@RequestParam(defaultValue = "0") int after,
+                                      @RequestParam(defaultValue = "100") int limit){
+        if (limit < 1 || limit > KeysetPage.MAX_LIMIT)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + KeysetPage.MAX_LIMIT);
+        List<Reports> page = reportsRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.ofSize(limit));
+        return KeysetPage.of(page, limit, Reports::getId);
+    }
+
+    @GetMapping(path = "/reports/stream")
+    ResponseEntity<StreamingResponseBody> streamReports(){
+        return ndjsonStreams.stream(reportsRepository::streamAllOrderedById);
+    }
+
     @GetMapping(path = "/reports/{id}")
     Reports getReportsById(@PathVariable int id){
         return reportsRepository.findById(id);
@@ -1,15 +1,29 @@
 package onetomany.Reports;
 
+import onetomany.NdjsonStreams;
 import onetomany.Users.User;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface ReportsRepository extends JpaRepository<Reports, Long>{
     Reports findById(int id);
     Reports findById(long id);
 
+    // roomba1 is lazy and not serialized, so a page is one select
+    List<Reports> findByIdGreaterThanOrderByIdAsc(int after, Pageable page);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + NdjsonStreams.FETCH_SIZE))
+    @Query("select r from Reports r order by r.id")
+    Stream<Reports> streamAllOrderedById();
+
 
 
 
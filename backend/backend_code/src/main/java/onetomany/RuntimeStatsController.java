@@ -0,0 +1,62 @@
+package onetomany;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Heap, thread and GC numbers of this JVM, the WebSocket send queues and the
+ * chat broker, for load tests that want to see what the server paid for a run
+ * (see the simulator module).
+ */
+@RestController
+public class RuntimeStatsController {
+
+    @Autowired
+    WebSocketOutbound outbound;
+
+    @Autowired
+    ChatBroker broker;
+
+    @GetMapping(path = "/runtime/stats")
+    Map<String, Long> getRuntimeStats() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long gcCount = 0, gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("heapUsed", heap.getUsed());
+        stats.put("heapCommitted", heap.getCommitted());
+        stats.put("heapMax", heap.getMax());
+        stats.put("nonHeapUsed", nonHeap.getUsed());
+        stats.put("threads", (long) threads.getThreadCount());
+        stats.put("peakThreads", (long) threads.getPeakThreadCount());
+        stats.put("daemonThreads", (long) threads.getDaemonThreadCount());
+        stats.put("gcCount", gcCount);
+        stats.put("gcTimeMs", gcTime);
+        stats.put("uptimeMs", ManagementFactory.getRuntimeMXBean().getUptime());
+        return stats;
+    }
+
+    @GetMapping(path = "/websocket/outbound/stats")
+    Map<String, Long> getOutboundStats() {
+        return outbound.getCounters();
+    }
+
+    @GetMapping(path = "/websocket/broker/stats")
+    Map<String, Long> getBrokerStats() {
+        return broker.getCounters();
+    }
+}
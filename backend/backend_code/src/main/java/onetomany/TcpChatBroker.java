@@ -0,0 +1,366 @@
+package onetomany;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Chat broker for several instances connected in a full mesh over TCP.
+ *
+ * Every instance listens on bind:port and connects to each of the peers
+ * (host:port of the other instances, this one not included). A publish is
+ * delivered to the local subscribers at once and queued for every peer; one
+ * writer thread per peer sends what is queued as length-prefixed frames and
+ * reconnects after reconnect-ms when the connection breaks. Frames received
+ * from a peer go to the local subscribers only, never on to other peers.
+ *
+ * A peer that is down or too slow fills its queue of queue-size frames,
+ * after which its messages are dropped and counted, as are the frames still
+ * unflushed when a connection breaks. Every frame carries the
+ * publisher's wall clock time, so the receiving side records the cross-node
+ * delivery latency; that needs the clocks of the instances to agree, as they
+ * do for several instances on one machine.
+ *
+ * Frame: int length, then long sent (epoch micros), UTF channel, UTF key,
+ * int length and UTF-8 bytes of the message.
+ */
+@Component
+@ConditionalOnProperty(name = "roomba.broker.type", havingValue = "tcp")
+public class TcpChatBroker implements ChatBroker {
+
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    static final int LATENCY_WINDOW = 4096;
+
+    @Value("${roomba.broker.tcp.bind:127.0.0.1}")
+    String bind = "127.0.0.1";
+
+    @Value("${roomba.broker.tcp.port:7601}")
+    int port = 7601;
+
+    @Value("${roomba.broker.tcp.peers:}")
+    String peerList = "";
+
+    @Value("${roomba.broker.tcp.queue-size:10000}")
+    int queueSize = 10000;
+
+    @Value("${roomba.broker.tcp.reconnect-ms:1000}")
+    long reconnectMs = 1000;
+
+    private final LocalChatBroker local = new LocalChatBroker();
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private ServerSocket server;
+    private volatile boolean running;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder badFrames = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_WINDOW);
+    private final AtomicLong latencyCount = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(TcpChatBroker.class);
+
+    @PostConstruct
+    public void start() throws IOException {
+        running = true;
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(bind, port));
+        daemon("chat-broker-accept", this::accept).start();
+        for (String address : peerList.split(",")) {
+            if (!address.isBlank())
+                connect(address.trim());
+        }
+        logger.info("Chat broker listening on {}:{}, peers {}", bind, server.getLocalPort(), peerList);
+    }
+
+    /**
+     * Adds a peer at host:port. Called for each configured peer on start, and
+     * by tests whose instances only learn each other's port once started.
+     */
+    void connect(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 1)
+            throw new IllegalStateException("roomba.broker.tcp.peers takes host:port, got " + address);
+        Peer peer = new Peer(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        peers.add(peer);
+        daemon("chat-broker-to-" + address, peer::run).start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        running = false;
+        server.close();
+        for (Socket socket : inbound)
+            socket.close();
+        for (Peer peer : peers)
+            peer.close();
+    }
+
+    private static Thread daemon(String name, Runnable body) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    @Override
+    public void publish(String channel, String key, String message) {
+        published.increment();
+        local.deliver(channel, key, message);
+        if (peers.isEmpty())
+            return;
+        byte[] frame = encode(channel, key, message, epochMicros());
+        for (Peer peer : peers)
+            peer.offer(frame);
+    }
+
+    @Override
+    public void subscribe(String channel, Subscriber subscriber) {
+        local.subscribe(channel, subscriber);
+    }
+
+    /** The port actually listened on, for a configured port of 0. */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    static byte[] encode(String channel, String key, String message, long sentMicros) {
+        try {
+            byte[] text = message.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length + channel.length() + key.length() + 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeLong(sentMicros);
+            out.writeUTF(channel);
+            out.writeUTF(key);
+            out.writeInt(text.length);
+            out.write(text);
+            byte[] frame = bytes.toByteArray();
+            int length = frame.length - 4;
+            frame[0] = (byte) (length >>> 24);
+            frame[1] = (byte) (length >>> 16);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            return frame;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                inbound.add(socket);
+                daemon("chat-broker-from-" + socket.getRemoteSocketAddress(), () -> read(socket)).start();
+            }
+            catch (IOException e) {
+                if (running)
+                    logger.warn("Chat broker accept failed", e);
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536))) {
+            while (running) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES)
+                    throw new IOException("Frame of " + length + " bytes");
+                byte[] body = new byte[length];
+                in.readFully(body);
+                DataInputStream frame = new DataInputStream(new ByteArrayInputStream(body));
+                long sent = frame.readLong();
+                String channel = frame.readUTF();
+                String key = frame.readUTF();
+                byte[] text = new byte[frame.readInt()];
+                frame.readFully(text);
+                recordLatency(epochMicros() - sent);
+                framesReceived.increment();
+                local.deliver(channel, key, new String(text, StandardCharsets.UTF_8));
+            }
+        }
+        catch (EOFException | SocketException e) {
+            // peer went away, it connects again when it is back
+        }
+        catch (IOException e) {
+            badFrames.increment();
+            logger.warn("Dropping chat broker connection from {}", socket.getRemoteSocketAddress(), e);
+        }
+        finally {
+            inbound.remove(socket);
+        }
+    }
+
+    private void recordLatency(long micros) {
+        long n = latencyCount.getAndIncrement();
+        latencies.set((int) (n % LATENCY_WINDOW), Math.max(0, micros));
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        long sent = 0, dropped = 0, disconnects = 0, queued = 0, connected = 0;
+        for (Peer peer : peers) {
+            sent += peer.sent.sum();
+            dropped += peer.dropped.sum();
+            disconnects += peer.disconnects.sum();
+            queued += peer.queue.size();
+            if (peer.connected)
+                connected++;
+        }
+        long count = latencyCount.get();
+        long[] window = new long[(int) Math.min(count, LATENCY_WINDOW)];
+        for (int i = 0; i < window.length; i++)
+            window[i] = latencies.get(i);
+        Arrays.sort(window);
+
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("published", published.sum());
+        Map<String, Long> localCounters = local.getCounters();
+        counters.put("delivered", localCounters.get("delivered"));
+        counters.put("failed", localCounters.get("failed"));
+        counters.put("peers", (long) peers.size());
+        counters.put("peersConnected", connected);
+        counters.put("inboundConnections", (long) inbound.size());
+        counters.put("framesSent", sent);
+        counters.put("framesReceived", framesReceived.sum());
+        counters.put("framesQueued", queued);
+        counters.put("framesDropped", dropped);
+        counters.put("badFrames", badFrames.sum());
+        counters.put("peerDisconnects", disconnects);
+        // cross-node latency over the last LATENCY_WINDOW frames received
+        counters.put("latencySamples", (long) window.length);
+        counters.put("latencyP50Micros", percentile(window, 0.5));
+        counters.put("latencyP99Micros", percentile(window, 0.99));
+        counters.put("latencyMaxMicros", window.length == 0 ? 0 : window[window.length - 1]);
+        return counters;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /** One other instance and the frames waiting to be written to it. */
+    private final class Peer {
+
+        final String host;
+        final int port;
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(queueSize);
+        volatile boolean connected;
+        private volatile Socket socket;
+
+        final LongAdder sent = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder disconnects = new LongAdder();
+
+        Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        void offer(byte[] frame) {
+            if (!queue.offer(frame))
+                dropped.increment();
+        }
+
+        void run() {
+            while (running) {
+                // written to the stream since the last flush; only a flush tells whether they went out
+                int unflushed = 0;
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.connect(new InetSocketAddress(host, port), (int) Math.max(1000, reconnectMs));
+                    s.setTcpNoDelay(true);
+                    connected = true;
+                    logger.info("Chat broker connected to {}:{}", host, port);
+                    BufferedOutputStream out = new BufferedOutputStream(s.getOutputStream(), 65536);
+                    while (running) {
+                        byte[] frame = queue.poll(1, TimeUnit.SECONDS);
+                        if (frame == null)
+                            continue;
+                        // write what else is waiting before flushing, a burst goes out in few packets
+                        do {
+                            out.write(frame);
+                            unflushed++;
+                        } while ((frame = queue.poll()) != null);
+                        out.flush();
+                        sent.add(unflushed);
+                        unflushed = 0;
+                    }
+                }
+                catch (IOException e) {
+                    // some of these may have reached the peer when the buffer filled up, but none is known to
+                    dropped.add(unflushed);
+                    if (connected) {
+                        disconnects.increment();
+                        logger.warn("Chat broker lost {}:{}: {}", host, port, e.toString());
+                    }
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                finally {
+                    connected = false;
+                }
+                pause();
+            }
+        }
+
+        private void pause() {
+            try {
+                if (running)
+                    Thread.sleep(reconnectMs);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() throws IOException {
+            Socket s = socket;
+            if (s != null)
+                s.close();
+        }
+    }
+}
@@ -9,11 +9,13 @@ import jakarta.persistence.*;
 
 
 import onetomany.Reports.Reports;
+import org.hibernate.annotations.DynamicUpdate;
 
 
 
 @Entity
 @Table(name="Users")
+@DynamicUpdate
 public class User {
 
     @Id
@@ -29,6 +31,10 @@ public class User {
     @Column(unique = true)
     private int robotId;
 
+    @Version
+    @Column(columnDefinition = "bigint not null default 0")
+    private long version;
+
 
     // =============================== Constructors ================================== //
 
@@ -62,6 +68,14 @@ public class User {
         return id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public void setId(int id){
         this.id = id;
     }
@@ -1,10 +1,22 @@
 package onetomany.Users;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import onetomany.KeysetPage;
+import onetomany.NdjsonStreams;
+import onetomany.PartialUpdates;
 
 import onetomany.roomba.roomba;
+import onetomany.roomba.roombaLookupCache;
+import onetomany.roomba.roombaPairing;
 import onetomany.roomba.roombaRepository;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
 import onetomany.WebSocketAdminNot.MessageRepository;
@@ -15,11 +27,14 @@ import onetomany.Reports.ReportsRepository;
 
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  *
@@ -40,12 +55,27 @@ public class UserController {
     @Autowired
     roombaRepository roombaRepository1;
 
+    @Autowired
+    roombaLookupCache roombaLookupCache1;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
 
 
 
     @Autowired
     MessageRepository messageRepository;
 
+    @Autowired
+    NdjsonStreams ndjsonStreams;
+
+    @Autowired
+    PartialUpdates partialUpdates;
+
+    // the password only changes through the PUT below, which checks the old one
+    private static final Set<String> PATCHABLE_FIELDS = Set.of("name", "emailId", "username", "robotId");
+
 
 
 
@@ -58,6 +88,20 @@ public class UserController {
     List<User> getAllUsers(){
         return userRepository.findAll();
     }
+
+    @GetMapping(path = "/users/page")
+    KeysetPage<User> getUserPage(@RequestParam(defaultValue = "0") int after,
+                                 @RequestParam(defaultValue = "100") int limit){
+        if (limit < 1 || limit > KeysetPage.MAX_LIMIT)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + KeysetPage.MAX_LIMIT);
+        List<User> page = userRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.ofSize(limit));
+        return KeysetPage.of(page, limit, User::getId);
+    }
+
+    @GetMapping(path = "/users/stream")
+    ResponseEntity<StreamingResponseBody> streamUsers(){
+        return ndjsonStreams.stream(userRepository::streamAllOrderedById);
+    }
     @GetMapping(path = "/users/{id}/")
     User getAUserByID(@PathVariable int id){
 
@@ -110,17 +154,26 @@ public class UserController {
         }
 
 
-        roomba tempRobot = roombaRepository1.findByUniqueID(user.getRobotId());
-        System.out.println(tempRobot.getId() + "robot id");
+        roombaPairing pairing = roombaLookupCache1.findByUniqueID(user.getRobotId());
+        if (pairing == null)
+            return failure;
+        System.out.println(pairing.getId() + "robot id");
         userRepository.save(user);
 
         User tempUser= userRepository.findByEmailId(user.getEmailId());
         System.out.println(tempUser.getName());
-        tempRobot.setUserId(tempUser.getId());
-        tempRobot.setHasAssignedUser(true);
 
         userRepository.save(user);
-        roombaRepository1.save(tempRobot);
+        // load and change the robot in one transaction, so only userId and
+        // hasAssignedUser are written and newer telemetry is left alone
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            roomba tempRobot = roombaRepository1.findByUniqueID(user.getRobotId());
+            if (tempRobot == null)
+                return;
+            tempRobot.setUserId(tempUser.getId());
+            tempRobot.setHasAssignedUser(true);
+            roombaRepository1.save(tempRobot);
+        });
 
         return success;
     }
@@ -132,10 +185,24 @@ public class UserController {
 
         if(user == null || !user.getUserPassword().equals(password))
             return null;
+        // a full replace, so it wins over whatever version the body carries
+        request.setVersion(user.getVersion());
         userRepository.save(request);
         return userRepository.findById(id);
     }
 
+    /**
+     * Changes only the fields present in the body. Send the version of the
+     * copy being edited to get 409 instead of overwriting a newer change.
+     */
+    @PatchMapping(path = "/users/{id}")
+    User patchUser(@PathVariable int id, @RequestBody Map<String, Object> changes){
+        User user = userRepository.findById(id);
+        if (user == null)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        return partialUpdates.apply(user, user.getVersion(), changes, PATCHABLE_FIELDS, userRepository::save);
+    }
+
 
 
 
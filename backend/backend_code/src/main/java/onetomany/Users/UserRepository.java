@@ -1,6 +1,14 @@
 package onetomany.Users;
 import java.util.List;
+import java.util.stream.Stream;
+
+import jakarta.persistence.QueryHint;
+import onetomany.NdjsonStreams;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 /**
  *
@@ -16,4 +24,10 @@ public interface UserRepository extends JpaRepository<User, Long> {
     User findByUsername(String username);
     User findUserByEmailId(String emailid);
 
+    List<User> findByIdGreaterThanOrderByIdAsc(int after, Pageable page);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + NdjsonStreams.FETCH_SIZE))
+    @Query("select u from User u order by u.id")
+    Stream<User> streamAllOrderedById();
+
 }
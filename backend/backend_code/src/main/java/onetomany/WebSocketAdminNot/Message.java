@@ -7,6 +7,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Lob;
 import jakarta.persistence.Table;
 import jakarta.persistence.Temporal;
@@ -15,7 +16,8 @@ import jakarta.persistence.TemporalType;
 import lombok.Data;
 
 @Entity
-@Table(name = "messages")
+// history is read newest first per group, see MessageRepository
+@Table(name = "messages", indexes = @Index(name = "idx_messages_group_sent", columnList = "groupID, sent"))
 @Data
 public class Message {
     @Id
@@ -44,6 +46,8 @@ public class Message {
     }
 
     public Message(String username, String message, int groupId) {
+        this.userName = username;
+        this.content = message;
         this.groupID=groupId;
     }
 
@@ -1,11 +1,24 @@
 package onetomany.WebSocketAdminNot;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Date;
 import java.util.List;
 
 public interface MessageRepository extends JpaRepository<onetomany.WebSocketAdminNot.Message, Long>{
         Message getMessagesByGroupID(int id);
 
         List<Message> findByGroupID(int id);
+
+        // Pages of a group's history, newest first. (sent, id) is the key, id breaks
+        // ties between messages of the same timestamp; all of them walk the
+        // (groupID, sent) index backwards instead of reading the whole group.
+        List<Message> findByGroupIDOrderBySentDescIdDesc(int groupID, Pageable page);
+
+        List<Message> findByGroupIDAndSentBeforeOrderBySentDescIdDesc(int groupID, Date sent, Pageable page);
+
+        @Query("select m from Message m where m.groupID = :groupID and (m.sent < :sent or (m.sent = :sent and m.id < :id)) order by m.sent desc, m.id desc")
+        List<Message> findPageBefore(int groupID, Date sent, long id, Pageable page);
 }
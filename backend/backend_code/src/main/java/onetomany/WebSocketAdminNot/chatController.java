@@ -0,0 +1,51 @@
+package onetomany.WebSocketAdminNot;
+
+import java.util.Date;
+import java.util.Map;
+
+import onetomany.KeysetPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+public class chatController {
+
+    @Autowired
+    chatHistory history;
+
+    @Autowired
+    chatMessageWriter messageWriter;
+
+    @Autowired
+    chatRecentMessages recentMessages;
+
+    // oldest first; pass next as before for the page preceding this one
+    @GetMapping(path = "/chat/{groupId}/history")
+    KeysetPage<Message> getHistory(@PathVariable int groupId,
+                                   @RequestParam(required = false) Long before,
+                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date beforeTime,
+                                   @RequestParam(defaultValue = "" + chatHistory.DEFAULT_LIMIT) int limit) {
+        try {
+            return history.page(groupId, before, beforeTime, limit);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping(path = "/chat/writer/stats")
+    Map<String, Long> getWriterStats() {
+        return messageWriter.getCounters();
+    }
+
+    @GetMapping(path = "/chat/recent/stats")
+    Map<String, Long> getRecentStats() {
+        return recentMessages.getCounters();
+    }
+}
@@ -0,0 +1,38 @@
+package onetomany.WebSocketAdminNot;
+
+import java.util.List;
+
+import jakarta.websocket.Extension;
+import jakarta.websocket.server.ServerEndpointConfig;
+
+import onetomany.WebSocketDeflate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Handshake of the /chat endpoint: permessage-deflate as configured by
+ * roomba.ws.chat.deflate and roomba.ws.chat.deflate-no-context-takeover.
+ */
+@Component
+public class chatEndpointConfigurator extends ServerEndpointConfig.Configurator {
+
+    // set once by Spring on the bean, used by the instance the container creates for chatNot
+    private static boolean deflate = true;
+    private static boolean noContextTakeover = false;
+
+    @Value("${roomba.ws.chat.deflate:true}")
+    public void setDeflate(boolean enabled) {
+        deflate = enabled;
+    }
+
+    @Value("${roomba.ws.chat.deflate-no-context-takeover:false}")
+    public void setNoContextTakeover(boolean enabled) {
+        noContextTakeover = enabled;
+    }
+
+    @Override
+    public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested) {
+        return new WebSocketDeflate(deflate, noContextTakeover)
+                .negotiate(super.getNegotiatedExtensions(installed, requested));
+    }
+}
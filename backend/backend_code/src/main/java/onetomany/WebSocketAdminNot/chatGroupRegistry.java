@@ -0,0 +1,85 @@
+package onetomany.WebSocketAdminNot;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.websocket.Session;
+
+/**
+ * The open chat sessions of every group.
+ *
+ * Each group holds an immutable array of its sessions that is replaced on
+ * every join or leave, so a broadcast reads one map entry and walks an array
+ * without taking a lock, and costs the same no matter how many other groups
+ * are connected. Joins and leaves of one group are serialized by the map;
+ * the entry of a group goes away with its last session.
+ */
+class chatGroupRegistry {
+
+    private static final Session[] EMPTY = new Session[0];
+
+    private final Map<Integer, Session[]> groups = new ConcurrentHashMap<>();
+    private final Map<Session, Integer> groupOf = new ConcurrentHashMap<>();
+
+    /** Adds the session to the group, leaving the group it was in before. */
+    void join(int groupId, Session session) {
+        Integer previous = groupOf.put(session, groupId);
+        if (previous != null && previous != groupId)
+            remove(previous, session);
+        groups.compute(groupId, (id, members) -> {
+            if (members == null)
+                return new Session[] { session };
+            for (Session s : members) {
+                if (s == session)
+                    return members;
+            }
+            Session[] grown = Arrays.copyOf(members, members.length + 1);
+            grown[members.length] = session;
+            return grown;
+        });
+    }
+
+    /** Removes the session from its group. Returns the group, or null if it was in none. */
+    Integer leave(Session session) {
+        Integer groupId = groupOf.remove(session);
+        if (groupId != null)
+            remove(groupId, session);
+        return groupId;
+    }
+
+    private void remove(int groupId, Session session) {
+        groups.computeIfPresent(groupId, (id, members) -> {
+            for (int i = 0; i < members.length; i++) {
+                if (members[i] == session) {
+                    if (members.length == 1)
+                        return null;
+                    Session[] shrunk = new Session[members.length - 1];
+                    System.arraycopy(members, 0, shrunk, 0, i);
+                    System.arraycopy(members, i + 1, shrunk, i, members.length - i - 1);
+                    return shrunk;
+                }
+            }
+            return members;
+        });
+    }
+
+    /** The group of a session, or null. */
+    Integer groupOf(Session session) {
+        return groupOf.get(session);
+    }
+
+    /** The sessions of a group at this moment. The array must not be modified. */
+    Session[] members(int groupId) {
+        Session[] members = groups.get(groupId);
+        return members == null ? EMPTY : members;
+    }
+
+    int groupCount() {
+        return groups.size();
+    }
+
+    int sessionCount() {
+        return groupOf.size();
+    }
+}
@@ -0,0 +1,113 @@
+package onetomany.WebSocketAdminNot;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import onetomany.KeysetPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pages of a group's chat history, read newest first and returned oldest
+ * first. The next cursor of a page is the id of its oldest message, pass it
+ * as before to get the page preceding it.
+ *
+ * Served by GET /chat/{groupId}/history and by the "/history" frame of the
+ * chat socket:
+ *
+ *   /history [before=<message id>] [beforeTime=<ISO-8601 time>] [limit=<n>]
+ *
+ * which is answered, to the asking session only, with the page as JSON.
+ */
+@Component
+public class chatHistory {
+
+    public static final int DEFAULT_LIMIT = 50;
+
+    @Autowired
+    MessageRepository messageRepository;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    /**
+     * The last limit messages of the group before the message with id before,
+     * or before the time beforeTime, or the last ones at all if both are null.
+     * before wins when both are given.
+     */
+    public KeysetPage<Message> page(int groupId, Long before, Date beforeTime, int limit) {
+        if (limit < 1 || limit > KeysetPage.MAX_LIMIT)
+            throw new IllegalArgumentException("limit must be between 1 and " + KeysetPage.MAX_LIMIT);
+        PageRequest page = PageRequest.ofSize(limit);
+        List<Message> newestFirst;
+        if (before != null) {
+            Message cursor = messageRepository.findById(before).orElse(null);
+            if (cursor == null || cursor.getGroupID() != groupId)
+                throw new IllegalArgumentException("no message " + before + " in group " + groupId);
+            newestFirst = messageRepository.findPageBefore(groupId, cursor.getSent(), cursor.getId(), page);
+        }
+        else if (beforeTime != null)
+            newestFirst = messageRepository.findByGroupIDAndSentBeforeOrderBySentDescIdDesc(groupId, beforeTime, page);
+        else
+            newestFirst = messageRepository.findByGroupIDOrderBySentDescIdDesc(groupId, page);
+
+        KeysetPage<Message> result = KeysetPage.of(newestFirst, limit, Message::getId);
+        Collections.reverse(newestFirst);
+        return result;
+    }
+
+    static boolean isRequest(String frame) {
+        return frame.startsWith("/history");
+    }
+
+    /** Answers a "/history ..." frame with the page, or with {"error": ...}. */
+    String answer(int groupId, String frame) {
+        Object reply;
+        try {
+            Long before = null;
+            Date beforeTime = null;
+            int limit = DEFAULT_LIMIT;
+            String[] words = frame.trim().split("\\s+");
+            for (int i = 1; i < words.length; i++) {
+                int eq = words[i].indexOf('=');
+                String name = eq < 0 ? words[i] : words[i].substring(0, eq);
+                String value = eq < 0 ? "" : words[i].substring(eq + 1);
+                switch (name) {
+                    case "before":
+                        before = Long.valueOf(value);
+                        break;
+                    case "beforeTime":
+                        beforeTime = Date.from(OffsetDateTime.parse(value).toInstant());
+                        break;
+                    case "limit":
+                        limit = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown parameter " + name);
+                }
+            }
+            reply = page(groupId, before, beforeTime, limit);
+        }
+        catch (DateTimeParseException e) {
+            reply = Map.of("error", "beforeTime must be an ISO-8601 time with offset");
+        }
+        catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            reply = Map.of("error", e.getMessage());
+        }
+        try {
+            return objectMapper.writeValueAsString(reply);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
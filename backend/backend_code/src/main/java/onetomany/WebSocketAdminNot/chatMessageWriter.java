@@ -0,0 +1,196 @@
+package onetomany.WebSocketAdminNot;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind writer for chat messages.
+ *
+ * Messages are queued and inserted into the messages table with JDBC batch
+ * inserts on one flusher thread, at the latest max-delay after they were
+ * queued or as soon as batch-size messages are waiting. The queue holds at
+ * most capacity messages; offer() waits up to offer-timeout for room and
+ * rejects the message after that.
+ *
+ * A batch is inserted in one transaction. A batch that fails is kept and
+ * tried again on the next flush, up to max-attempts times, so a short database
+ * outage delays messages instead of losing them; meanwhile the queue fills up
+ * and offer() starts to push back.
+ */
+@Service
+public class chatMessageWriter {
+
+    static final String INSERT_SQL = "INSERT INTO messages (groupid, user_name, content, sent) VALUES (?, ?, ?, ?)";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Value("${roomba.chat.writer.max-delay-ms:200}")
+    long maxDelayMs;
+
+    @Value("${roomba.chat.writer.batch-size:500}")
+    int batchSize;
+
+    @Value("${roomba.chat.writer.capacity:20000}")
+    int capacity;
+
+    @Value("${roomba.chat.writer.offer-timeout-ms:50}")
+    long offerTimeoutMs;
+
+    @Value("${roomba.chat.writer.max-attempts:5}")
+    int maxAttempts;
+
+    private BlockingQueue<Message> queue;
+    private ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    // flusher thread only
+    private List<Message> failedBatch;
+    private int failedAttempts;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+
+    private final Logger logger = LoggerFactory.getLogger(chatMessageWriter.class);
+
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(capacity);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-message-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, maxDelayMs, maxDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        // write whatever arrived after the last scheduled flush
+        flush();
+        if (failedBatch != null || !queue.isEmpty())
+            logger.error("Shutting down with {} chat messages not written",
+                    queue.size() + (failedBatch == null ? 0 : failedBatch.size()));
+    }
+
+    /**
+     * Queues one message. Returns false if the queue stayed full for the
+     * whole offer timeout; the message is then not stored.
+     */
+    public boolean offer(Message message) throws InterruptedException {
+        if (!queue.offer(message, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+            rejected.increment();
+            return false;
+        }
+        accepted.increment();
+        if (queue.size() >= batchSize && flushRequested.compareAndSet(false, true))
+            flusher.execute(this::flush);
+        return true;
+    }
+
+    /**
+     * Writes every queued message. Runs on the flusher thread, and once more
+     * on shutdown after that thread has stopped.
+     */
+    void flush() {
+        flushRequested.set(false);
+        if (failedBatch != null && !write(failedBatch))
+            return;
+        while (!queue.isEmpty()) {
+            List<Message> batch = new ArrayList<>(Math.min(queue.size(), batchSize));
+            queue.drainTo(batch, batchSize);
+            if (!write(batch))
+                return;
+        }
+    }
+
+    // returns false if the batch failed and is kept for the next flush
+    private boolean write(List<Message> batch) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, m) -> {
+                        ps.setInt(1, m.getGroupID());
+                        ps.setString(2, m.getUserName());
+                        ps.setString(3, m.getContent());
+                        ps.setTimestamp(4, new Timestamp(m.getSent().getTime()));
+                    }));
+        }
+        catch (RuntimeException e) {
+            failedFlushes.increment();
+            if (++failedAttempts < maxAttempts) {
+                logger.warn("Failed to write {} chat messages, attempt {} of {}", batch.size(), failedAttempts, maxAttempts, e);
+                failedBatch = batch;
+                return false;
+            }
+            logger.error("Dropping {} chat messages after {} failed attempts", batch.size(), failedAttempts, e);
+            lost.add(batch.size());
+            failedBatch = null;
+            failedAttempts = 0;
+            return true;
+        }
+        long took = System.nanoTime() - start;
+        failedBatch = null;
+        failedAttempts = 0;
+        written.add(batch.size());
+        flushes.increment();
+        flushNanos.add(took);
+        maxFlushNanos.accumulateAndGet(took, Math::max);
+        lastFlushNanos = took;
+        return true;
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    public Map<String, Long> getCounters() {
+        long flushCount = flushes.sum();
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("accepted", accepted.sum());
+        counters.put("rejected", rejected.sum());
+        counters.put("written", written.sum());
+        counters.put("lost", lost.sum());
+        counters.put("flushes", flushCount);
+        counters.put("failedFlushes", failedFlushes.sum());
+        counters.put("pending", (long) queue.size());
+        counters.put("capacity", (long) capacity);
+        counters.put("lastFlushMicros", lastFlushNanos / 1000);
+        counters.put("avgFlushMicros", flushCount == 0 ? 0 : flushNanos.sum() / flushCount / 1000);
+        counters.put("maxFlushMicros", maxFlushNanos.get() / 1000);
+        return counters;
+    }
+}
@@ -1,9 +1,9 @@
 package onetomany.WebSocketAdminNot;
 
 import java.io.IOException;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jakarta.websocket.OnClose;
 import jakarta.websocket.OnError;
@@ -15,39 +15,82 @@ import jakarta.websocket.server.ServerEndpoint;
 
 
 import onetomany.Users.User;
+import onetomany.ChatBroker;
+import onetomany.WebSocketOutbound;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 
 @Controller      // this is needed for this to be an endpoint to springboot
-@ServerEndpoint(value = "/chat/{id}/{username}")  // this is Websocket url
+@ServerEndpoint(value = "/chat/{id}/{username}", configurator = chatEndpointConfigurator.class)  // this is Websocket url
 public class chatNot {
 
     // cannot autowire static directly (instead we do it by the below
     // method
-    private static MessageRepository msgRepo;
+    private static chatMessageWriter messageWriter;
 
 
     /*
-     * Grabs the MessageRepository singleton from the Spring Application
+     * Grabs the chatMessageWriter singleton from the Spring Application
      * Context.  This works because of the @Controller annotation on this
      * class and because the variable is declared as static.
      * There are other ways to set this. However, this approach is
      * easiest.
      */
     @Autowired
-    public void setMessageRepository(MessageRepository repo) {
-        msgRepo = repo;  // we are setting the static variable
+    public void setMessageWriter(chatMessageWriter writer) {
+        messageWriter = writer;  // we are setting the static variable
+    }
+
+    private static chatHistory history;
+    private static chatRecentMessages recentMessages;
+
+    @Autowired
+    public void setChatHistory(chatHistory chatHistory) {
+        history = chatHistory;
+    }
+
+    @Autowired
+    public void setRecentMessages(chatRecentMessages chatRecentMessages) {
+        recentMessages = chatRecentMessages;
+    }
+
+    // queues every outgoing message, so one slow client cannot hold up the others
+    private static WebSocketOutbound outbound;
+
+    @Autowired
+    public void setOutbound(WebSocketOutbound webSocketOutbound) {
+        outbound = webSocketOutbound;
+    }
+
+    // a session that connects with ?batch=1 gets JSON arrays of the messages queued within this window
+    private static long batchMs = 10;
+
+    @Value("${roomba.ws.chat.batch-ms:10}")
+    public void setBatchMs(long windowMs) {
+        batchMs = windowMs;
+    }
+
+    // every group message and notice goes through the broker, so members on other instances get it too
+    static final String CHANNEL = "chat";
+    private static ChatBroker broker;
+
+    @Autowired
+    public void setBroker(ChatBroker chatBroker) {
+        broker = chatBroker;
+        broker.subscribe(CHANNEL, chatNot::deliver);
     }
 
 
 
     // Store all socket session and their corresponding username.
-    private static Map<Session, String> sessionUsernameMap = new Hashtable<>();
-    private static Map<String, Session> usernameSessionMap = new Hashtable<>();
-    private static Map<Session, Integer> sessionGroupIdMap = new Hashtable<>();
+    private static Map<Session, String> sessionUsernameMap = new ConcurrentHashMap<>();
+    private static Map<String, Session> usernameSessionMap = new ConcurrentHashMap<>();
+    // sessions by group, so a group message only touches that group
+    private static final chatGroupRegistry groups = new chatGroupRegistry();
 
     private final Logger logger = LoggerFactory.getLogger(chatSocket.class);
 
@@ -61,12 +104,16 @@ public class chatNot {
         // Store connecting user information
         sessionUsernameMap.put(session, username);
         usernameSessionMap.put(username, session);
-        sessionGroupIdMap.put(session, id); // Store groupId for the session
+        groups.join(id, session);
 
+        // batched frames only for clients that asked for them
+        List<String> batch = session.getRequestParameterMap().get("batch");
+        if (batchMs > 0 && batch != null && batch.contains("1"))
+            outbound.batch(session, batchMs);
 
 
-        //Send chat history to the newly connected user
-        sendMessageToPArticularUser(username, getChatHistory(id));
+        //Send the latest messages to the newly connected user, older ones are paged with /history
+        sendMessageToPArticularUser(username, recentMessages.joinTail(id));
 
         // broadcast that new user joined
         String message = "Roomba:" + username + " is here";
@@ -79,15 +126,28 @@ public class chatNot {
 
         logger.info("Entered into Message: Got Message:" + message);
         String username = sessionUsernameMap.get(session);
-        int groupId = sessionGroupIdMap.get(session); // Get groupId for the session
-
-        // Handle messages here...
+        Integer groupId = groups.groupOf(session);
+        if (groupId == null)
+            return; // already closed
+
+        // a history request is answered to the asking session only
+        if (chatHistory.isRequest(message)) {
+            outbound.send(session, history.answer(groupId, message));
+            return;
+        }
 
-        // Broadcast message to the same group
-        broadcastToGroup(username + ": " + message, groupId);
+        // Broadcast message to the same group, the ring of recent messages picks it up on delivery
+        recentMessages.load(groupId);
+        broadcastToGroup(chatRecentMessages.line(username, message), groupId);
 
-        // Saving chat history to repository
-        msgRepo.save(new Message(username, message, groupId));
+        // Saving chat history, written behind so delivery never waits on the database
+        try {
+            if (!messageWriter.offer(new Message(username, message, groupId)))
+                logger.warn("Chat history is full, message from {} in group {} not stored", username, groupId);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
 
@@ -99,6 +159,8 @@ public class chatNot {
         String username = sessionUsernameMap.get(session);
         sessionUsernameMap.remove(session);
         usernameSessionMap.remove(username);
+        groups.leave(session);
+        outbound.remove(session);
 
         // broadcase that the user disconnected
         String message = username + " disconnected";
@@ -115,56 +177,32 @@ public class chatNot {
 
 
     private void sendMessageToPArticularUser(String username, String message) {
-        try {
-            usernameSessionMap.get(username).getBasicRemote().sendText(message);
-        }
-        catch (IOException e) {
-            logger.info("Exception: " + e.getMessage().toString());
-            e.printStackTrace();
-        }
+        Session session = usernameSessionMap.get(username);
+        if (session != null)
+            outbound.send(session, message);
     }
 
 
     private void broadcast(String message) {
-        sessionUsernameMap.forEach((session, username) -> {
-            try {
-                session.getBasicRemote().sendText(message);
-            }
-            catch (IOException e) {
-                logger.info("Exception: " + e.getMessage().toString());
-                e.printStackTrace();
-            }
-
-        });
-
+        broker.publish(CHANNEL, ChatBroker.ALL, message);
     }
 
 
 
-    // Gets the Chat history from the repository
-    private String getChatHistory(int id) {
-        List<Message> messages = msgRepo.findByGroupID(id);
+    private void broadcastToGroup(String message, int groupId) {
+        broker.publish(CHANNEL, String.valueOf(groupId), message);
+    }
 
-        // convert the list to a string
-        StringBuilder sb = new StringBuilder();
-        if(messages != null && messages.size() != 0) {
-            for (Message message : messages) {
-                sb.append(message.getUserName() + ": " + message.getContent() + "\n");
-            }
+    // a message published on any instance, for the sessions connected to this one
+    private static void deliver(String key, String message) {
+        if (ChatBroker.ALL.equals(key)) {
+            sessionUsernameMap.forEach((session, username) -> outbound.send(session, message));
+            return;
         }
-        return sb.toString();
-    }
-    private void broadcastToGroup(String message, int groupId) {
-        sessionGroupIdMap.forEach((session, group) -> {
-            if (group == groupId) { // Check if the session belongs to the same group
-                try {
-                    session.getBasicRemote().sendText(message);
-                } catch (IOException e) {
-                    // Handle exception
-                    logger.error("Error broadcasting message to group {}", groupId, e);
-                }
-            }
-        });
+        int groupId = Integer.parseInt(key);
+        recentMessages.addIfLoaded(groupId, message);
+        for (Session session : groups.members(groupId))
+            outbound.send(session, message);
     }
 
 }
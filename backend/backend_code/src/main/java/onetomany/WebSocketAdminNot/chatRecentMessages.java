@@ -0,0 +1,216 @@
+package onetomany.WebSocketAdminNot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The latest messages of every active chat group, so a joining session gets
+ * its tail without a database round trip.
+ *
+ * Each group has a ring of its last join-limit messages, as the "user: text"
+ * lines the tail is made of. It is loaded from the database the first time
+ * the group is joined or written to on this instance, once even when many
+ * sessions join at the same moment. From then on the messages of the group
+ * that reach this instance through the chat broker are appended, whichever
+ * instance they were sent on. The rings together are held under max-mb
+ * (estimated); past that the groups used least recently are dropped and load
+ * again on their next use.
+ *
+ * Messages still in the chatMessageWriter queue are not in the database, so
+ * a group dropped while it was busy can reload without its last few hundred
+ * milliseconds of messages. Only the join tail is affected, /history reads
+ * the database.
+ */
+@Component
+public class chatRecentMessages {
+
+    // String header, its byte array header and the ring slot, per line
+    static final int LINE_OVERHEAD_BYTES = 64;
+
+    @Autowired
+    chatHistory history;
+
+    @Value("${roomba.chat.history.join-limit:50}")
+    int capacity = chatHistory.DEFAULT_LIMIT;
+
+    @Value("${roomba.chat.recent.max-mb:32}")
+    long maxMb = 32;
+
+    private final Map<Integer, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** The tail sent to a session when it joins, one "user: text" line per message. */
+    public String joinTail(int groupId) {
+        Ring ring = ring(groupId);
+        if (ring.load())
+            misses.increment();
+        else
+            hits.increment();
+        String tail = ring.render();
+        evictIfOver();
+        return tail;
+    }
+
+    /**
+     * Loads the group's ring if it is not yet. Called before a message of the
+     * group is published, so the ring exists when the message comes back.
+     */
+    public void load(int groupId) {
+        ring(groupId).load();
+    }
+
+    /** Appends a message of the group, if the group has a ring on this instance. */
+    public void addIfLoaded(int groupId, String line) {
+        Ring ring = rings.get(groupId);
+        if (ring == null || !ring.addIfLoaded(line))
+            return;
+        appends.increment();
+        evictIfOver();
+    }
+
+    static String line(String userName, String content) {
+        return userName + ": " + content;
+    }
+
+    private Ring ring(int groupId) {
+        Ring ring = rings.computeIfAbsent(groupId, Ring::new);
+        ring.lastUsed = System.nanoTime();
+        return ring;
+    }
+
+    private void evictIfOver() {
+        long budget = maxMb * 1024 * 1024;
+        if (bytes.get() <= budget || !evicting.compareAndSet(false, true))
+            return;
+        try {
+            // drop to 90% so a busy server does not scan on every message
+            long target = budget / 10 * 9;
+            List<Ring> byAge = new ArrayList<>(rings.values());
+            byAge.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+            for (Ring ring : byAge) {
+                if (bytes.get() <= target)
+                    break;
+                if (rings.remove(ring.groupId, ring)) {
+                    ring.drop();
+                    evictions.increment();
+                }
+            }
+        }
+        finally {
+            evicting.set(false);
+        }
+    }
+
+    static long sizeOf(String line) {
+        return LINE_OVERHEAD_BYTES + line.length();
+    }
+
+    public Map<String, Long> getCounters() {
+        long hitCount = hits.sum(), missCount = misses.sum();
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("groups", (long) rings.size());
+        counters.put("bytes", bytes.get());
+        counters.put("maxBytes", maxMb * 1024 * 1024);
+        counters.put("hits", hitCount);
+        counters.put("misses", missCount);
+        counters.put("hitRatePercent", hitCount + missCount == 0 ? 0 : hitCount * 100 / (hitCount + missCount));
+        counters.put("appends", appends.sum());
+        counters.put("evictions", evictions.sum());
+        return counters;
+    }
+
+    private final class Ring {
+
+        final int groupId;
+        volatile long lastUsed;
+        // guarded by this
+        private final String[] slots = new String[capacity];
+        private int next;
+        private int size;
+        private long ringBytes;
+        private boolean loaded;
+        private boolean dropped;
+        // shared by the joins that come before the next message
+        private String rendered;
+
+        Ring(int groupId) {
+            this.groupId = groupId;
+        }
+
+        /** Loads the ring from the database if it is not yet. Returns true if it did. */
+        synchronized boolean load() {
+            if (loaded)
+                return false;
+            // oldest first, like the ring
+            for (Message m : history.page(groupId, null, null, capacity).getItems())
+                put(line(m.getUserName(), m.getContent()));
+            loaded = true;
+            return true;
+        }
+
+        synchronized boolean addIfLoaded(String line) {
+            if (!loaded || dropped)
+                return false;
+            put(line);
+            return true;
+        }
+
+        synchronized String render() {
+            if (rendered == null) {
+                StringBuilder sb = new StringBuilder();
+                for (String line : snapshot())
+                    sb.append(line).append('\n');
+                rendered = sb.toString();
+            }
+            return rendered;
+        }
+
+        // the messages stay readable for whoever still holds the ring, new ones are not kept
+        synchronized void drop() {
+            resize(-ringBytes);
+            dropped = true;
+        }
+
+        private void put(String line) {
+            if (dropped)
+                return;
+            String old = slots[next];
+            if (old != null)
+                resize(-sizeOf(old));
+            slots[next] = line;
+            resize(sizeOf(line));
+            rendered = null;
+            next = (next + 1) % slots.length;
+            size = Math.min(size + 1, slots.length);
+        }
+
+        private String[] snapshot() {
+            String[] out = new String[size];
+            int first = (next - size + slots.length) % slots.length;
+            for (int i = 0; i < size; i++)
+                out[i] = slots[(first + i) % slots.length];
+            return out;
+        }
+
+        private void resize(long delta) {
+            ringBytes += delta;
+            bytes.addAndGet(delta);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package onetomany;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.websocket.Extension;
+
+/**
+ * permessage-deflate settings of one WebSocket endpoint.
+ *
+ * Tomcat compresses at the default zlib level with a 32 KB window and keeps
+ * the compression context of every session between messages, which is what
+ * makes short chat lines compress well but costs each session a deflater of
+ * a few hundred KB. With no-context-takeover the server asks for the context
+ * to be reset after every message: less memory per session, a worse ratio
+ * for small messages. Disabled, the extension is not offered back even when
+ * the client asks for it.
+ */
+public class WebSocketDeflate {
+
+    public static final String EXTENSION = "permessage-deflate";
+    public static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+    private final boolean enabled;
+    private final boolean noContextTakeover;
+
+    public WebSocketDeflate(boolean enabled, boolean noContextTakeover) {
+        this.enabled = enabled;
+        this.noContextTakeover = noContextTakeover;
+    }
+
+    /** The extensions to go on with, out of those the container would accept. */
+    public List<Extension> negotiate(List<Extension> accepted) {
+        List<Extension> out = new ArrayList<>(accepted.size());
+        for (Extension extension : accepted) {
+            if (!EXTENSION.equals(extension.getName())) {
+                out.add(extension);
+            }
+            else if (enabled) {
+                out.add(noContextTakeover && !has(extension, SERVER_NO_CONTEXT_TAKEOVER)
+                        ? withNoContextTakeover(extension) : extension);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The same for a Sec-WebSocket-Extensions request header, for handshakes
+     * where the container negotiates from the request (see WebSocketConfig).
+     * Returns null when nothing is left of it.
+     */
+    public String negotiate(String header) {
+        if (header == null)
+            return null;
+        List<String> out = new ArrayList<>();
+        for (String offer : header.split(",")) {
+            String offered = offer.trim();
+            String name = offered.split(";", 2)[0].trim();
+            if (!EXTENSION.equals(name)) {
+                out.add(offered);
+            }
+            else if (enabled) {
+                out.add(noContextTakeover && !offered.contains(SERVER_NO_CONTEXT_TAKEOVER)
+                        ? offered + "; " + SERVER_NO_CONTEXT_TAKEOVER : offered);
+            }
+        }
+        return out.isEmpty() ? null : String.join(", ", out);
+    }
+
+    private static boolean has(Extension extension, String parameter) {
+        for (Extension.Parameter p : extension.getParameters()) {
+            if (parameter.equals(p.getName()))
+                return true;
+        }
+        return false;
+    }
+
+    private static Extension withNoContextTakeover(Extension extension) {
+        List<Extension.Parameter> parameters = new ArrayList<>(extension.getParameters());
+        parameters.add(new Extension.Parameter() {
+            @Override
+            public String getName() {
+                return SERVER_NO_CONTEXT_TAKEOVER;
+            }
+
+            @Override
+            public String getValue() {
+                return null;
+            }
+        });
+        return new Extension() {
+            @Override
+            public String getName() {
+                return extension.getName();
+            }
+
+            @Override
+            public List<Parameter> getParameters() {
+                return parameters;
+            }
+        };
+    }
+}
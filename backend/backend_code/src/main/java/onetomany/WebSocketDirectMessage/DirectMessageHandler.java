@@ -1,11 +1,13 @@
 package onetomany.WebSocketDirectMessage;
 
+import onetomany.ChatBroker;
+import onetomany.WebSocketOutbound;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Map;
 
@@ -14,11 +16,34 @@ public class DirectMessageHandler extends TextWebSocketHandler {
     private static Map<WebSocketSession, String> sessionUsernameMap = new Hashtable<>();
     private static Map<String, WebSocketSession> usernameSessionMap = new Hashtable<>();
 
+    // the recipient may be connected to another instance, DMs go through the broker keyed by username
+    static final String CHANNEL = "dm";
+
+    private final WebSocketOutbound outbound;
+    private final ChatBroker broker;
+    // for sessions that connect with ?batch=1, 0 never batches
+    private final long batchMs;
+
+    public DirectMessageHandler(WebSocketOutbound outbound, ChatBroker broker, long batchMs) {
+        this.outbound = outbound;
+        this.broker = broker;
+        this.batchMs = batchMs;
+        broker.subscribe(CHANNEL, this::sendMessageToParticularUser);
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String username = (String) session.getAttributes().get("username");
+        if (username == null) {
+            // nothing copies {username} of /dm/{username} into the attributes, take it from the path
+            String path = session.getUri().getPath();
+            username = path.substring(path.lastIndexOf('/') + 1);
+            session.getAttributes().put("username", username);
+        }
         sessionUsernameMap.put(session, username);
         usernameSessionMap.put(username, session);
+        if (batchMs > 0 && "1".equals(UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("batch")))
+            outbound.batch(session, batchMs);
         sendMessageToParticularUser(username, "Welcome to the Direct Messaging service!");
     }
 
@@ -29,7 +54,7 @@ public class DirectMessageHandler extends TextWebSocketHandler {
         if (parts.length == 2) {
             String recipientUsername = parts[0].substring(1);
             String messageContent = parts[1];
-            sendMessageToParticularUser(recipientUsername, "[DM] " + username + ": " + messageContent);
+            broker.publish(CHANNEL, recipientUsername, "[DM] " + username + ": " + messageContent);
             sendMessageToParticularUser(username, "[DM] " + username + ": " + messageContent);
         }
     }
@@ -39,16 +64,13 @@ public class DirectMessageHandler extends TextWebSocketHandler {
         String username = sessionUsernameMap.get(session);
         sessionUsernameMap.remove(session);
         usernameSessionMap.remove(username);
+        outbound.remove(session);
     }
 
     private void sendMessageToParticularUser(String username, String message) {
-        try {
-            WebSocketSession session = usernameSessionMap.get(username);
-            if (session != null && session.isOpen()) {
-                session.sendMessage(new TextMessage(message));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        WebSocketSession session = usernameSessionMap.get(username);
+        if (session != null) {
+            outbound.send(session, message);
         }
     }
 }
\ No newline at end of file
@@ -1,15 +1,113 @@
 package onetomany.WebSocketDirectMessage;
 
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+import onetomany.ChatBroker;
+import onetomany.WebSocketDeflate;
+import onetomany.WebSocketOutbound;
+import onetomany.roomba.roombaTelemetrySocket;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.RequestUpgradeStrategy;
+import org.springframework.web.socket.server.standard.TomcatRequestUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
+
+    @Autowired
+    roombaTelemetrySocket telemetrySocket;
+
+    @Autowired
+    WebSocketOutbound outbound;
+
+    @Autowired
+    ChatBroker broker;
+
+    // a session that connects with ?batch=1 gets JSON arrays of the messages queued within this window
+    @Value("${roomba.ws.dm.batch-ms:10}")
+    long dmBatchMs = 10;
+
+    @Value("${roomba.ws.dm.deflate:true}")
+    boolean dmDeflate = true;
+
+    @Value("${roomba.ws.dm.deflate-no-context-takeover:false}")
+    boolean dmNoContextTakeover;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(new DirectMessageHandler(), "/dm/{username}").setAllowedOrigins("*");
+        registry.addHandler(new DirectMessageHandler(outbound, broker, dmBatchMs), "/dm/{username}")
+                .setHandshakeHandler(new DefaultHandshakeHandler(
+                        new DeflateUpgradeStrategy(new WebSocketDeflate(dmDeflate, dmNoContextTakeover))))
+                .setAllowedOrigins("*");
+        registry.addHandler(telemetrySocket, "/telemetry").setAllowedOrigins("*");
+    }
+
+    /**
+     * Tomcat negotiates the extensions of a handshake done through Spring from
+     * the request header alone, so the deflate settings are applied to that.
+     */
+    private static final class DeflateUpgradeStrategy implements RequestUpgradeStrategy {
+
+        private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+        private final RequestUpgradeStrategy tomcat = new TomcatRequestUpgradeStrategy();
+        private final WebSocketDeflate deflate;
+
+        DeflateUpgradeStrategy(WebSocketDeflate deflate) {
+            this.deflate = deflate;
+        }
+
+        @Override
+        public String[] getSupportedVersions() {
+            return tomcat.getSupportedVersions();
+        }
+
+        @Override
+        public List<WebSocketExtension> getSupportedExtensions(ServerHttpRequest request) {
+            return tomcat.getSupportedExtensions(request);
+        }
+
+        @Override
+        public void upgrade(ServerHttpRequest request, ServerHttpResponse response, String selectedProtocol,
+                List<WebSocketExtension> selectedExtensions, Principal user, WebSocketHandler handler,
+                Map<String, Object> attributes) throws HandshakeFailureException {
+            HttpServletRequest original = ((ServletServerHttpRequest) request).getServletRequest();
+            String extensions = deflate.negotiate(original.getHeader(EXTENSIONS_HEADER));
+            HttpServletRequest negotiated = new HttpServletRequestWrapper(original) {
+                @Override
+                public String getHeader(String name) {
+                    return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? extensions : super.getHeader(name);
+                }
+
+                @Override
+                public Enumeration<String> getHeaders(String name) {
+                    if (!EXTENSIONS_HEADER.equalsIgnoreCase(name))
+                        return super.getHeaders(name);
+                    return extensions == null ? Collections.emptyEnumeration()
+                            : Collections.enumeration(List.of(extensions));
+                }
+            };
+            tomcat.upgrade(new ServletServerHttpRequest(negotiated), response, selectedProtocol, selectedExtensions,
+                    user, handler, attributes);
+        }
     }
 }
\ No newline at end of file
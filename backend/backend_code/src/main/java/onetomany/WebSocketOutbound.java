@@ -0,0 +1,461 @@
+package onetomany;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+/**
+ * Outgoing text messages of the WebSocket endpoints, one bounded queue per
+ * session.
+ *
+ * send() only queues, so a broadcast never waits for a slow client. Each
+ * queue has at most one message on the wire at a time and sends the next
+ * when it completes, through the container's async remote where there is
+ * one and on a small sender pool otherwise. When a queue is full the
+ * configured policy decides:
+ *
+ *   drop-oldest  the oldest queued message is dropped
+ *   coalesce     the queued messages are joined with newlines into one; a
+ *                client that lets that grow past coalesce-max-chars is
+ *                disconnected
+ *   disconnect   the session is closed with 1013 (try again later)
+ *
+ * A session switched to batch() gets JSON arrays of strings instead: the
+ * first message queued starts a window, and everything queued by its end
+ * goes out as one frame, as does whatever queued up while a frame was on
+ * the wire. A frame holds at most coalesce-max-chars (and at least one
+ * message), so busy groups cost one write per window instead of one per
+ * message.
+ *
+ * policy() overrides the configured policy for one session, e.g. for
+ * streams that cannot skip or merge a message and would rather have the
+ * client reconnect.
+ *
+ * The endpoints call remove() when a session closes; until then a session
+ * that was evicted or failed a send is ignored. An outbox created while its
+ * session was closing is removed again by the send that created it.
+ */
+@Component
+public class WebSocketOutbound {
+
+    public enum Policy { DROP_OLDEST, COALESCE, DISCONNECT }
+
+    @Value("${roomba.ws.outbound.queue-size:256}")
+    int queueSize = 256;
+
+    @Value("${roomba.ws.outbound.policy:disconnect}")
+    String policyName = "disconnect";
+
+    @Value("${roomba.ws.outbound.coalesce-max-chars:65536}")
+    int coalesceMaxChars = 65536;
+
+    @Value("${roomba.ws.outbound.send-timeout-ms:10000}")
+    long sendTimeoutMs = 10000;
+
+    @Value("${roomba.ws.outbound.threads:2}")
+    int threads = 2;
+
+    private Policy policy;
+    private ExecutorService senders;
+    private ScheduledExecutorService batchTimer;
+
+    private final Map<Object, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final AtomicLong queued = new AtomicLong();
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedMessages = new LongAdder();
+    private final LongAdder sentChars = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(WebSocketOutbound.class);
+
+    @PostConstruct
+    public void start() {
+        policy = Policy.valueOf(policyName.trim().toUpperCase().replace('-', '_'));
+        if (queueSize < 1)
+            throw new IllegalStateException("roomba.ws.outbound.queue-size must be at least 1");
+        AtomicInteger n = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "ws-outbound-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-outbound-batch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        senders.shutdownNow();
+        batchTimer.shutdownNow();
+    }
+
+    public void send(Session session, String text) {
+        Outbox outbox = outbox(session);
+        if (outbox != null)
+            outbox.offer(text);
+    }
+
+    public void send(WebSocketSession session, String text) {
+        Outbox outbox = outbox(session);
+        if (outbox != null)
+            outbox.offer(text);
+    }
+
+    /** Sends the session's messages as JSON arrays, collecting what is queued within windowMs (see above). */
+    public void batch(Session session, long windowMs) {
+        Outbox outbox = outbox(session);
+        if (outbox != null)
+            outbox.batchNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    public void batch(WebSocketSession session, long windowMs) {
+        Outbox outbox = outbox(session);
+        if (outbox != null)
+            outbox.batchNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    /** What happens when the session's queue is full, instead of the configured policy. */
+    public void policy(Session session, Policy policy) {
+        Outbox outbox = outbox(session);
+        if (outbox != null)
+            outbox.policy = policy;
+    }
+
+    private Outbox outbox(Session session) {
+        if (!session.isOpen())
+            return null;
+        try {
+            return checkOpen(session, outboxes.computeIfAbsent(session,
+                    s -> session.isOpen() ? new Outbox(s, new AsyncTransport(session)) : null), session.isOpen());
+        }
+        catch (IllegalStateException e) {
+            // closed between the check and its first send, nothing to deliver it to
+            return null;
+        }
+    }
+
+    private Outbox outbox(WebSocketSession session) {
+        if (!session.isOpen())
+            return null;
+        return checkOpen(session, outboxes.computeIfAbsent(session, s -> {
+            if (!session.isOpen())
+                return null;
+            // Spring's standard sessions wrap a container session that can send asynchronously
+            Session nativeSession = session instanceof NativeWebSocketSession
+                    ? ((NativeWebSocketSession) session).getNativeSession(Session.class) : null;
+            return new Outbox(s, nativeSession != null ? new AsyncTransport(nativeSession) : new PooledTransport(session));
+        }), session.isOpen());
+    }
+
+    // A session can close, and its remove() run, between the isOpen() check
+    // and computeIfAbsent creating the outbox; nothing would remove that one.
+    // The session reports closed before the endpoint's close callback runs,
+    // so checking again afterwards catches every such outbox.
+    private Outbox checkOpen(Object session, Outbox outbox, boolean open) {
+        if (outbox == null || open)
+            return outbox;
+        if (outboxes.remove(session, outbox))
+            outbox.discard();
+        return null;
+    }
+
+    /** Forgets a closed session and whatever was still queued for it. */
+    public void remove(Object session) {
+        Outbox outbox = outboxes.remove(session);
+        if (outbox != null)
+            outbox.discard();
+    }
+
+    public Map<String, Long> getCounters() {
+        long maxDepth = 0;
+        for (Outbox outbox : outboxes.values())
+            maxDepth = Math.max(maxDepth, outbox.depth());
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("sessions", (long) outboxes.size());
+        counters.put("queued", queued.get());
+        counters.put("maxQueueDepth", maxDepth);
+        counters.put("queueSize", (long) queueSize);
+        counters.put("enqueued", enqueued.sum());
+        counters.put("sent", sent.sum());
+        counters.put("failed", failed.sum());
+        counters.put("dropped", dropped.sum());
+        counters.put("coalesced", coalesced.sum());
+        counters.put("evicted", evicted.sum());
+        counters.put("batches", batches.sum());
+        counters.put("batchedMessages", batchedMessages.sum());
+        counters.put("sentChars", sentChars.sum());
+        return counters;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /** Sends one message and reports back once it is on the wire, or failed. */
+    private interface Transport {
+        void send(String text, Consumer<Throwable> done);
+
+        void close();
+    }
+
+    private final class AsyncTransport implements Transport {
+
+        private final Session session;
+
+        AsyncTransport(Session session) {
+            this.session = session;
+            session.getAsyncRemote().setSendTimeout(sendTimeoutMs);
+        }
+
+        @Override
+        public void send(String text, Consumer<Throwable> done) {
+            session.getAsyncRemote().sendText(text, result -> done.accept(result.isOK() ? null : result.getException()));
+        }
+
+        @Override
+        public void close() {
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too slow"));
+            }
+            catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+
+    private final class PooledTransport implements Transport {
+
+        private final WebSocketSession session;
+
+        PooledTransport(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void send(String text, Consumer<Throwable> done) {
+            senders.execute(() -> {
+                try {
+                    session.sendMessage(new TextMessage(text));
+                    done.accept(null);
+                }
+                catch (Exception e) {
+                    done.accept(e);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            try {
+                session.close(CloseStatus.SERVICE_OVERLOAD);
+            }
+            catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+
+    private final class Outbox {
+
+        private final Object session;
+        private final Transport transport;
+        // guarded by this
+        private final ArrayDeque<String> queue = new ArrayDeque<>();
+        private boolean sending;
+        private boolean closed;
+        // 0 for one frame per message
+        volatile long batchNanos;
+        volatile Policy policy = WebSocketOutbound.this.policy;
+
+        Outbox(Object session, Transport transport) {
+            this.session = session;
+            this.transport = transport;
+        }
+
+        void offer(String text) {
+            String next;
+            synchronized (this) {
+                if (closed)
+                    return;
+                enqueued.increment();
+                if (queue.size() >= queueSize && !overflow(text))
+                    return;
+                queue.addLast(text);
+                queued.incrementAndGet();
+                if (sending)
+                    return;
+                sending = true;
+                if (batchNanos > 0) {
+                    batchTimer.schedule(this::sendNext, batchNanos, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                next = poll();
+            }
+            send(next);
+        }
+
+        // returns false if text must not be queued any more
+        private boolean overflow(String text) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    queue.pollFirst();
+                    queued.decrementAndGet();
+                    dropped.increment();
+                    return true;
+                case COALESCE:
+                    int length = text.length();
+                    for (String s : queue)
+                        length += s.length() + 1;
+                    if (length <= coalesceMaxChars) {
+                        StringBuilder joined = new StringBuilder(length);
+                        for (String s : queue)
+                            joined.append(s).append('\n');
+                        joined.setLength(joined.length() - 1);
+                        coalesced.add(queue.size() - 1);
+                        queued.addAndGet(1 - queue.size());
+                        queue.clear();
+                        queue.addLast(joined.toString());
+                        return true;
+                    }
+                    evict();
+                    return false;
+                default:
+                    evict();
+                    return false;
+            }
+        }
+
+        // guarded by this
+        private void evict() {
+            evicted.increment();
+            logger.debug("Closing WebSocket session {}, its queue of {} is full", session, queueSize);
+            closeLocked();
+            // closing writes a close frame, keep that off the broadcasting thread
+            senders.execute(transport::close);
+        }
+
+        private void sent(Throwable error) {
+            if (error == null)
+                sent.increment();
+            else
+                failed.increment();
+            synchronized (this) {
+                if (error != null) {
+                    // a failed send means the connection is broken, the endpoint's onClose cleans up
+                    closeLocked();
+                    return;
+                }
+                if (closed || queue.isEmpty()) {
+                    sending = false;
+                    return;
+                }
+            }
+            // hand the next send to the pool, a send that completes inline would otherwise recurse
+            senders.execute(this::sendNext);
+        }
+
+        private void sendNext() {
+            String next;
+            synchronized (this) {
+                next = closed ? null : batchNanos > 0 ? pollBatch() : poll();
+                if (next == null) {
+                    sending = false;
+                    return;
+                }
+            }
+            send(next);
+        }
+
+        private void send(String text) {
+            sentChars.add(text.length());
+            try {
+                transport.send(text, this::sent);
+            }
+            catch (RuntimeException e) {
+                // the container refuses sends on a session closing under us
+                sent(e);
+            }
+        }
+
+        private String poll() {
+            String next = queue.pollFirst();
+            if (next != null)
+                queued.decrementAndGet();
+            return next;
+        }
+
+        // guarded by this
+        private String pollBatch() {
+            if (queue.isEmpty())
+                return null;
+            StringBuilder frame = new StringBuilder("[");
+            StringBuilder escaped = new StringBuilder();
+            int n = 0;
+            while (!queue.isEmpty()) {
+                // escaping can double a message or worse, so measure what goes into the frame;
+                // the first message goes out even if it alone is over the limit
+                escaped.setLength(0);
+                JsonStringEncoder.getInstance().quoteAsString(queue.peekFirst(), escaped);
+                if (n > 0 && frame.length() + escaped.length() + 4 > coalesceMaxChars)
+                    break;
+                poll();
+                if (n++ > 0)
+                    frame.append(',');
+                frame.append('"').append(escaped).append('"');
+            }
+            batches.increment();
+            batchedMessages.add(n);
+            return frame.append(']').toString();
+        }
+
+        synchronized int depth() {
+            return queue.size();
+        }
+
+        synchronized void discard() {
+            closeLocked();
+        }
+
+        // the closed outbox stays in the map until remove(), so later sends to
+        // the dying session are ignored instead of starting a new queue
+        private void closeLocked() {
+            closed = true;
+            queued.addAndGet(-queue.size());
+            queue.clear();
+        }
+    }
+}
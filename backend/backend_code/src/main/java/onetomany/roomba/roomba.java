@@ -6,16 +6,22 @@ import jakarta.persistence.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import onetomany.Reports.Reports;
 import onetomany.Users.User;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.util.List;
 
 
 @Entity
     @Table(name = "roomba")
+    @EntityListeners(roombaEntityListener.class)
+    @DynamicUpdate
     public class roomba {
 
+        // a pooled sequence instead of IDENTITY lets Hibernate batch inserts;
+        // on MySQL it is emulated with the roomba_seq table
         @Id
-        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "roomba_seq")
+        @SequenceGenerator(name = "roomba_seq", sequenceName = "roomba_seq", allocationSize = roombaSequenceSync.ALLOCATION_SIZE)
         int id;
 
 
@@ -38,6 +44,12 @@ import java.util.List;
         @Column(unique = true)
         private int uniqueID;
 
+        // bumped by every update through JPA; telemetry and dispatch write
+        // with plain JDBC and leave it alone, their fields are last write wins
+        @Version
+        @Column(columnDefinition = "bigint not null default 0")
+        private long version;
+
         @OneToMany(mappedBy = "roomba1")
         List<Reports> roombaReports;
 
@@ -160,6 +172,14 @@ import java.util.List;
             this.id= id;
         }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
 
 
         public int getId() {
@@ -0,0 +1,53 @@
+package onetomany.roomba;
+
+/**
+ * Raised when a rule has held for its whole duration on one robot, and
+ * cleared when the rule stops holding or the robot is removed.
+ */
+public final class roombaAlert {
+
+    public enum Kind { RAISED, CLEARED }
+
+    private final Kind kind;
+    private final String rule;
+    private final int uniqueID;
+    private final long since;
+    private final long time;
+    private final roombaState state;
+
+
+    public roombaAlert(Kind kind, String rule, int uniqueID, long since, long time, roombaState state) {
+        this.kind = kind;
+        this.rule = rule;
+        this.uniqueID = uniqueID;
+        this.since = since;
+        this.time = time;
+        this.state = state;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public int getUniqueID() {
+        return uniqueID;
+    }
+
+    /** When the condition started to hold, epoch millis. */
+    public long getSince() {
+        return since;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /** The robot state that raised or cleared the alert. */
+    public roombaState getState() {
+        return state;
+    }
+}
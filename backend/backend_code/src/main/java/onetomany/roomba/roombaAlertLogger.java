@@ -0,0 +1,18 @@
+package onetomany.roomba;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/** Default alert sink, writes every alert to the log. */
+@Component
+public class roombaAlertLogger implements roombaAlertSink {
+
+    private final Logger logger = LoggerFactory.getLogger(roombaAlertLogger.class);
+
+    @Override
+    public void onAlert(roombaAlert alert) {
+        logger.info("Alert {} {} for roomba {} (since {})", alert.getRule(), alert.getKind(),
+                alert.getUniqueID(), alert.getSince());
+    }
+}
@@ -0,0 +1,11 @@
+package onetomany.roomba;
+
+/**
+ * Receives the alerts of roombaRuleEngine. Every bean implementing this
+ * interface gets every alert. Sinks are called on the thread that reported
+ * the state change or on the rule timer thread, so they must not block.
+ */
+public interface roombaAlertSink {
+
+    void onAlert(roombaAlert alert);
+}
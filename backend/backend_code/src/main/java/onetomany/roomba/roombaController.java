@@ -1,22 +1,41 @@
 package onetomany.roomba;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import jakarta.persistence.*;
 import java.util.List;
+import onetomany.KeysetPage;
+import onetomany.NdjsonStreams;
+import onetomany.PartialUpdates;
 import onetomany.Reports.Reports;
 import onetomany.Reports.ReportsRepository;
 import onetomany.Users.User;
 import onetomany.Users.UserRepository;
-import java.security.SecureRandom;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 
 import org.springframework.stereotype.Service;
 
@@ -32,6 +51,57 @@ public class roombaController {
     @Autowired
     roombaRepository roombaRepository1;
 
+    @Autowired
+    roombaTelemetryBuffer telemetryBuffer;
+
+    @Autowired
+    roombaSpatialIndex spatialIndex;
+
+    @Autowired
+    roombaTrackStore trackStore;
+
+    @Autowired
+    NdjsonStreams ndjsonStreams;
+
+    @Autowired
+    roombaIdAllocator idAllocator;
+
+    @Autowired
+    roombaProvisioning provisioning;
+
+    @Autowired
+    roombaLookupCache lookupCache;
+
+    @Autowired
+    roombaDispatcher dispatcher;
+
+    @Autowired
+    roombaRoutePlanner routePlanner;
+
+    @Autowired
+    roombaFleet fleet;
+
+    @Autowired
+    roombaRuleEngine ruleEngine;
+
+    @Autowired
+    roombaStats stats;
+
+    @Autowired
+    roombaTelemetrySocket telemetrySocket;
+
+    @Autowired
+    PartialUpdates partialUpdates;
+
+    @Value("${roomba.batch.max-size:10000}")
+    int maxBatchSize;
+
+    private static final int MAX_ID_ATTEMPTS = 5;
+
+    // id, uniqueID and reports have their own endpoints
+    private static final Set<String> PATCHABLE_FIELDS = Set.of("posX", "posY", "full", "needsCharging",
+            "backToShop", "inShop", "hasAssignedUser", "userId");
+
     private String success = "{\"message\":\"success\"}";
     private String failure = "{\"message\":\"failure\"}";
 
@@ -41,6 +111,25 @@ public class roombaController {
         return roombaRepository1.findAll();
     }
 
+    /**
+     * Fleet overview without the reports list: one query per page whatever
+     * the number of robots, instead of one reports query per robot.
+     */
+    @GetMapping(path = "/roomba/overview")
+    KeysetPage<roombaOverview> getFleetOverview(@RequestParam(defaultValue = "0") int after,
+                                                @RequestParam(defaultValue = "100") int limit){
+        if (limit < 1 || limit > KeysetPage.MAX_LIMIT)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + KeysetPage.MAX_LIMIT);
+        List<roombaOverview> page = roombaRepository1.findOverview(after, PageRequest.ofSize(limit));
+        return KeysetPage.of(page, limit, roombaOverview::getId);
+    }
+
+    /** Every robot as one overview line each, in id order. */
+    @GetMapping(path = "/roomba/stream")
+    ResponseEntity<StreamingResponseBody> streamRoombas(){
+        return ndjsonStreams.stream(roombaRepository1::streamOverview);
+    }
+
 
     @GetMapping(path = "/roomba/{roombaId}/")
     roomba getUserById( @PathVariable int roombaId){
@@ -51,11 +140,90 @@ public class roombaController {
 
         return temp;
     }
+    @GetMapping(path = "/roomba/near")
+    List<roombaState> getNearestRoombas(@RequestParam int x, @RequestParam int y,
+                                        @RequestParam(defaultValue = "10") int k,
+                                        @RequestParam(required = false) Boolean isFull,
+                                        @RequestParam(required = false) Boolean isNeedsCharging){
+        if (k < 1 || k > 1000)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and 1000");
+        return spatialIndex.nearest(x, y, k, isFull, isNeedsCharging);
+    }
+
+    @GetMapping(path = "/roomba/within")
+    List<roombaState> getRoombasWithin(@RequestParam int minX, @RequestParam int minY,
+                                       @RequestParam int maxX, @RequestParam int maxY,
+                                       @RequestParam(required = false) Boolean isFull,
+                                       @RequestParam(required = false) Boolean isNeedsCharging){
+        if (minX > maxX || minY > maxY)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "min must not be greater than max");
+        return spatialIndex.within(minX, minY, maxX, maxY, isFull, isNeedsCharging);
+    }
+
+    /**
+     * Streams the recorded path of one robot as newline-delimited JSON.
+     * from and to are epoch millis and default to the last hour; resolution
+     * is raw, 1s, 1m or 1h.
+     */
+    @GetMapping(path = "/roomba/{uniqueID}/track")
+    ResponseEntity<StreamingResponseBody> getTrack(@PathVariable int uniqueID,
+                                                   @RequestParam(required = false) Long from,
+                                                   @RequestParam(required = false) Long to,
+                                                   @RequestParam(defaultValue = "raw") String resolution){
+        long end = to == null ? System.currentTimeMillis() : to;
+        long start = from == null ? end - 3_600_000L : from;
+        if (start > end)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        roombaTrackStore.Resolution level;
+        try {
+            level = roombaTrackStore.Resolution.parse(resolution);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        StreamingResponseBody body = out -> {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            trackStore.replay(uniqueID, start, end, level, (time, posX, posY, flags) -> {
+                writer.write("{\"time\":" + time + ",\"posX\":" + posX + ",\"posY\":" + posY
+                        + ",\"full\":" + ((flags & 1) != 0) + ",\"needsCharging\":" + ((flags & 2) != 0)
+                        + ",\"backToShop\":" + ((flags & 4) != 0) + ",\"inShop\":" + ((flags & 8) != 0) + "}\n");
+            });
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * Path from the robot's current position to the shop the dispatcher sent
+     * it to, or to the closest shop it can reach if it was not sent anywhere,
+     * one grid cell per step.
+     */
+    @GetMapping(path = "/roomba/{uniqueID}/route")
+    Map<String, Object> getRoute(@PathVariable int uniqueID){
+        roombaState state = fleet.get(uniqueID);
+        if (state == null)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "unknown roomba " + uniqueID);
+        Integer shop = dispatcher.getAssignedShop(uniqueID);
+        Map<String, Object> route;
+        try {
+            route = shop != null
+                    ? routePlanner.route(state.getPosX(), state.getPosY(), shop)
+                    : routePlanner.route(state.getPosX(), state.getPosY());
+        }
+        catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (route == null)
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "no shop can be reached from " + state.getPosX() + "," + state.getPosY());
+        return route;
+    }
+
     @GetMapping(path = "/roomba/checkPairing/{uniqueID}/")
-    roomba getRoombaByID( @PathVariable int uniqueID){
+    roombaPairing getRoombaByID( @PathVariable int uniqueID){
 
-        roomba temp= roombaRepository1.findByUniqueID(uniqueID);
-        if(temp == null || temp.hasAssignedUser )
+        roombaPairing temp= lookupCache.findByUniqueID(uniqueID);
+        if(temp == null || temp.isHasAssignedUser() )
             return null;
 
         return temp;
@@ -66,22 +234,116 @@ public class roombaController {
     String createUser(@RequestBody roomba roomba){
         if (roomba == null)
             return failure;
-       roomba.setUniqueID(generateUniqueSixDigitId());
-        roombaRepository1.save(roomba);
-        return success;
+        for (int attempt = 1; ; attempt++) {
+            int uniqueID = generateUniqueSixDigitId();
+            roomba.setUniqueID(uniqueID);
+            try {
+                roombaRepository1.save(roomba);
+                // the robot needs its uniqueID to pair, so hand it back along with the usual message
+                return "{\"message\":\"success\",\"uniqueID\":" + uniqueID + "}";
+            }
+            catch (RuntimeException e) {
+                // nothing was saved, the ID is free again unless it was taken behind the allocator's back
+                idAllocator.release(uniqueID);
+                if (!(e instanceof DataIntegrityViolationException))
+                    throw e;
+                if (roombaRepository1.existsByUniqueID(uniqueID))
+                    idAllocator.markUsed(uniqueID);
+                if (attempt == MAX_ID_ATTEMPTS)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Registers a list of robots (positions only) in one transaction and
+     * returns their uniqueIDs in the same order.
+     */
+    @PostMapping(path = "/roomba/batch")
+    List<Integer> createRoombas(@RequestBody List<roomba> roombas){
+        if (roombas == null || roombas.isEmpty() || roombas.size() > maxBatchSize)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "batch must hold 1 to " + maxBatchSize + " robots");
+        return provisioning.provision(roombas);
     }
 
     private int generateUniqueSixDigitId() {
-        final SecureRandom random = new SecureRandom();
-        int retries = 0;
-        while (retries < 10) {
-            int candidate = 100000 + random.nextInt(900000);
-            if (!roombaRepository1.existsByUniqueID(candidate)) {
-                return candidate;
+        return idAllocator.allocate();
+    }
+
+    /**
+     * Accepts a batch of telemetry reports. Reports are taken in order; if the
+     * buffer is full the response is 429 and "accepted" tells the robot where
+     * to resume.
+     */
+    @PostMapping(path = "/roomba/telemetry")
+    ResponseEntity<Map<String, Integer>> ingestTelemetry(@RequestBody List<roombaTelemetry> updates)
+            throws InterruptedException {
+        int accepted = 0;
+        if (updates != null) {
+            for (roombaTelemetry update : updates) {
+                if (!telemetryBuffer.offer(update))
+                    break;
+                accepted++;
             }
-            retries++;
         }
-        throw new IllegalStateException("Unable to generate unique 6-digit ID after 10 attempts");
+        Map<String, Integer> body = new LinkedHashMap<>();
+        body.put("accepted", accepted);
+        body.put("rejected", updates == null ? 0 : updates.size() - accepted);
+        HttpStatus status = body.get("rejected") == 0 ? HttpStatus.ACCEPTED : HttpStatus.TOO_MANY_REQUESTS;
+        return ResponseEntity.status(status).body(body);
+    }
+
+    @GetMapping(path = "/roomba/dispatch/stats")
+    Map<String, Object> getDispatchStats(){
+        return dispatcher.getStats();
+    }
+
+    /** Robots per state, from counters kept up to date as robots change. */
+    @GetMapping(path = "/roomba/stats")
+    Map<String, Long> getFleetStats(){
+        return stats.getCounts();
+    }
+
+    @GetMapping(path = "/roomba/stats/reconciliation")
+    Map<String, Long> getFleetStatsReconciliation(){
+        return stats.getReconciliation();
+    }
+
+    @GetMapping(path = "/roomba/rules")
+    List<roombaRule> getRules(){
+        return ruleEngine.getRules();
+    }
+
+    @GetMapping(path = "/roomba/rules/stats")
+    Map<String, Long> getRuleStats(){
+        return ruleEngine.getCounters();
+    }
+
+    @GetMapping(path = "/roomba/cache/stats")
+    Map<String, Long> getLookupCacheStats(){
+        return lookupCache.getCounters();
+    }
+
+    @GetMapping(path = "/roomba/telemetry/stats")
+    Map<String, Long> getTelemetryStats(){
+        return telemetryBuffer.getCounters();
+    }
+
+    @GetMapping(path = "/roomba/telemetry/ws/stats")
+    Map<String, Long> getTelemetrySocketStats(){
+        return telemetrySocket.getCounters();
+    }
+
+    /**
+     * Changes only the fields present in the body. Send the version of the
+     * copy being edited to get 409 instead of overwriting a newer change.
+     */
+    @PatchMapping(path = "/roomba/{id}")
+    roomba patchRoomba(@PathVariable int id, @RequestBody Map<String, Object> changes){
+        roomba temp = roombaRepository1.findById(id);
+        if (temp == null)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "roomba not found");
+        return partialUpdates.apply(temp, temp.getVersion(), changes, PATCHABLE_FIELDS, roombaRepository1::save);
     }
 
     @DeleteMapping(path = "/roomba/{id}")
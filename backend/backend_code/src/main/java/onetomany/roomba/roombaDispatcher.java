@@ -0,0 +1,341 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends robots that are full or need charging back to a shop.
+ *
+ * Every tick works on a snapshot of roombaFleet, never on entities:
+ * robots that reached their shop are marked inShop, robots in a shop that no
+ * longer need service are let go, and the remaining free slots go to waiting
+ * robots in priority order (full and needing charge first, then the closest
+ * to a shop). Priorities are packed into longs and kept in a primitive heap.
+ * All flag changes of a tick are written in one JDBC batch.
+ *
+ * A dispatched robot keeps the shop it was sent to until it is let go, also
+ * when that was not its nearest one because the nearest was full; its slot,
+ * its arrival and its route (see roombaRoutePlanner) all refer to that shop.
+ *
+ * Dispatching is off unless roomba.dispatch.shops lists shops. While it is
+ * on, the dispatcher owns the backToShop and inShop flags: telemetry reports
+ * still move robots and update full and needsCharging, but their shop flags
+ * are ignored (see roombaTelemetryBuffer). With dispatching off the robots
+ * report those flags themselves.
+ */
+@Service
+public class roombaDispatcher {
+
+    static final String UPDATE_SQL = "UPDATE roomba SET back_to_shop = ?, in_shop = ? WHERE uniqueid = ?";
+
+    @Autowired
+    roombaFleet fleet;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    /** Shops as x:y:slots, comma separated. Nothing is dispatched when empty. */
+    @Value("${roomba.dispatch.shops:}")
+    String shopList;
+
+    @Value("${roomba.dispatch.tick-ms:1000}")
+    long tickMs;
+
+    @Value("${roomba.dispatch.arrive-radius:2}")
+    int arriveRadius;
+
+    private int[] shopX;
+    private int[] shopY;
+    private int[] shopSlots;
+
+    // uniqueID -> index of the shop the robot was sent to, replaced by every tick
+    private volatile Map<Integer, Integer> assignedShops = Collections.emptyMap();
+
+    private ScheduledExecutorService ticker;
+
+    // per tick figures, written by the tick thread only
+    private volatile long ticks;
+    private volatile long lastTickNanos;
+    private volatile long maxTickNanos;
+    private volatile int lastCandidates;
+    private volatile int lastDispatched;
+    private volatile int lastArrived;
+    private volatile int lastReleased;
+
+    private final Logger logger = LoggerFactory.getLogger(roombaDispatcher.class);
+
+    @PostConstruct
+    void start() {
+        parseShops();
+        if (shopX.length == 0) {
+            logger.info("No shops configured, dispatching is off");
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "roomba-dispatch");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            }
+            catch (RuntimeException e) {
+                logger.error("Dispatch tick failed", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (ticker != null)
+            ticker.shutdownNow();
+    }
+
+    /** Whether shops are configured, and with them the dispatcher owns the shop flags. */
+    public boolean isEnabled() {
+        return shopX.length > 0;
+    }
+
+    /**
+     * Index of the shop the robot is heading to or sits in, or null if it
+     * holds no slot.
+     */
+    public Integer getAssignedShop(int uniqueID) {
+        return assignedShops.get(uniqueID);
+    }
+
+    private void parseShops() {
+        int[][] shops = parseShops(shopList);
+        shopX = new int[shops.length];
+        shopY = new int[shops.length];
+        shopSlots = new int[shops.length];
+        for (int i = 0; i < shops.length; i++) {
+            shopX[i] = shops[i][0];
+            shopY[i] = shops[i][1];
+            shopSlots[i] = shops[i][2];
+        }
+    }
+
+    /** Parses roomba.dispatch.shops into {x, y, slots} rows. */
+    static int[][] parseShops(String shopList) {
+        String[] parts = shopList.isBlank() ? new String[0] : shopList.split(",");
+        int[][] shops = new int[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            String[] fields = parts[i].trim().split(":");
+            if (fields.length != 3)
+                throw new IllegalArgumentException("Shop must be x:y:slots, got " + parts[i]);
+            shops[i] = new int[] { Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                    Integer.parseInt(fields[2]) };
+        }
+        return shops;
+    }
+
+    void tick() {
+        long started = System.nanoTime();
+        List<roombaState> robots = new ArrayList<>(fleet.getAll());
+        int n = robots.size();
+
+        int[] free = shopSlots.clone();
+        int[] nearest = new int[n];
+        long[] distance = new long[n];
+        List<roombaState> changed = new ArrayList<>();
+        List<boolean[]> flags = new ArrayList<>();
+        int arrived = 0, released = 0;
+        Map<Integer, Integer> previous = assignedShops;
+        // robots that leave their shop, or the fleet, are not carried over
+        Map<Integer, Integer> assigned = new HashMap<>(Math.max(16, previous.size() * 2));
+
+        // robots already in or heading to a shop hold a slot there
+        for (int i = 0; i < n; i++) {
+            roombaState s = robots.get(i);
+            nearest[i] = nearestShop(s);
+            distance[i] = distance(s, nearest[i]);
+            if (!s.isBackToShop() && !s.isInShop())
+                continue;
+            boolean needsService = s.isFull() || s.isNeedsCharging();
+            if (s.isInShop() && !needsService) {
+                changed.add(s);
+                flags.add(new boolean[] { false, false });
+                released++;
+                continue;
+            }
+            // flags from before a restart (or from before dispatching was on) have no shop, take the nearest
+            Integer shop = previous.get(s.getUniqueID());
+            if (shop == null || shop >= shopX.length)
+                shop = nearest[i];
+            assigned.put(s.getUniqueID(), shop);
+            free[shop]--;
+            if (s.isBackToShop() && distance(s, shop) <= arriveRadius) {
+                changed.add(s);
+                flags.add(new boolean[] { false, true });
+                arrived++;
+            }
+        }
+
+        // waiting robots, ordered by (priority, distance, index)
+        LongHeap waiting = new LongHeap(Math.max(16, n / 8));
+        for (int i = 0; i < n; i++) {
+            roombaState s = robots.get(i);
+            if (s.isBackToShop() || s.isInShop() || !(s.isFull() || s.isNeedsCharging()))
+                continue;
+            long priority = s.isFull() && s.isNeedsCharging() ? 0 : 1;
+            long d = Math.min(distance[i], Integer.MAX_VALUE);
+            waiting.add(priority << 62 | d << 31 | i);
+        }
+        int candidates = waiting.size();
+
+        int totalFree = 0;
+        for (int f : free)
+            totalFree += Math.max(0, f);
+        int dispatched = 0;
+        while (totalFree > 0 && !waiting.isEmpty()) {
+            int i = (int) (waiting.poll() & Integer.MAX_VALUE);
+            int shop = nearest[i];
+            if (free[shop] <= 0)
+                shop = closestShopWithSlot(robots.get(i), free);
+            free[shop]--;
+            totalFree--;
+            changed.add(robots.get(i));
+            flags.add(new boolean[] { true, false });
+            assigned.put(robots.get(i).getUniqueID(), shop);
+            dispatched++;
+        }
+        if (!changed.isEmpty())
+            write(changed, flags);
+        // not before the write, a failed one must not leave robots sent to shops the table knows nothing of
+        assignedShops = assigned;
+
+        long elapsed = System.nanoTime() - started;
+        ticks++;
+        lastTickNanos = elapsed;
+        maxTickNanos = Math.max(maxTickNanos, elapsed);
+        lastCandidates = candidates;
+        lastDispatched = dispatched;
+        lastArrived = arrived;
+        lastReleased = released;
+    }
+
+    private void write(List<roombaState> changed, List<boolean[]> flags) {
+        List<Object[]> args = new ArrayList<>(changed.size());
+        for (int i = 0; i < changed.size(); i++)
+            args.add(new Object[] { flags.get(i)[0], flags.get(i)[1], changed.get(i).getUniqueID() });
+        jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+        for (int i = 0; i < changed.size(); i++)
+            fleet.applyShopFlags(changed.get(i).getUniqueID(), flags.get(i)[0], flags.get(i)[1]);
+    }
+
+    private int nearestShop(roombaState s) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int shop = 0; shop < shopX.length; shop++) {
+            long d = distance(s, shop);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = shop;
+            }
+        }
+        return best;
+    }
+
+    private int closestShopWithSlot(roombaState s, int[] free) {
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int shop = 0; shop < shopX.length; shop++) {
+            long d = distance(s, shop);
+            if (free[shop] > 0 && d < bestDistance) {
+                bestDistance = d;
+                best = shop;
+            }
+        }
+        return best;
+    }
+
+    // Manhattan distance, robots move on a grid
+    private long distance(roombaState s, int shop) {
+        return Math.abs((long) s.getPosX() - shopX[shop]) + Math.abs((long) s.getPosY() - shopY[shop]);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shops", shopX.length);
+        stats.put("ticks", ticks);
+        stats.put("lastTickMs", lastTickNanos / 1e6);
+        stats.put("maxTickMs", maxTickNanos / 1e6);
+        stats.put("lastCandidates", lastCandidates);
+        stats.put("lastDispatched", lastDispatched);
+        stats.put("lastArrived", lastArrived);
+        stats.put("lastReleased", lastReleased);
+        return stats;
+    }
+
+    /** Binary min-heap of longs. */
+    static final class LongHeap {
+
+        private long[] heap;
+        private int size;
+
+        LongHeap(int capacity) {
+            heap = new long[capacity];
+        }
+
+        void add(long value) {
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, size * 2);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value)
+                    break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        long poll() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && heap[child + 1] < heap[child])
+                    child++;
+                if (last <= heap[child])
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package onetomany.roomba;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Forwards every roomba insert, update and delete made through JPA to
+ * roombaFleet and roombaLookupCache.
+ */
+@Component
+public class roombaEntityListener {
+
+    // JPA may create its own instance of this class, so the fleet is kept in
+    // a static field the same way chatNot keeps its repository
+    private static roombaFleet fleet;
+    private static roombaLookupCache lookupCache;
+
+    @Autowired
+    public void setFleet(roombaFleet fleet) {
+        roombaEntityListener.fleet = fleet;
+    }
+
+    @Autowired
+    public void setLookupCache(roombaLookupCache lookupCache) {
+        roombaEntityListener.lookupCache = lookupCache;
+    }
+
+    @PostPersist
+    @PostUpdate
+    void saved(roomba r) {
+        if (fleet != null)
+            afterCommit(r.getUniqueID(), () -> {
+                // evict even when no state field changed, e.g. after a report was removed
+                lookupCache.invalidate(r.getUniqueID());
+                fleet.put(r);
+            });
+    }
+
+    @PostRemove
+    void removed(roomba r) {
+        if (fleet != null) {
+            int uniqueID = r.getUniqueID();
+            afterCommit(uniqueID, () -> {
+                lookupCache.invalidate(uniqueID);
+                fleet.remove(uniqueID);
+            });
+        }
+    }
+
+    // a rolled back insert must not show up in the fleet view
+    private static void afterCommit(int uniqueID, Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        Changes changes = null;
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            if (s instanceof Changes c) {
+                changes = c;
+                break;
+            }
+        }
+        if (changes == null) {
+            changes = new Changes();
+            TransactionSynchronizationManager.registerSynchronization(changes);
+        }
+        changes.actions.put(uniqueID, action);
+    }
+
+    /**
+     * The fleet changes of one transaction, run once it commits. A robot
+     * saved several times in the transaction is only applied once, with its
+     * last change. Found through the registered synchronizations rather
+     * than a bound resource, so a suspended transaction keeps its own.
+     */
+    private static final class Changes implements TransactionSynchronization {
+
+        final Map<Integer, Runnable> actions = new LinkedHashMap<>();
+
+        @Override
+        public void afterCommit() {
+            actions.values().forEach(Runnable::run);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package onetomany.roomba;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory view of the latest state of every robot, keyed by uniqueID.
+ *
+ * It is loaded from the roomba table once at startup and then kept current by
+ * roombaEntityListener (saves and deletes through JPA), the telemetry
+ * flusher and the dispatcher. Every change is published as a
+ * roombaStateChange so read models can follow the fleet without querying the
+ * database.
+ */
+@Service
+public class roombaFleet {
+
+    @Autowired
+    roombaRepository roombaRepository1;
+
+    @Autowired
+    ApplicationEventPublisher publisher;
+
+    private final Map<Integer, roombaState> states = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(roombaFleet.class);
+
+    @EventListener(ApplicationReadyEvent.class)
+    void load() {
+        int loaded = 0;
+        for (roomba r : roombaRepository1.findAll()) {
+            roombaState state = roombaState.of(r, sequence.incrementAndGet());
+            // a live update that arrived during the load is newer than the table
+            if (states.putIfAbsent(r.getUniqueID(), state) == null) {
+                publisher.publishEvent(new roombaStateChange(null, state, roombaState.ALL_FIELDS));
+                loaded++;
+            }
+        }
+        logger.info("Loaded {} robots into the fleet view", loaded);
+    }
+
+    /** Records the state of a roomba that was just saved. */
+    public void put(roomba r) {
+        roombaState[] previous = new roombaState[1];
+        roombaState current = states.compute(r.getUniqueID(), (k, old) -> {
+            previous[0] = old;
+            return roombaState.of(r, sequence.incrementAndGet());
+        });
+        publish(previous[0], current);
+    }
+
+    /**
+     * Applies a flushed telemetry report, its backToShop/inShop only if
+     * shopFlags is set. Unknown robots are ignored.
+     */
+    public void applyTelemetry(roombaTelemetry t, boolean shopFlags) {
+        roombaState[] previous = new roombaState[1];
+        roombaState current = states.computeIfPresent(t.getUniqueID(), (k, old) -> {
+            previous[0] = old;
+            return old.withTelemetry(t, shopFlags, sequence.incrementAndGet());
+        });
+        if (current != null)
+            publish(previous[0], current);
+    }
+
+    /** Applies backToShop/inShop written directly to the table. */
+    public void applyShopFlags(int uniqueID, boolean backToShop, boolean inShop) {
+        roombaState[] previous = new roombaState[1];
+        roombaState current = states.computeIfPresent(uniqueID, (k, old) -> {
+            previous[0] = old;
+            return old.withShopFlags(backToShop, inShop, sequence.incrementAndGet());
+        });
+        if (current != null)
+            publish(previous[0], current);
+    }
+
+    public void remove(int uniqueID) {
+        roombaState previous = states.remove(uniqueID);
+        if (previous != null)
+            publisher.publishEvent(new roombaStateChange(previous, null, roombaState.ALL_FIELDS));
+    }
+
+    public roombaState get(int uniqueID) {
+        return states.get(uniqueID);
+    }
+
+    public Collection<roombaState> getAll() {
+        return Collections.unmodifiableCollection(states.values());
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    private void publish(roombaState previous, roombaState current) {
+        int changed = roombaState.diff(previous, current);
+        if (changed != 0)
+            publisher.publishEvent(new roombaStateChange(previous, current, changed));
+    }
+}
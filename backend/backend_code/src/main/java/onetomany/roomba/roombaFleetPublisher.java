@@ -0,0 +1,243 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.Session;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import onetomany.WebSocketOutbound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Pushes fleet state to the sessions of roombaFleetSocket.
+ *
+ * Changes reported by roombaFleet are only marked dirty. Once per tick the
+ * dirty robots are compared with what was last pushed and only the fields
+ * that differ are sent, as one message per subscription scope. A new
+ * subscriber gets its snapshot on the tick thread, right after the deltas,
+ * so the snapshot and the deltas that follow it always line up.
+ *
+ * Messages are queued on WebSocketOutbound, so a slow dashboard never holds
+ * up the tick. A subscriber whose queue fills up is disconnected rather than
+ * sent a gap in the deltas; it gets a fresh snapshot when it reconnects.
+ */
+@Service
+public class roombaFleetPublisher {
+
+    /** Scope of a session that follows every robot instead of one user's. */
+    public static final int WHOLE_FLEET = -1;
+
+    @Autowired
+    roombaFleet fleet;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    WebSocketOutbound outbound;
+
+    @Value("${roomba.push.tick-ms:100}")
+    long tickMs;
+
+    private final Map<Integer, Boolean> dirty = new ConcurrentHashMap<>();
+    private final Map<Session, Integer> subscribers = new ConcurrentHashMap<>();
+    private final Queue<Session> joining = new ConcurrentLinkedQueue<>();
+
+    // only touched on the tick thread
+    private final Map<Integer, roombaState> published = new HashMap<>();
+    private long tick;
+
+    private ScheduledExecutorService ticker;
+
+    private final Logger logger = LoggerFactory.getLogger(roombaFleetPublisher.class);
+
+    @PostConstruct
+    void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "roomba-fleet-push");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::safeTick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        ticker.shutdownNow();
+    }
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        dirty.put(change.getLatest().getUniqueID(), Boolean.TRUE);
+    }
+
+    void subscribe(Session session, int scope) {
+        session.getUserProperties().put("fleetScope", scope);
+        // a dropped or merged delta would leave the dashboard out of step for good
+        outbound.policy(session, WebSocketOutbound.Policy.DISCONNECT);
+        joining.add(session);
+    }
+
+    void unsubscribe(Session session) {
+        subscribers.remove(session);
+        joining.remove(session);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size() + joining.size();
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        }
+        catch (RuntimeException e) {
+            // an exception would cancel the schedule
+            logger.error("Fleet push tick failed", e);
+        }
+    }
+
+    private void tick() {
+        tick++;
+        Map<Integer, List<Map<String, Object>>> byScope = collectDeltas();
+        if (!byScope.isEmpty() && !subscribers.isEmpty()) {
+            Map<Integer, String> messages = new HashMap<>();
+            subscribers.forEach((session, scope) -> {
+                List<Map<String, Object>> robots = byScope.get(scope);
+                if (robots == null)
+                    return;
+                String message = messages.computeIfAbsent(scope, s -> toJson("delta", robots));
+                send(session, message);
+            });
+        }
+
+        Session session;
+        while ((session = joining.poll()) != null) {
+            int scope = (Integer) session.getUserProperties().get("fleetScope");
+            List<Map<String, Object>> robots = new ArrayList<>();
+            for (roombaState state : published.values()) {
+                if (scope == WHOLE_FLEET || state.getUserId() == scope)
+                    robots.add(fullEntry(state));
+            }
+            if (send(session, toJson("snapshot", robots)))
+                subscribers.put(session, scope);
+        }
+    }
+
+    /**
+     * Drains the dirty set and returns the changed entries grouped by scope:
+     * everything under WHOLE_FLEET, and each robot under its user's id.
+     */
+    private Map<Integer, List<Map<String, Object>>> collectDeltas() {
+        Map<Integer, List<Map<String, Object>>> byScope = new HashMap<>();
+        for (Integer uniqueID : dirty.keySet()) {
+            dirty.remove(uniqueID);
+            roombaState previous = published.get(uniqueID);
+            roombaState current = fleet.get(uniqueID);
+            int changed = roombaState.diff(previous, current);
+            if (previous == null && current == null || changed == 0)
+                continue;
+
+            if (current == null) {
+                published.remove(uniqueID);
+                addTo(byScope, WHOLE_FLEET, removedEntry(uniqueID));
+                addTo(byScope, previous.getUserId(), removedEntry(uniqueID));
+                continue;
+            }
+            published.put(uniqueID, current);
+
+            if (previous == null) {
+                addTo(byScope, WHOLE_FLEET, fullEntry(current));
+                addTo(byScope, current.getUserId(), fullEntry(current));
+            }
+            else if (previous.getUserId() != current.getUserId()) {
+                addTo(byScope, WHOLE_FLEET, deltaEntry(current, changed));
+                addTo(byScope, previous.getUserId(), removedEntry(uniqueID));
+                addTo(byScope, current.getUserId(), fullEntry(current));
+            }
+            else {
+                Map<String, Object> delta = deltaEntry(current, changed);
+                addTo(byScope, WHOLE_FLEET, delta);
+                addTo(byScope, current.getUserId(), delta);
+            }
+        }
+        return byScope;
+    }
+
+    private static void addTo(Map<Integer, List<Map<String, Object>>> byScope, int scope, Map<String, Object> entry) {
+        byScope.computeIfAbsent(scope, s -> new ArrayList<>()).add(entry);
+    }
+
+    private static Map<String, Object> fullEntry(roombaState s) {
+        return deltaEntry(s, roombaState.ALL_FIELDS);
+    }
+
+    private static Map<String, Object> deltaEntry(roombaState s, int changed) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("uniqueID", s.getUniqueID());
+        if ((changed & roombaState.FIELD_POSITION) != 0) {
+            entry.put("posX", s.getPosX());
+            entry.put("posY", s.getPosY());
+        }
+        if ((changed & roombaState.FIELD_FULL) != 0)
+            entry.put("full", s.isFull());
+        if ((changed & roombaState.FIELD_NEEDS_CHARGING) != 0)
+            entry.put("needsCharging", s.isNeedsCharging());
+        if ((changed & roombaState.FIELD_BACK_TO_SHOP) != 0)
+            entry.put("backToShop", s.isBackToShop());
+        if ((changed & roombaState.FIELD_IN_SHOP) != 0)
+            entry.put("inShop", s.isInShop());
+        if ((changed & roombaState.FIELD_ASSIGNMENT) != 0) {
+            entry.put("hasAssignedUser", s.isHasAssignedUser());
+            entry.put("userId", s.getUserId());
+        }
+        return entry;
+    }
+
+    private static Map<String, Object> removedEntry(int uniqueID) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("uniqueID", uniqueID);
+        entry.put("removed", true);
+        return entry;
+    }
+
+    private String toJson(String type, List<Map<String, Object>> robots) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", type);
+        message.put("tick", tick);
+        message.put("robots", robots);
+        try {
+            return objectMapper.writeValueAsString(message);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean send(Session session, String message) {
+        if (!session.isOpen()) {
+            unsubscribe(session);
+            return false;
+        }
+        outbound.send(session, message);
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package onetomany.roomba;
+
+import java.io.IOException;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.PathParam;
+import jakarta.websocket.server.ServerEndpoint;
+
+import onetomany.WebSocketOutbound;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Live fleet state for dashboards. Connect to /fleet/all for every robot or
+ * to /fleet/{userId} for the robots of one user. The first message is a
+ * snapshot, every later one only carries the fields that changed during the
+ * last tick.
+ */
+@Controller
+@ServerEndpoint(value = "/fleet/{scope}")
+public class roombaFleetSocket {
+
+    // cannot autowire static directly, see chatNot
+    private static roombaFleetPublisher publisher;
+    private static WebSocketOutbound outbound;
+
+    @Autowired
+    public void setFleetPublisher(roombaFleetPublisher fleetPublisher) {
+        publisher = fleetPublisher;
+    }
+
+    @Autowired
+    public void setOutbound(WebSocketOutbound webSocketOutbound) {
+        outbound = webSocketOutbound;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(roombaFleetSocket.class);
+
+    @OnOpen
+    public void onOpen(Session session, @PathParam("scope") String scope) throws IOException {
+        int userId;
+        if ("all".equalsIgnoreCase(scope)) {
+            userId = roombaFleetPublisher.WHOLE_FLEET;
+        }
+        else {
+            try {
+                userId = Integer.parseInt(scope);
+            }
+            catch (NumberFormatException e) {
+                session.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "Unknown scope " + scope));
+                return;
+            }
+        }
+        logger.info("[fleet onOpen] scope " + scope);
+        publisher.subscribe(session, userId);
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        publisher.unsubscribe(session);
+        outbound.remove(session);
+    }
+
+    @OnError
+    public void onError(Session session, Throwable throwable) {
+        logger.error("[fleet onError] ", throwable);
+        publisher.unsubscribe(session);
+        outbound.remove(session);
+    }
+}
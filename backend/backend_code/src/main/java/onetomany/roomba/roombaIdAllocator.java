@@ -0,0 +1,217 @@
+package onetomany.roomba;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Hands out free 6-digit uniqueIDs without asking the database.
+ *
+ * The IDs in use are read once into a bit set. Free IDs are handed out from
+ * a shuffled pool that a background thread refills from a random point in the
+ * bit set, so allocation stays O(1) even when most of the ID space is taken.
+ * IDs created or deleted elsewhere are picked up from roombaStateChange
+ * events; a collision that still slips through (another instance, say) is
+ * caught by the unique constraint and the caller retries with a new ID.
+ *
+ * An ID counts as used from the moment it is handed out, so two requests
+ * never get the same one. A caller whose insert does not commit gives it
+ * back with release(), and marks it used again if the insert failed because
+ * the ID was taken after all.
+ */
+@Service
+public class roombaIdAllocator {
+
+    static final int MIN_ID = 100000;
+    static final int ID_COUNT = 900000;
+
+    @Autowired
+    roombaRepository roombaRepository1;
+
+    @Value("${roomba.ids.pool-size:4096}")
+    int poolSize;
+
+    // guarded by this
+    private BitSet used;
+    // IDs sitting in the pool, so a refill does not pick them twice
+    private final BitSet pooled = new BitSet(ID_COUNT);
+    private int usedCount;
+
+    private final ConcurrentLinkedQueue<Integer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger poolCount = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "roomba-id-refill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Logger logger = LoggerFactory.getLogger(roombaIdAllocator.class);
+
+    @PreDestroy
+    void stop() {
+        refiller.shutdownNow();
+    }
+
+    /**
+     * Returns an ID that is not in use and marks it used. Throws
+     * IllegalStateException once every 6-digit ID is taken.
+     */
+    public int allocate() {
+        ensureLoaded();
+        while (true) {
+            Integer id = pool.poll();
+            if (id == null) {
+                // the background refill fell behind, refill on this thread
+                // (unless a refill that was still running has just put some in)
+                if (refill(true) == 0 && pool.isEmpty())
+                    throw new IllegalStateException("No free 6-digit IDs left");
+                continue;
+            }
+            if (poolCount.decrementAndGet() < poolSize / 4)
+                requestRefill();
+            synchronized (this) {
+                pooled.clear(id - MIN_ID);
+                // skip IDs that were taken by another path after being pooled
+                if (!used.get(id - MIN_ID)) {
+                    used.set(id - MIN_ID);
+                    usedCount++;
+                    return id;
+                }
+            }
+        }
+    }
+
+    /** Marks an ID as taken, e.g. after it failed the unique constraint. */
+    public synchronized void markUsed(int uniqueID) {
+        if (used != null && inRange(uniqueID) && !used.get(uniqueID - MIN_ID)) {
+            used.set(uniqueID - MIN_ID);
+            usedCount++;
+        }
+    }
+
+    /** Makes an ID available again, e.g. after the robot was deleted. */
+    public synchronized void release(int uniqueID) {
+        if (used != null && inRange(uniqueID) && used.get(uniqueID - MIN_ID)) {
+            used.clear(uniqueID - MIN_ID);
+            usedCount--;
+        }
+    }
+
+    public synchronized int getUsedCount() {
+        ensureLoaded();
+        return usedCount;
+    }
+
+    int getPoolCount() {
+        return poolCount.get();
+    }
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        if (change.isRemoved())
+            release(change.getPrevious().getUniqueID());
+        else if (change.getPrevious() == null)
+            markUsed(change.getCurrent().getUniqueID());
+    }
+
+    private synchronized void ensureLoaded() {
+        if (used != null)
+            return;
+        used = new BitSet(ID_COUNT);
+        for (Integer id : roombaRepository1.findAllUniqueIDs()) {
+            if (id != null && inRange(id) && !used.get(id - MIN_ID)) {
+                used.set(id - MIN_ID);
+                usedCount++;
+            }
+        }
+        logger.info("Loaded {} used roomba IDs", usedCount);
+        refill(false);
+    }
+
+    private void requestRefill() {
+        if (refilling.compareAndSet(false, true)) {
+            refiller.execute(() -> {
+                try {
+                    refill(false);
+                }
+                finally {
+                    refilling.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Tops the pool up to poolSize with free IDs, scanning the bit set from a
+     * random start and wrapping around. Returns how many IDs were added.
+     * poolCount trails the queue while other threads poll it, so a caller
+     * that found the pool empty asks for at least one ID whatever it says;
+     * 0 then really means that no ID is free.
+     */
+    private synchronized int refill(boolean empty) {
+        int wanted = poolSize - poolCount.get();
+        if (empty)
+            wanted = Math.max(1, wanted);
+        if (wanted <= 0)
+            return 0;
+        int[] found = new int[wanted];
+        int n = 0;
+        int start = ThreadLocalRandom.current().nextInt(ID_COUNT);
+        int i = start;
+        boolean wrapped = false;
+        while (n < wanted) {
+            i = nextFree(i);
+            if (i >= ID_COUNT) {
+                if (wrapped)
+                    break;
+                wrapped = true;
+                i = nextFree(0);
+                if (i >= ID_COUNT)
+                    break;
+            }
+            if (wrapped && i >= start)
+                break;
+            found[n++] = i;
+            pooled.set(i);
+            i++;
+        }
+        // shuffle so consecutive allocations are not consecutive numbers
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int j = n - 1; j > 0; j--) {
+            int k = random.nextInt(j + 1);
+            int tmp = found[j];
+            found[j] = found[k];
+            found[k] = tmp;
+        }
+        for (int j = 0; j < n; j++)
+            pool.add(found[j] + MIN_ID);
+        poolCount.addAndGet(n);
+        return n;
+    }
+
+    // next index at or after from that is neither used nor already pooled
+    private int nextFree(int from) {
+        int i = used.nextClearBit(from);
+        while (i < ID_COUNT && pooled.get(i))
+            i = used.nextClearBit(pooled.nextClearBit(i));
+        return i;
+    }
+
+    private static boolean inRange(int uniqueID) {
+        return uniqueID >= MIN_ID && uniqueID < MIN_ID + ID_COUNT;
+    }
+}
@@ -0,0 +1,128 @@
+package onetomany.roomba;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Read-through cache of the pairing fields of a robot by uniqueID.
+ *
+ * Holds at most max-size robots in LRU order, each for ttl-ms. Unknown
+ * uniqueIDs are remembered for negative-ttl-ms so a wrong pairing code does
+ * not reach the database on every retry. Entries are dropped whenever the
+ * robot is saved or deleted through JPA (see roombaEntityListener) or its
+ * state changes through telemetry. Only roombaPairing is cached, never the
+ * entity: a cached entity saved later would write its old position and flags
+ * back over newer telemetry.
+ */
+@Service
+public class roombaLookupCache {
+
+    @Autowired
+    roombaRepository roombaRepository1;
+
+    @Value("${roomba.lookup-cache.max-size:10000}")
+    int maxSize;
+
+    @Value("${roomba.lookup-cache.ttl-ms:30000}")
+    long ttlMs;
+
+    @Value("${roomba.lookup-cache.negative-ttl-ms:5000}")
+    long negativeTtlMs;
+
+    // guarded by itself
+    private final Map<Integer, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    // bumped on every invalidation; a load that overlapped one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private static final class Entry {
+        final roombaPairing value;
+        final long expiresAt;
+
+        Entry(roombaPairing value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** Same contract as roombaRepository.findPairingByUniqueID: null if unknown. */
+    public roombaPairing findByUniqueID(int uniqueID) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(uniqueID);
+            if (entry != null && entry.expiresAt <= now) {
+                entries.remove(uniqueID);
+                expirations.increment();
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            if (entry.value == null) {
+                negativeHits.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        }
+
+        misses.increment();
+        long loadedAt = generation.get();
+        roombaPairing loaded = roombaRepository1.findPairingByUniqueID(uniqueID);
+        long expiresAt = now + (loaded == null ? negativeTtlMs : ttlMs);
+        synchronized (entries) {
+            if (generation.get() == loadedAt)
+                entries.put(uniqueID, new Entry(loaded, expiresAt));
+        }
+        return loaded;
+    }
+
+    public void invalidate(int uniqueID) {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            if (entries.remove(uniqueID) != null)
+                invalidations.increment();
+        }
+    }
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        invalidate(change.getLatest().getUniqueID());
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("hits", hits.sum());
+        counters.put("negativeHits", negativeHits.sum());
+        counters.put("misses", misses.sum());
+        counters.put("evictions", evictions.sum());
+        counters.put("expirations", expirations.sum());
+        counters.put("invalidations", invalidations.sum());
+        synchronized (entries) {
+            counters.put("size", (long) entries.size());
+        }
+        return counters;
+    }
+}
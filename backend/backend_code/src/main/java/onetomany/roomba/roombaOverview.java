@@ -0,0 +1,30 @@
+package onetomany.roomba;
+
+/**
+ * Read model for the fleet overview: the robot's own fields, the username of
+ * its assigned user and how many reports it has, all from one query.
+ */
+public interface roombaOverview {
+
+    int getId();
+
+    int getUniqueID();
+
+    int getPosX();
+
+    int getPosY();
+
+    boolean isFull();
+
+    boolean isNeedsCharging();
+
+    boolean isBackToShop();
+
+    boolean isInShop();
+
+    boolean isHasAssignedUser();
+
+    String getUsername();
+
+    long getReportCount();
+}
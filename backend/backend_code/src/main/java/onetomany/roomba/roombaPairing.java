@@ -0,0 +1,38 @@
+package onetomany.roomba;
+
+/**
+ * The fields of a roomba that a pairing check needs, as held by
+ * roombaLookupCache. Loaded without the entity, so neither the reports nor
+ * the fields telemetry keeps changing are read or cached.
+ */
+public final class roombaPairing {
+
+    private final int id;
+    private final int uniqueID;
+    private final boolean hasAssignedUser;
+    private final int userId;
+
+
+    public roombaPairing(int id, int uniqueID, boolean hasAssignedUser, int userId) {
+        this.id = id;
+        this.uniqueID = uniqueID;
+        this.hasAssignedUser = hasAssignedUser;
+        this.userId = userId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getUniqueID() {
+        return uniqueID;
+    }
+
+    public boolean isHasAssignedUser() {
+        return hasAssignedUser;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+}
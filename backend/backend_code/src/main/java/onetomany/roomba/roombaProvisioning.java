@@ -0,0 +1,85 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Registers many robots in one transaction.
+ *
+ * roomba ids come from a pooled sequence, so Hibernate can group the inserts
+ * into JDBC batches of hibernate.jdbc.batch_size; the persistence context is
+ * flushed and cleared after every batch to keep memory flat.
+ */
+@Service
+public class roombaProvisioning {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Autowired
+    roombaIdAllocator idAllocator;
+
+    @Autowired
+    roombaRepository roombaRepository1;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    int batchSize;
+
+    /**
+     * Assigns a uniqueID to every robot and inserts them all, or none of
+     * them. If another writer took one of the IDs in the meantime, the
+     * whole batch is retried with new IDs.
+     */
+    public List<Integer> provision(List<roomba> robots) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        for (int attempt = 1; ; attempt++) {
+            List<Integer> ids = new ArrayList<>(robots.size());
+            for (int i = 0; i < robots.size(); i++)
+                ids.add(idAllocator.allocate());
+            try {
+                transaction.executeWithoutResult(status -> insert(robots, ids));
+                return ids;
+            }
+            catch (RuntimeException e) {
+                // nothing was inserted; hand back the IDs that nobody else took
+                for (Integer id : ids)
+                    idAllocator.release(id);
+                if (!(e instanceof DataIntegrityViolationException))
+                    throw e;
+                for (Integer taken : roombaRepository1.findUniqueIDsIn(ids))
+                    idAllocator.markUsed(taken);
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+            }
+        }
+    }
+
+    private void insert(List<roomba> robots, List<Integer> ids) {
+        for (int i = 0; i < robots.size(); i++) {
+            roomba source = robots.get(i);
+            roomba r = new roomba(source.getPosX(), source.getPosY(), ids.get(i));
+            entityManager.persist(r);
+            if ((i + 1) % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
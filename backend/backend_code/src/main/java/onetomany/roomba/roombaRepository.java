@@ -1,13 +1,48 @@
 package onetomany.roomba;
 
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import jakarta.persistence.QueryHint;
+import onetomany.NdjsonStreams;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 public interface roombaRepository  extends JpaRepository<roomba, Long>{
 
+    // the robot's own fields, its user's name and its report count, in one statement
+    String OVERVIEW_SELECT = "select r.id as id, r.uniqueID as uniqueID, r.posX as posX, r.posY as posY, r.Full as full, "
+            + "r.needsCharging as needsCharging, r.backToShop as backToShop, r.InShop as inShop, "
+            + "r.hasAssignedUser as hasAssignedUser, u.username as username, "
+            + "(select count(rep) from Reports rep where rep.roomba1 = r) as reportCount "
+            + "from roomba r left join User u on u.id = r.userId ";
+
 
     roomba findById(int id);
     roomba findByUniqueID(int id);
 
     boolean existsByUniqueID(int uniqueID);
 
+    @Query("select new onetomany.roomba.roombaPairing(r.id, r.uniqueID, r.hasAssignedUser, r.userId) "
+            + "from roomba r where r.uniqueID = :uniqueID")
+    roombaPairing findPairingByUniqueID(@Param("uniqueID") int uniqueID);
+
+    @Query("select r.uniqueID from roomba r")
+    List<Integer> findAllUniqueIDs();
+
+    @Query("select r.uniqueID from roomba r where r.uniqueID in :ids")
+    List<Integer> findUniqueIDsIn(@Param("ids") Collection<Integer> ids);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + NdjsonStreams.FETCH_SIZE))
+    @Query(OVERVIEW_SELECT + "order by r.id")
+    Stream<roombaOverview> streamOverview();
+
+    @Query(OVERVIEW_SELECT + "where r.id > :after order by r.id")
+    List<roombaOverview> findOverview(@Param("after") int after, Pageable page);
+
 }
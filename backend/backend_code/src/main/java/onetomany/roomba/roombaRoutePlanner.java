@@ -0,0 +1,213 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Plans the way back to a shop over the occupancy grid of the floor.
+ *
+ * Whenever the map changes, one breadth-first search per shop fills a
+ * distance field: the number of steps from every free cell to that shop.
+ * Routing a robot then needs no search at all; starting at its cell the walk
+ * always steps to a neighbour one closer to the shop, so a request costs
+ * O(path length). Robots move on the grid in four directions, the same as
+ * the Manhattan distances used by roombaDispatcher.
+ */
+@Service
+public class roombaRoutePlanner {
+
+    static final int UNREACHABLE = -1;
+
+    // neighbour order used by both the search and the walk
+    private static final int[] DX = { 1, -1, 0, 0 };
+    private static final int[] DY = { 0, 0, 1, -1 };
+
+    @Value("${roomba.dispatch.shops:}")
+    String shopList;
+
+    @Value("${roomba.route.width:1024}")
+    int width;
+
+    @Value("${roomba.route.height:1024}")
+    int height;
+
+    /** Blocked rectangles as x1:y1:x2:y2 (inclusive), comma separated. */
+    @Value("${roomba.route.obstacles:}")
+    String obstacleList;
+
+    // replaced as a whole on every map change, so readers never see half a map
+    private volatile Fields fields;
+
+    private final Logger logger = LoggerFactory.getLogger(roombaRoutePlanner.class);
+
+    private static final class Fields {
+        final int width;
+        final int height;
+        final int[][] shops;
+        final int[][] distance;
+
+        Fields(int width, int height, int[][] shops, int[][] distance) {
+            this.width = width;
+            this.height = height;
+            this.shops = shops;
+            this.distance = distance;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        updateMap(width, height, parseObstacles(obstacleList));
+    }
+
+    /**
+     * Installs a new map and recomputes every distance field. Obstacles are
+     * {x1, y1, x2, y2} rectangles; cells outside width x height are blocked.
+     */
+    public void updateMap(int width, int height, List<int[]> obstacles) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Map must be at least 1x1, got " + width + "x" + height);
+        long started = System.nanoTime();
+        BitSet blocked = new BitSet(width * height);
+        for (int[] o : obstacles) {
+            // clip to the map; what is left of a rectangle may be nothing
+            int x1 = Math.max(0, o[0]), x2 = Math.min(width - 1, o[2]);
+            if (x1 > x2)
+                continue;
+            for (int y = Math.max(0, o[1]); y <= Math.min(height - 1, o[3]); y++)
+                blocked.set(y * width + x1, y * width + x2 + 1);
+        }
+
+        int[][] shops = roombaDispatcher.parseShops(shopList);
+        int[][] distance = new int[shops.length][];
+        int[] queue = new int[width * height];
+        for (int shop = 0; shop < shops.length; shop++)
+            distance[shop] = distanceField(width, height, blocked, shops[shop][0], shops[shop][1], queue);
+        fields = new Fields(width, height, shops, distance);
+
+        logger.info("Built {} distance fields over {}x{} cells in {} ms", shops.length, width, height,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static int[] distanceField(int width, int height, BitSet blocked, int shopX, int shopY, int[] queue) {
+        int[] distance = new int[width * height];
+        Arrays.fill(distance, UNREACHABLE);
+        if (shopX < 0 || shopY < 0 || shopX >= width || shopY >= height || blocked.get(shopY * width + shopX))
+            return distance;
+
+        int head = 0, tail = 0;
+        int start = shopY * width + shopX;
+        distance[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell % width, y = cell / width;
+            int next = distance[cell] + 1;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + DX[d], ny = y + DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                    continue;
+                int neighbour = ny * width + nx;
+                if (distance[neighbour] == UNREACHABLE && !blocked.get(neighbour)) {
+                    distance[neighbour] = next;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Route from (x, y) to the closest reachable shop, or null if no shop can
+     * be reached from there. The path starts at (x, y) and ends at the shop.
+     * Throws IllegalArgumentException if (x, y) is outside the map.
+     */
+    public Map<String, Object> route(int x, int y) {
+        Fields f = fields;
+        checkOnMap(f, x, y);
+        int start = y * f.width + x;
+
+        int best = -1;
+        for (int shop = 0; shop < f.shops.length; shop++) {
+            int d = f.distance[shop][start];
+            if (d != UNREACHABLE && (best < 0 || d < f.distance[best][start]))
+                best = shop;
+        }
+        if (best < 0)
+            return null;
+        return walk(f, x, y, best);
+    }
+
+    /**
+     * Route from (x, y) to the given shop (an index into roomba.dispatch.shops,
+     * as roombaDispatcher assigns them), or null if it cannot be reached from
+     * there. Throws IllegalArgumentException for an unknown shop or if (x, y)
+     * is outside the map.
+     */
+    public Map<String, Object> route(int x, int y, int shop) {
+        Fields f = fields;
+        if (shop < 0 || shop >= f.shops.length)
+            throw new IllegalArgumentException("No shop " + shop + ", there are " + f.shops.length);
+        checkOnMap(f, x, y);
+        if (f.distance[shop][y * f.width + x] == UNREACHABLE)
+            return null;
+        return walk(f, x, y, shop);
+    }
+
+    private static void checkOnMap(Fields f, int x, int y) {
+        if (x < 0 || y < 0 || x >= f.width || y >= f.height)
+            throw new IllegalArgumentException(x + "," + y + " is outside the " + f.width + "x" + f.height + " map");
+    }
+
+    private static Map<String, Object> walk(Fields f, int x, int y, int best) {
+        int start = y * f.width + x;
+        int[] distance = f.distance[best];
+        List<int[]> path = new ArrayList<>(distance[start] + 1);
+        int cx = x, cy = y;
+        path.add(new int[] { cx, cy });
+        for (int d = distance[start]; d > 0; d--) {
+            for (int i = 0; i < 4; i++) {
+                int nx = cx + DX[i], ny = cy + DY[i];
+                if (nx >= 0 && ny >= 0 && nx < f.width && ny < f.height && distance[ny * f.width + nx] == d - 1) {
+                    cx = nx;
+                    cy = ny;
+                    break;
+                }
+            }
+            path.add(new int[] { cx, cy });
+        }
+
+        Map<String, Object> route = new LinkedHashMap<>();
+        route.put("shop", best);
+        route.put("shopX", f.shops[best][0]);
+        route.put("shopY", f.shops[best][1]);
+        route.put("length", distance[start]);
+        route.put("path", path);
+        return route;
+    }
+
+    static List<int[]> parseObstacles(String obstacleList) {
+        List<int[]> obstacles = new ArrayList<>();
+        if (obstacleList.isBlank())
+            return obstacles;
+        for (String part : obstacleList.split(",")) {
+            String[] fields = part.trim().split(":");
+            if (fields.length != 4)
+                throw new IllegalArgumentException("Obstacle must be x1:y1:x2:y2, got " + part);
+            int x1 = Integer.parseInt(fields[0]), y1 = Integer.parseInt(fields[1]);
+            int x2 = Integer.parseInt(fields[2]), y2 = Integer.parseInt(fields[3]);
+            obstacles.add(new int[] { Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2) });
+        }
+        return obstacles;
+    }
+}
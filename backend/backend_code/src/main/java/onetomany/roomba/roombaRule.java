@@ -0,0 +1,168 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One alert rule: a condition on the state of a single robot and how long it
+ * has to hold before the alert is raised.
+ *
+ * Rules are written as
+ *
+ *     name: term & term & ... [for duration]
+ *
+ * where a term is a flag (full, needsCharging, backToShop, inShop,
+ * hasAssignedUser), a negated flag (!backToShop) or a comparison on the
+ * Manhattan distance to the closest shop (shopDistance > 200). The duration
+ * is a number followed by ms, s, m or h. Several rules are separated by ';'.
+ */
+public final class roombaRule {
+
+    private final String name;
+    private final String definition;
+    private final long durationMs;
+    // FIELD_* bits the condition reads; only changes to these re-evaluate it
+    private final int fields;
+
+    // flags that must be set and flags that must be clear, as flag bits of roombaState.flags()
+    private final int required;
+    private final int forbidden;
+    private final boolean assigned;
+    private final boolean unassigned;
+    private final long minShopDistance;
+    private final long maxShopDistance;
+
+    private roombaRule(String name, String definition, long durationMs, int fields, int required, int forbidden,
+                       boolean assigned, boolean unassigned, long minShopDistance, long maxShopDistance) {
+        this.name = name;
+        this.definition = definition;
+        this.durationMs = durationMs;
+        this.fields = fields;
+        this.required = required;
+        this.forbidden = forbidden;
+        this.assigned = assigned;
+        this.unassigned = unassigned;
+        this.minShopDistance = minShopDistance;
+        this.maxShopDistance = maxShopDistance;
+    }
+
+    /**
+     * shopDistance is the distance to the closest shop, Long.MAX_VALUE without
+     * shops; it is only read when readsShopDistance() is true, and such a rule
+     * never matches without shops.
+     */
+    boolean matches(roombaState s, long shopDistance) {
+        int flags = s.flags();
+        if ((flags & required) != required || (flags & forbidden) != 0)
+            return false;
+        if ((assigned && !s.isHasAssignedUser()) || (unassigned && s.isHasAssignedUser()))
+            return false;
+        if (!readsShopDistance())
+            return true;
+        return shopDistance != Long.MAX_VALUE && shopDistance >= minShopDistance && shopDistance <= maxShopDistance;
+    }
+
+    boolean readsShopDistance() {
+        return minShopDistance > 0 || maxShopDistance < Long.MAX_VALUE;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDefinition() {
+        return definition;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public int getFields() {
+        return fields;
+    }
+
+    public static List<roombaRule> parseAll(String rules) {
+        List<roombaRule> parsed = new ArrayList<>();
+        for (String rule : rules.split(";")) {
+            if (!rule.isBlank())
+                parsed.add(parse(rule.trim()));
+        }
+        return parsed;
+    }
+
+    public static roombaRule parse(String rule) {
+        int colon = rule.indexOf(':');
+        if (colon <= 0)
+            throw new IllegalArgumentException("Rule must start with a name, got " + rule);
+        String name = rule.substring(0, colon).trim();
+        String condition = rule.substring(colon + 1).trim();
+
+        long durationMs = 0;
+        int forAt = condition.lastIndexOf(" for ");
+        if (forAt >= 0) {
+            durationMs = parseDuration(condition.substring(forAt + 5).trim());
+            condition = condition.substring(0, forAt).trim();
+        }
+
+        int fields = 0, required = 0, forbidden = 0;
+        boolean assigned = false, unassigned = false;
+        long minShopDistance = 0, maxShopDistance = Long.MAX_VALUE;
+        for (String raw : condition.split("&")) {
+            String term = raw.replace(" ", "");
+            if (term.isEmpty())
+                throw new IllegalArgumentException("Empty term in rule " + name);
+            if (term.startsWith("shopDistance")) {
+                String op = term.substring(12).replaceAll("[0-9]", "");
+                long value = Long.parseLong(term.substring(12 + op.length()));
+                switch (op) {
+                    case ">": minShopDistance = Math.max(minShopDistance, value + 1); break;
+                    case ">=": minShopDistance = Math.max(minShopDistance, value); break;
+                    case "<": maxShopDistance = Math.min(maxShopDistance, value - 1); break;
+                    case "<=": maxShopDistance = Math.min(maxShopDistance, value); break;
+                    default: throw new IllegalArgumentException("Unknown comparison " + op + " in rule " + name);
+                }
+                fields |= roombaState.FIELD_POSITION;
+                continue;
+            }
+            boolean negated = term.startsWith("!");
+            String flag = negated ? term.substring(1) : term;
+            if (flag.equals("hasAssignedUser")) {
+                if (negated)
+                    unassigned = true;
+                else
+                    assigned = true;
+                fields |= roombaState.FIELD_ASSIGNMENT;
+                continue;
+            }
+            int bit;
+            switch (flag) {
+                case "full": bit = 1; fields |= roombaState.FIELD_FULL; break;
+                case "needsCharging": bit = 2; fields |= roombaState.FIELD_NEEDS_CHARGING; break;
+                case "backToShop": bit = 4; fields |= roombaState.FIELD_BACK_TO_SHOP; break;
+                case "inShop": bit = 8; fields |= roombaState.FIELD_IN_SHOP; break;
+                default: throw new IllegalArgumentException("Unknown term " + term + " in rule " + name);
+            }
+            if (negated)
+                forbidden |= bit;
+            else
+                required |= bit;
+        }
+        return new roombaRule(name, rule, durationMs, fields, required, forbidden, assigned, unassigned,
+                minShopDistance, maxShopDistance);
+    }
+
+    static long parseDuration(String duration) {
+        String d = duration.toLowerCase(Locale.ROOT);
+        if (d.endsWith("ms"))
+            return Long.parseLong(d.substring(0, d.length() - 2));
+        long value = Long.parseLong(d.substring(0, d.length() - 1));
+        switch (d.charAt(d.length() - 1)) {
+            case 's': return value * 1000;
+            case 'm': return value * 60_000;
+            case 'h': return value * 3_600_000;
+            default: throw new IllegalArgumentException("Duration must end in ms, s, m or h, got " + duration);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Evaluates the rules in roomba.rules.definitions as robots change, instead
+ * of scanning the roomba table.
+ *
+ * A state change only re-evaluates the rules that read one of the fields
+ * that changed. Robots are tracked only while at least one rule holds for
+ * them, so memory grows with the number of matching robots, not with the
+ * fleet or the rate of changes. Rules with a duration are checked by a timer
+ * that only looks at robots whose earliest deadline has passed.
+ */
+@Service
+public class roombaRuleEngine {
+
+    // rule indices are bits of a long
+    static final int MAX_RULES = 64;
+
+    @Autowired
+    List<roombaAlertSink> sinks;
+
+    @Value("${roomba.rules.definitions:}")
+    String definitions;
+
+    @Value("${roomba.rules.tick-ms:1000}")
+    long tickMs;
+
+    @Value("${roomba.dispatch.shops:}")
+    String shopList;
+
+    private roombaRule[] rules;
+    // for every combination of FIELD_* bits, the rules that read any of them
+    private final long[] affected = new long[roombaState.ALL_FIELDS + 1];
+    private int[][] shops;
+
+    private final Map<Integer, Tracked> tracked = new ConcurrentHashMap<>();
+    private ScheduledExecutorService timer;
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder raised = new LongAdder();
+    private final LongAdder cleared = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(roombaRuleEngine.class);
+
+    private static final class Tracked {
+        roombaState state;
+        long matching;
+        long fired;
+        final long[] since;
+        volatile long nextDeadline = Long.MAX_VALUE;
+
+        Tracked(int rules) {
+            since = new long[rules];
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        shops = roombaDispatcher.parseShops(shopList);
+        List<roombaRule> parsed = new ArrayList<>();
+        for (roombaRule rule : roombaRule.parseAll(definitions)) {
+            // without shops every robot would be infinitely far from one
+            if (shops.length == 0 && rule.readsShopDistance())
+                logger.warn("Skipping rule {}, it reads shopDistance and no shops are configured", rule.getName());
+            else
+                parsed.add(rule);
+        }
+        if (parsed.size() > MAX_RULES)
+            throw new IllegalArgumentException("At most " + MAX_RULES + " rules are supported, got " + parsed.size());
+        rules = parsed.toArray(new roombaRule[0]);
+        for (int mask = 0; mask < affected.length; mask++) {
+            for (int i = 0; i < rules.length; i++) {
+                if ((rules[i].getFields() & mask) != 0)
+                    affected[mask] |= 1L << i;
+            }
+        }
+        if (rules.length == 0)
+            return;
+        logger.info("Loaded {} alert rules", rules.length);
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "roomba-rules");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                checkDeadlines(System.currentTimeMillis());
+            }
+            catch (RuntimeException e) {
+                logger.error("Rule timer failed", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (timer != null)
+            timer.shutdownNow();
+    }
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        changes.increment();
+        if (rules.length == 0)
+            return;
+        long now = System.currentTimeMillis();
+        List<roombaAlert> alerts = new ArrayList<>(0);
+
+        if (change.isRemoved()) {
+            roombaState last = change.getPrevious();
+            Tracked t = tracked.remove(last.getUniqueID());
+            if (t != null)
+                clearFired(t, t.fired, last, now, alerts);
+            emit(alerts);
+            return;
+        }
+
+        long candidates = affected[change.getChangedFields() & roombaState.ALL_FIELDS];
+        if (candidates == 0) {
+            skipped.increment();
+            return;
+        }
+        roombaState state = change.getCurrent();
+        tracked.compute(state.getUniqueID(), (k, t) -> {
+            if (t != null && t.state.getSeq() > state.getSeq())
+                return t;
+            long matching = evaluate(state, candidates, t == null ? 0 : t.matching);
+            if (t == null && matching == 0)
+                return null;
+            if (t == null)
+                t = new Tracked(rules.length);
+            t.state = state;
+
+            long started = matching & ~t.matching;
+            long stopped = t.matching & ~matching;
+            clearFired(t, stopped & t.fired, state, now, alerts);
+            t.fired &= ~stopped;
+            for (long bits = started; bits != 0; bits &= bits - 1)
+                t.since[Long.numberOfTrailingZeros(bits)] = now;
+            t.matching = matching;
+            fireDue(t, now, alerts);
+            return t.matching == 0 ? null : t;
+        });
+        emit(alerts);
+    }
+
+    // re-evaluates the candidate rules and keeps the previous result for the others
+    private long evaluate(roombaState state, long candidates, long previous) {
+        long matching = previous & ~candidates;
+        long shopDistance = -1;
+        for (long bits = candidates; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            if (shopDistance < 0 && rules[i].readsShopDistance())
+                shopDistance = shopDistance(state);
+            evaluations.increment();
+            if (rules[i].matches(state, shopDistance))
+                matching |= 1L << i;
+        }
+        return matching;
+    }
+
+    void checkDeadlines(long now) {
+        for (Map.Entry<Integer, Tracked> entry : tracked.entrySet()) {
+            if (entry.getValue().nextDeadline > now)
+                continue;
+            List<roombaAlert> alerts = new ArrayList<>(1);
+            tracked.computeIfPresent(entry.getKey(), (k, t) -> {
+                fireDue(t, now, alerts);
+                return t;
+            });
+            emit(alerts);
+        }
+    }
+
+    // raises every matching rule whose duration has passed and sets the next deadline
+    private void fireDue(Tracked t, long now, List<roombaAlert> alerts) {
+        long next = Long.MAX_VALUE;
+        for (long bits = t.matching & ~t.fired; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            long deadline = t.since[i] + rules[i].getDurationMs();
+            if (deadline <= now) {
+                t.fired |= 1L << i;
+                raised.increment();
+                alerts.add(new roombaAlert(roombaAlert.Kind.RAISED, rules[i].getName(), t.state.getUniqueID(),
+                        t.since[i], now, t.state));
+            }
+            else {
+                next = Math.min(next, deadline);
+            }
+        }
+        t.nextDeadline = next;
+    }
+
+    private void clearFired(Tracked t, long bits, roombaState state, long now, List<roombaAlert> alerts) {
+        for (; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            cleared.increment();
+            alerts.add(new roombaAlert(roombaAlert.Kind.CLEARED, rules[i].getName(), state.getUniqueID(),
+                    t.since[i], now, state));
+        }
+    }
+
+    private void emit(List<roombaAlert> alerts) {
+        for (roombaAlert alert : alerts) {
+            for (roombaAlertSink sink : sinks) {
+                try {
+                    sink.onAlert(alert);
+                }
+                catch (RuntimeException e) {
+                    logger.error("Alert sink {} failed", sink.getClass().getSimpleName(), e);
+                }
+            }
+        }
+    }
+
+    // Manhattan distance to the closest shop, as in roombaDispatcher
+    private long shopDistance(roombaState s) {
+        long best = Long.MAX_VALUE;
+        for (int[] shop : shops)
+            best = Math.min(best, Math.abs((long) s.getPosX() - shop[0]) + Math.abs((long) s.getPosY() - shop[1]));
+        return best;
+    }
+
+    public List<roombaRule> getRules() {
+        return List.of(rules);
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("rules", (long) rules.length);
+        counters.put("changes", changes.sum());
+        counters.put("skipped", skipped.sum());
+        counters.put("evaluations", evaluations.sum());
+        counters.put("raised", raised.sum());
+        counters.put("cleared", cleared.sum());
+        counters.put("tracked", (long) tracked.size());
+        return counters;
+    }
+}
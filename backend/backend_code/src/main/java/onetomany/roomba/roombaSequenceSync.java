@@ -0,0 +1,41 @@
+package onetomany.roomba;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * roomba ids used to come from AUTO_INCREMENT. When roomba_seq is created
+ * on an existing table it starts at 1, so before the web server takes any
+ * request its next value is moved past the highest id already in use.
+ */
+@Component
+public class roombaSequenceSync implements SmartInitializingSingleton {
+
+    static final int ALLOCATION_SIZE = 50;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private final Logger logger = LoggerFactory.getLogger(roombaSequenceSync.class);
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            Integer maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM roomba", Integer.class);
+            // the pooled optimizer hands out the ALLOCATION_SIZE ids below the value it reads
+            long floor = maxId + 1L + ALLOCATION_SIZE;
+            int updated = jdbcTemplate.update("UPDATE roomba_seq SET next_val = ? WHERE next_val < ?", floor, floor);
+            if (updated > 0)
+                logger.info("Moved roomba_seq past existing id {}", maxId);
+        }
+        catch (DataAccessException e) {
+            // a native sequence (not a table) needs no adjustment on a new database
+            logger.debug("roomba_seq not adjusted: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Uniform grid over robot positions, kept in sync with roombaFleet.
+ *
+ * Each cell holds the uniqueIDs of the robots inside it. Nearest queries walk
+ * rings of cells outwards from the query point and stop as soon as no cell
+ * further out can beat the k-th best distance, so they only look at robots
+ * around the point instead of the whole fleet.
+ */
+@Service
+public class roombaSpatialIndex {
+
+    @Value("${roomba.spatial.cell-size:64}")
+    int cellSize;
+
+    private final Map<Integer, roombaState> robots = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Integer>> cells = new ConcurrentHashMap<>();
+
+    // bounds of every cell that was ever occupied, in cell coordinates
+    private volatile int minCellX = Integer.MAX_VALUE;
+    private volatile int minCellY = Integer.MAX_VALUE;
+    private volatile int maxCellX = Integer.MIN_VALUE;
+    private volatile int maxCellY = Integer.MIN_VALUE;
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        if (change.isRemoved()) {
+            roombaState old = robots.remove(change.getPrevious().getUniqueID());
+            if (old != null)
+                removeFromCell(old);
+        }
+        else {
+            // the queries return the stored state, so it is replaced on every change
+            update(change.getCurrent());
+        }
+    }
+
+    // moves the robot to another cell only when its position left the old one
+    void update(roombaState state) {
+        robots.compute(state.getUniqueID(), (k, old) -> {
+            if (old != null && old.getSeq() > state.getSeq())
+                return old;
+            long oldCell = old == null ? 0 : cellKey(cellOf(old.getPosX()), cellOf(old.getPosY()));
+            long newCell = cellKey(cellOf(state.getPosX()), cellOf(state.getPosY()));
+            if (old == null || oldCell != newCell) {
+                if (old != null)
+                    removeFromCell(old);
+                addToCell(state);
+            }
+            return state;
+        });
+    }
+
+    public int size() {
+        return robots.size();
+    }
+
+    /**
+     * Returns up to k robots closest to (x, y), nearest first. full and
+     * needsCharging filter on the flag when not null.
+     */
+    public List<roombaState> nearest(int x, int y, int k, Boolean full, Boolean needsCharging) {
+        List<roombaState> result = new ArrayList<>();
+        if (k <= 0 || robots.isEmpty())
+            return result;
+
+        // max-heap on distance so the worst of the current k is on top
+        Comparator<roombaState> byDistance = Comparator.comparingLong(s -> distanceSq(s, x, y));
+        PriorityQueue<roombaState> best = new PriorityQueue<>(k + 1, byDistance.reversed());
+
+        int cx = cellOf(x);
+        int cy = cellOf(y);
+        int loX = minCellX, loY = minCellY, hiX = maxCellX, hiY = maxCellY;
+        int firstRing = Math.max(Math.max(loX - cx, cx - hiX), Math.max(loY - cy, cy - hiY));
+        int lastRing = Math.max(Math.max(cx - loX, hiX - cx), Math.max(cy - loY, hiY - cy));
+
+        for (int r = Math.max(0, firstRing); r <= lastRing; r++) {
+            if (best.size() == k) {
+                // every robot in ring r is at least (r - 1) cells away
+                long reach = (long) (r - 1) * cellSize;
+                if (reach > 0 && reach * reach > distanceSq(best.peek(), x, y))
+                    break;
+            }
+            scanRing(cx, cy, r, loX, loY, hiX, hiY, state -> {
+                if (!matches(state, full, needsCharging))
+                    return;
+                best.offer(state);
+                if (best.size() > k)
+                    best.poll();
+            });
+        }
+
+        result.addAll(best);
+        result.sort(byDistance);
+        return result;
+    }
+
+    /** Returns every robot inside the box, edges included. */
+    public List<roombaState> within(int minX, int minY, int maxX, int maxY, Boolean full, Boolean needsCharging) {
+        List<roombaState> result = new ArrayList<>();
+        int loX = Math.max(cellOf(minX), minCellX);
+        int hiX = Math.min(cellOf(maxX), maxCellX);
+        int loY = Math.max(cellOf(minY), minCellY);
+        int hiY = Math.min(cellOf(maxY), maxCellY);
+        if (loX > hiX || loY > hiY)
+            return result;
+
+        if ((long) (hiX - loX + 1) * (hiY - loY + 1) > cells.size()) {
+            // box is larger than the occupied part of the grid, walk the cells instead
+            cells.forEach((key, ids) -> {
+                int cellX = (int) (key >> 32);
+                int cellY = (int) (long) key;
+                if (cellX >= loX && cellX <= hiX && cellY >= loY && cellY <= hiY)
+                    collect(ids, minX, minY, maxX, maxY, full, needsCharging, result);
+            });
+        }
+        else {
+            for (int cellX = loX; cellX <= hiX; cellX++) {
+                for (int cellY = loY; cellY <= hiY; cellY++) {
+                    Set<Integer> ids = cells.get(cellKey(cellX, cellY));
+                    if (ids != null)
+                        collect(ids, minX, minY, maxX, maxY, full, needsCharging, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void collect(Set<Integer> ids, int minX, int minY, int maxX, int maxY,
+                         Boolean full, Boolean needsCharging, List<roombaState> result) {
+        for (Integer id : ids) {
+            roombaState s = robots.get(id);
+            if (s != null && s.getPosX() >= minX && s.getPosX() <= maxX && s.getPosY() >= minY
+                    && s.getPosY() <= maxY && matches(s, full, needsCharging))
+                result.add(s);
+        }
+    }
+
+    private void scanRing(int cx, int cy, int r, int loX, int loY, int hiX, int hiY,
+                          Consumer<roombaState> visitor) {
+        if (r == 0) {
+            visitCell(cx, cy, visitor);
+            return;
+        }
+        for (int x = Math.max(cx - r, loX); x <= Math.min(cx + r, hiX); x++) {
+            if (cy - r >= loY)
+                visitCell(x, cy - r, visitor);
+            if (cy + r <= hiY)
+                visitCell(x, cy + r, visitor);
+        }
+        for (int y = Math.max(cy - r + 1, loY); y <= Math.min(cy + r - 1, hiY); y++) {
+            if (cx - r >= loX)
+                visitCell(cx - r, y, visitor);
+            if (cx + r <= hiX)
+                visitCell(cx + r, y, visitor);
+        }
+    }
+
+    private void visitCell(int cellX, int cellY, Consumer<roombaState> visitor) {
+        Set<Integer> ids = cells.get(cellKey(cellX, cellY));
+        if (ids == null)
+            return;
+        for (Integer id : ids) {
+            roombaState s = robots.get(id);
+            if (s != null)
+                visitor.accept(s);
+        }
+    }
+
+    private static boolean matches(roombaState s, Boolean full, Boolean needsCharging) {
+        return (full == null || s.isFull() == full)
+                && (needsCharging == null || s.isNeedsCharging() == needsCharging);
+    }
+
+    private static long distanceSq(roombaState s, int x, int y) {
+        long dx = (long) s.getPosX() - x;
+        long dy = (long) s.getPosY() - y;
+        return dx * dx + dy * dy;
+    }
+
+    private void addToCell(roombaState s) {
+        int cellX = cellOf(s.getPosX());
+        int cellY = cellOf(s.getPosY());
+        cells.compute(cellKey(cellX, cellY), (k, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+                growBounds(cellX, cellY);
+            }
+            ids.add(s.getUniqueID());
+            return ids;
+        });
+    }
+
+    private void removeFromCell(roombaState s) {
+        cells.computeIfPresent(cellKey(cellOf(s.getPosX()), cellOf(s.getPosY())), (k, ids) -> {
+            ids.remove(s.getUniqueID());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private synchronized void growBounds(int cellX, int cellY) {
+        if (cellX < minCellX) minCellX = cellX;
+        if (cellY < minCellY) minCellY = cellY;
+        if (cellX > maxCellX) maxCellX = cellX;
+        if (cellY > maxCellY) maxCellY = cellY;
+    }
+
+    private int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
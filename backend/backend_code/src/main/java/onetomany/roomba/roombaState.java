@@ -0,0 +1,136 @@
+package onetomany.roomba;
+
+/**
+ * Immutable copy of the fields of a roomba that change while it works. The
+ * seq number is assigned by roombaFleet and grows with every change, so a
+ * listener can drop a state older than the one it already holds.
+ */
+public final class roombaState {
+
+    public static final int FIELD_POSITION = 1;
+    public static final int FIELD_FULL = 1 << 1;
+    public static final int FIELD_NEEDS_CHARGING = 1 << 2;
+    public static final int FIELD_BACK_TO_SHOP = 1 << 3;
+    public static final int FIELD_IN_SHOP = 1 << 4;
+    public static final int FIELD_ASSIGNMENT = 1 << 5;
+    public static final int ALL_FIELDS = (1 << 6) - 1;
+
+    private final long seq;
+    private final int id;
+    private final int uniqueID;
+    private final int posX;
+    private final int posY;
+    private final boolean full;
+    private final boolean needsCharging;
+    private final boolean backToShop;
+    private final boolean inShop;
+    private final boolean hasAssignedUser;
+    private final int userId;
+
+
+    public roombaState(long seq, int id, int uniqueID, int posX, int posY, boolean full, boolean needsCharging,
+                       boolean backToShop, boolean inShop, boolean hasAssignedUser, int userId) {
+        this.seq = seq;
+        this.id = id;
+        this.uniqueID = uniqueID;
+        this.posX = posX;
+        this.posY = posY;
+        this.full = full;
+        this.needsCharging = needsCharging;
+        this.backToShop = backToShop;
+        this.inShop = inShop;
+        this.hasAssignedUser = hasAssignedUser;
+        this.userId = userId;
+    }
+
+    static roombaState of(roomba r, long seq) {
+        return new roombaState(seq, r.getId(), r.getUniqueID(), r.getPosX(), r.getPosY(), r.isFull(),
+                r.isNeedsCharging(), r.isBackToShop(), r.isInShop(), r.isHasAssignedUser(), r.getUserId());
+    }
+
+    // without shopFlags the report's backToShop and inShop are ignored, see roombaDispatcher
+    roombaState withTelemetry(roombaTelemetry t, boolean shopFlags, long seq) {
+        return new roombaState(seq, id, uniqueID, t.getPosX(), t.getPosY(), t.isFull(), t.isNeedsCharging(),
+                shopFlags ? t.isBackToShop() : backToShop, shopFlags ? t.isInShop() : inShop, hasAssignedUser, userId);
+    }
+
+    roombaState withShopFlags(boolean backToShop, boolean inShop, long seq) {
+        return new roombaState(seq, id, uniqueID, posX, posY, full, needsCharging, backToShop, inShop,
+                hasAssignedUser, userId);
+    }
+
+    /**
+     * Returns the FIELD_* bits that differ between the two states. A missing
+     * state on either side counts as every field changed.
+     */
+    public static int diff(roombaState a, roombaState b) {
+        if (a == null || b == null)
+            return ALL_FIELDS;
+        int mask = 0;
+        if (a.posX != b.posX || a.posY != b.posY)
+            mask |= FIELD_POSITION;
+        if (a.full != b.full)
+            mask |= FIELD_FULL;
+        if (a.needsCharging != b.needsCharging)
+            mask |= FIELD_NEEDS_CHARGING;
+        if (a.backToShop != b.backToShop)
+            mask |= FIELD_BACK_TO_SHOP;
+        if (a.inShop != b.inShop)
+            mask |= FIELD_IN_SHOP;
+        if (a.hasAssignedUser != b.hasAssignedUser || a.userId != b.userId)
+            mask |= FIELD_ASSIGNMENT;
+        return mask;
+    }
+
+    /**
+     * Packs the four status flags into one byte: bit 0 full, bit 1
+     * needsCharging, bit 2 backToShop, bit 3 inShop.
+     */
+    public byte flags() {
+        return (byte) ((full ? 1 : 0) | (needsCharging ? 2 : 0) | (backToShop ? 4 : 0) | (inShop ? 8 : 0));
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getUniqueID() {
+        return uniqueID;
+    }
+
+    public int getPosX() {
+        return posX;
+    }
+
+    public int getPosY() {
+        return posY;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public boolean isNeedsCharging() {
+        return needsCharging;
+    }
+
+    public boolean isBackToShop() {
+        return backToShop;
+    }
+
+    public boolean isInShop() {
+        return inShop;
+    }
+
+    public boolean isHasAssignedUser() {
+        return hasAssignedUser;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+}
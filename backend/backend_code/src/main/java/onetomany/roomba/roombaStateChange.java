@@ -0,0 +1,44 @@
+package onetomany.roomba;
+
+/**
+ * Published by roombaFleet whenever a robot is added, changed or removed.
+ * previous is null for a new robot and current is null for a removed one.
+ */
+public final class roombaStateChange {
+
+    private final roombaState previous;
+    private final roombaState current;
+    private final int changedFields;
+
+
+    public roombaStateChange(roombaState previous, roombaState current, int changedFields) {
+        this.previous = previous;
+        this.current = current;
+        this.changedFields = changedFields;
+    }
+
+    public roombaState getPrevious() {
+        return previous;
+    }
+
+    public roombaState getCurrent() {
+        return current;
+    }
+
+    public int getChangedFields() {
+        return changedFields;
+    }
+
+    public boolean changed(int fields) {
+        return (changedFields & fields) != 0;
+    }
+
+    public boolean isRemoved() {
+        return current == null;
+    }
+
+    /** The state after the change, or the last known state of a removed robot. */
+    public roombaState getLatest() {
+        return current != null ? current : previous;
+    }
+}
@@ -0,0 +1,166 @@
+package onetomany.roomba;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Fleet wide counts of robots per state, kept up to date from
+ * roombaStateChange so reading them does not depend on the fleet size.
+ *
+ * Every change adds the flags of the new state and subtracts those of the
+ * old one; since each transition is published exactly once, the order in
+ * which threads apply them does not matter. A reconciliation job compares the
+ * counts with a GROUP BY over the roomba table and corrects a difference
+ * that is still the same on the next run, so changes in flight (telemetry
+ * not yet flushed, commits not yet published) are not mistaken for drift.
+ */
+@Service
+public class roombaStats {
+
+    static final String COUNT_SQL = "SELECT full, needs_charging, back_to_shop, in_shop, has_assigned_user, COUNT(*)"
+            + " FROM roomba GROUP BY full, needs_charging, back_to_shop, in_shop, has_assigned_user";
+
+    private static final String[] NAMES = { "total", "full", "needsCharging", "backToShop", "inShop", "assigned" };
+    private static final int TOTAL = 0, FULL = 1, NEEDS_CHARGING = 2, BACK_TO_SHOP = 3, IN_SHOP = 4, ASSIGNED = 5;
+
+    private static final int COUNTED_FIELDS = roombaState.FIELD_FULL | roombaState.FIELD_NEEDS_CHARGING
+            | roombaState.FIELD_BACK_TO_SHOP | roombaState.FIELD_IN_SHOP | roombaState.FIELD_ASSIGNMENT;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Value("${roomba.stats.reconcile-ms:60000}")
+    long reconcileMs;
+
+    private final LongAdder[] counts = new LongAdder[NAMES.length];
+    private ScheduledExecutorService reconciler;
+
+    // written by the reconciler thread only
+    private long[] lastDrift = new long[NAMES.length];
+    private volatile long reconciledAt;
+    private final LongAdder reconciliations = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder corrections = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(roombaStats.class);
+
+    public roombaStats() {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = new LongAdder();
+    }
+
+    @PostConstruct
+    void start() {
+        if (reconcileMs <= 0)
+            return;
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "roomba-stats-reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            }
+            catch (RuntimeException e) {
+                logger.error("Stats reconciliation failed", e);
+            }
+        }, reconcileMs, reconcileMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (reconciler != null)
+            reconciler.shutdownNow();
+    }
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        if (change.getPrevious() != null && change.getCurrent() != null && !change.changed(COUNTED_FIELDS))
+            return;
+        add(change.getPrevious(), -1);
+        add(change.getCurrent(), 1);
+    }
+
+    private void add(roombaState s, int sign) {
+        if (s == null)
+            return;
+        counts[TOTAL].add(sign);
+        if (s.isFull())
+            counts[FULL].add(sign);
+        if (s.isNeedsCharging())
+            counts[NEEDS_CHARGING].add(sign);
+        if (s.isBackToShop())
+            counts[BACK_TO_SHOP].add(sign);
+        if (s.isInShop())
+            counts[IN_SHOP].add(sign);
+        if (s.isHasAssignedUser())
+            counts[ASSIGNED].add(sign);
+    }
+
+    public Map<String, Long> getCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < NAMES.length; i++)
+            result.put(NAMES[i], counts[i].sum());
+        result.put("unassigned", result.get("total") - result.get("assigned"));
+        return result;
+    }
+
+    void reconcile() {
+        long[] table = new long[NAMES.length];
+        jdbcTemplate.query(COUNT_SQL, rs -> {
+            long n = rs.getLong(6);
+            table[TOTAL] += n;
+            for (int column = 1; column <= 5; column++) {
+                if (rs.getBoolean(column))
+                    table[column] += n;
+            }
+        });
+
+        long[] drift = new long[NAMES.length];
+        boolean mismatch = false;
+        for (int i = 0; i < NAMES.length; i++) {
+            drift[i] = table[i] - counts[i].sum();
+            mismatch |= drift[i] != 0;
+        }
+        reconciliations.increment();
+        reconciledAt = System.currentTimeMillis();
+        if (mismatch) {
+            mismatches.increment();
+            if (Arrays.equals(drift, lastDrift)) {
+                for (int i = 0; i < NAMES.length; i++)
+                    counts[i].add(drift[i]);
+                corrections.increment();
+                logger.warn("Fleet stats were off by {} {}, corrected from the roomba table",
+                        Arrays.toString(drift), Arrays.toString(NAMES));
+                drift = new long[NAMES.length];
+            }
+        }
+        lastDrift = drift;
+    }
+
+    public Map<String, Long> getReconciliation() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("reconciledAt", reconciledAt);
+        result.put("reconciliations", reconciliations.sum());
+        result.put("mismatches", mismatches.sum());
+        result.put("corrections", corrections.sum());
+        return result;
+    }
+}
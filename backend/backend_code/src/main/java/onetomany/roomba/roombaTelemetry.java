@@ -0,0 +1,94 @@
+package onetomany.roomba;
+
+/**
+ * One position/status report sent by a robot. Only the latest report per
+ * uniqueID is kept until the next flush (last write wins).
+ */
+public class roombaTelemetry {
+
+    private int uniqueID;
+
+    private int posX;
+
+    private int posY;
+
+    private boolean Full;
+
+    private boolean needsCharging;
+
+    private boolean backToShop;
+
+    private boolean InShop;
+
+
+    public roombaTelemetry() {
+
+    }
+
+    public roombaTelemetry(int uniqueID, int posX, int posY, boolean full, boolean needsCharging,
+                           boolean backToShop, boolean inShop) {
+        this.uniqueID = uniqueID;
+        this.posX = posX;
+        this.posY = posY;
+        this.Full = full;
+        this.needsCharging = needsCharging;
+        this.backToShop = backToShop;
+        this.InShop = inShop;
+    }
+
+    public int getUniqueID() {
+        return uniqueID;
+    }
+
+    public void setUniqueID(int uniqueID) {
+        this.uniqueID = uniqueID;
+    }
+
+    public int getPosX() {
+        return posX;
+    }
+
+    public void setPosX(int posX) {
+        this.posX = posX;
+    }
+
+    public int getPosY() {
+        return posY;
+    }
+
+    public void setPosY(int posY) {
+        this.posY = posY;
+    }
+
+    public boolean isFull() {
+        return Full;
+    }
+
+    public void setFull(boolean full) {
+        Full = full;
+    }
+
+    public boolean isNeedsCharging() {
+        return needsCharging;
+    }
+
+    public void setNeedsCharging(boolean needsCharging) {
+        this.needsCharging = needsCharging;
+    }
+
+    public boolean isBackToShop() {
+        return backToShop;
+    }
+
+    public void setBackToShop(boolean backToShop) {
+        this.backToShop = backToShop;
+    }
+
+    public boolean isInShop() {
+        return InShop;
+    }
+
+    public void setInShop(boolean inShop) {
+        InShop = inShop;
+    }
+}
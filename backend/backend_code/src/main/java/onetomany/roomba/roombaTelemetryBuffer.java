@@ -0,0 +1,258 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Write-behind buffer for robot telemetry.
+ *
+ * Reports are coalesced per uniqueID (last write wins) and written to the
+ * roomba table with JDBC batch updates, either every flush interval or as soon
+ * as flush-size robots are pending. The buffer holds at most capacity robots;
+ * a report for a robot that is not already pending waits up to offer-timeout
+ * for room and is rejected after that.
+ *
+ * A batch that fails is kept and tried again on the next flush, before any
+ * newer reports, up to max-attempts times; reports in it that a newer report
+ * for the same robot has superseded in the meantime are left out of the
+ * retry. Meanwhile nothing else is flushed, the buffer fills up and offer()
+ * starts to push back. After the last attempt the batch is counted as lost.
+ *
+ * The backToShop and inShop flags of a report are only written while
+ * dispatching is off; otherwise roombaDispatcher decides them.
+ *
+ * These writes bypass JPA, so each flushed report is also applied to
+ * roombaFleet to keep the in-memory views current.
+ */
+@Service
+public class roombaTelemetryBuffer {
+
+    static final String UPDATE_SQL = "UPDATE roomba SET posx = ?, posy = ?, full = ?, needs_charging = ?, "
+            + "back_to_shop = ?, in_shop = ? WHERE uniqueid = ?";
+
+    // while roombaDispatcher is on it owns back_to_shop and in_shop
+    static final String UPDATE_SQL_WITHOUT_SHOP_FLAGS = "UPDATE roomba SET posx = ?, posy = ?, full = ?, "
+            + "needs_charging = ? WHERE uniqueid = ?";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    roombaFleet fleet;
+
+    @Autowired
+    roombaDispatcher dispatcher;
+
+    @Value("${roomba.telemetry.flush-interval-ms:250}")
+    long flushIntervalMs;
+
+    @Value("${roomba.telemetry.flush-size:1000}")
+    int flushSize;
+
+    @Value("${roomba.telemetry.capacity:50000}")
+    int capacity;
+
+    @Value("${roomba.telemetry.offer-timeout-ms:50}")
+    long offerTimeoutMs;
+
+    @Value("${roomba.telemetry.max-attempts:5}")
+    int maxAttempts;
+
+    private final Map<Integer, roombaTelemetry> pending = new ConcurrentHashMap<>();
+    private Semaphore slots;
+    private ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    // only touched on the flusher thread (and in stop() after it has ended)
+    private List<roombaTelemetry> failedBatch;
+    private int failedAttempts;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    private final Logger logger = LoggerFactory.getLogger(roombaTelemetryBuffer.class);
+
+    @PostConstruct
+    void start() {
+        slots = new Semaphore(capacity);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "roomba-telemetry-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        // write whatever arrived after the last scheduled flush
+        flush();
+        if (failedBatch != null || !pending.isEmpty())
+            logger.error("Shutting down with {} telemetry updates not written",
+                    pending.size() + (failedBatch == null ? 0 : failedBatch.size()));
+    }
+
+    /**
+     * Queues one report. Returns false if the buffer stayed full for the
+     * whole offer timeout, in which case the caller should retry later.
+     */
+    public boolean offer(roombaTelemetry update) throws InterruptedException {
+        Integer key = update.getUniqueID();
+        while (true) {
+            if (pending.computeIfPresent(key, (k, old) -> update) != null) {
+                coalesced.increment();
+                accepted.increment();
+                return true;
+            }
+            if (!slots.tryAcquire(offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                return false;
+            }
+            if (pending.putIfAbsent(key, update) == null) {
+                accepted.increment();
+                if (pending.size() >= flushSize && flushRequested.compareAndSet(false, true)) {
+                    flusher.execute(this::flush);
+                }
+                return true;
+            }
+            // another report for the same robot got in first, coalesce with it
+            slots.release();
+        }
+    }
+
+    /**
+     * Writes every pending report. Runs on the flusher thread, and once more
+     * on shutdown after that thread has stopped.
+     */
+    void flush() {
+        flushRequested.set(false);
+        if (failedBatch != null && !retryFailed())
+            return;
+        if (pending.isEmpty())
+            return;
+
+        List<roombaTelemetry> batch = new ArrayList<>(Math.min(pending.size(), flushSize));
+        Iterator<Integer> keys = pending.keySet().iterator();
+        while (keys.hasNext()) {
+            roombaTelemetry update = pending.remove(keys.next());
+            if (update == null)
+                continue;
+            slots.release();
+            batch.add(update);
+            if (batch.size() == flushSize) {
+                if (!write(batch))
+                    return;
+                batch = new ArrayList<>(flushSize);
+            }
+        }
+        if (!batch.isEmpty())
+            write(batch);
+    }
+
+    // returns false if the failed batch failed again and is still kept
+    private boolean retryFailed() {
+        int before = failedBatch.size();
+        failedBatch.removeIf(t -> pending.containsKey(t.getUniqueID()));
+        coalesced.add(before - failedBatch.size());
+        if (failedBatch.isEmpty()) {
+            failedBatch = null;
+            failedAttempts = 0;
+            return true;
+        }
+        return write(failedBatch);
+    }
+
+    // returns false if the batch failed and is kept for the next flush
+    private boolean write(List<roombaTelemetry> batch) {
+        boolean shopFlags = !dispatcher.isEnabled();
+        try {
+            int[][] counts = jdbcTemplate.batchUpdate(shopFlags ? UPDATE_SQL : UPDATE_SQL_WITHOUT_SHOP_FLAGS,
+                    batch, batch.size(), (ps, t) -> {
+                ps.setInt(1, t.getPosX());
+                ps.setInt(2, t.getPosY());
+                ps.setBoolean(3, t.isFull());
+                ps.setBoolean(4, t.isNeedsCharging());
+                if (shopFlags) {
+                    ps.setBoolean(5, t.isBackToShop());
+                    ps.setBoolean(6, t.isInShop());
+                    ps.setInt(7, t.getUniqueID());
+                }
+                else {
+                    ps.setInt(5, t.getUniqueID());
+                }
+            });
+            for (int[] chunk : counts) {
+                for (int count : chunk) {
+                    if (count == 0)
+                        unmatched.increment();
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            failedFlushes.increment();
+            if (++failedAttempts < maxAttempts) {
+                logger.warn("Failed to flush {} telemetry updates, attempt {} of {}", batch.size(), failedAttempts, maxAttempts, e);
+                failedBatch = batch;
+                return false;
+            }
+            logger.error("Dropping {} telemetry updates after {} failed attempts", batch.size(), failedAttempts, e);
+            lost.add(batch.size());
+            failedBatch = null;
+            failedAttempts = 0;
+            return true;
+        }
+        failedBatch = null;
+        failedAttempts = 0;
+        flushed.add(batch.size());
+        flushes.increment();
+        for (roombaTelemetry t : batch)
+            fleet.applyTelemetry(t, shopFlags);
+        return true;
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("accepted", accepted.sum());
+        counters.put("coalesced", coalesced.sum());
+        counters.put("rejected", rejected.sum());
+        counters.put("flushed", flushed.sum());
+        counters.put("unmatched", unmatched.sum());
+        counters.put("flushes", flushes.sum());
+        counters.put("failedFlushes", failedFlushes.sum());
+        counters.put("lost", lost.sum());
+        counters.put("pending", (long) pending.size());
+        counters.put("capacity", (long) capacity);
+        return counters;
+    }
+}
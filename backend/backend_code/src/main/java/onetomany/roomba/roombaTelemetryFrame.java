@@ -0,0 +1,77 @@
+package onetomany.roomba;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of the telemetry frames robots send over /telemetry.
+ *
+ * A frame is one version byte followed by any number of 17 byte records,
+ * all big-endian:
+ *
+ *     int  uniqueID
+ *     int  seq        grows by one per report of a robot, may wrap
+ *     int  posX
+ *     int  posY
+ *     byte flags      bit 0 Full, 1 needsCharging, 2 backToShop, 3 InShop
+ *
+ * The flags use the same bits as roombaState.flags(). Readers take the
+ * fields straight out of the buffer by index, so decoding allocates nothing.
+ */
+public final class roombaTelemetryFrame {
+
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 1;
+    public static final int RECORD_SIZE = 17;
+
+    public static final int FLAG_FULL = 1;
+    public static final int FLAG_NEEDS_CHARGING = 1 << 1;
+    public static final int FLAG_BACK_TO_SHOP = 1 << 2;
+    public static final int FLAG_IN_SHOP = 1 << 3;
+
+    private roombaTelemetryFrame() {
+    }
+
+    /**
+     * Number of records in the frame starting at frame.position(), or -1 if
+     * the version or the length is wrong.
+     */
+    public static int records(ByteBuffer frame) {
+        int length = frame.remaining() - HEADER_SIZE;
+        if (length < 0 || frame.get(frame.position()) != VERSION || length % RECORD_SIZE != 0)
+            return -1;
+        return length / RECORD_SIZE;
+    }
+
+    private static int offset(ByteBuffer frame, int record) {
+        return frame.position() + HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    public static int uniqueID(ByteBuffer frame, int record) {
+        return frame.getInt(offset(frame, record));
+    }
+
+    public static int seq(ByteBuffer frame, int record) {
+        return frame.getInt(offset(frame, record) + 4);
+    }
+
+    public static int posX(ByteBuffer frame, int record) {
+        return frame.getInt(offset(frame, record) + 8);
+    }
+
+    public static int posY(ByteBuffer frame, int record) {
+        return frame.getInt(offset(frame, record) + 12);
+    }
+
+    public static int flags(ByteBuffer frame, int record) {
+        return frame.get(offset(frame, record) + 16);
+    }
+
+    /** Writes the version byte; call once before the first record. */
+    public static void startFrame(ByteBuffer out) {
+        out.put(VERSION);
+    }
+
+    public static void putRecord(ByteBuffer out, int uniqueID, int seq, int posX, int posY, int flags) {
+        out.putInt(uniqueID).putInt(seq).putInt(posX).putInt(posY).put((byte) flags);
+    }
+}
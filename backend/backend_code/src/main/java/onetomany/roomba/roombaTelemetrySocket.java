@@ -0,0 +1,177 @@
+package onetomany.roomba;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+/**
+ * Telemetry over one long lived WebSocket per robot (or per gateway in front
+ * of many robots), in the binary layout of roombaTelemetryFrame.
+ *
+ * Each connection remembers the last seq it saw per uniqueID and drops
+ * reports that are not newer, so a robot may resend a frame after a timeout
+ * without moving backwards. Accepted reports go through roombaTelemetryBuffer
+ * like the REST ones. Once the buffer rejects a report the rest of the frame
+ * is not offered (each offer would wait out the timeout again) and counts
+ * as rejected too. Nothing is sent back unless reports were rejected; the
+ * reply is then the version byte followed by the accepted and
+ * rejected counts as two ints, and the robot should resend those reports
+ * with the same seq.
+ */
+@Component
+public class roombaTelemetrySocket extends BinaryWebSocketHandler {
+
+    private static final String SEQ_TABLE = "roomba.telemetry.seq";
+
+    @Autowired
+    roombaTelemetryBuffer telemetryBuffer;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.getAttributes().put(SEQ_TABLE, new SeqTable());
+        connections.increment();
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        connections.decrement();
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        ByteBuffer frame = message.getPayload();
+        frames.increment();
+        bytes.add(frame.remaining());
+        int count = roombaTelemetryFrame.records(frame);
+        if (count < 0) {
+            malformed.increment();
+            session.close(CloseStatus.BAD_DATA.withReason("expected version " + roombaTelemetryFrame.VERSION
+                    + " and a multiple of " + roombaTelemetryFrame.RECORD_SIZE + " bytes"));
+            return;
+        }
+        records.add(count);
+
+        SeqTable seen = (SeqTable) session.getAttributes().get(SEQ_TABLE);
+        int accepted = 0, refused = 0;
+        for (int i = 0; i < count; i++) {
+            int uniqueID = roombaTelemetryFrame.uniqueID(frame, i);
+            int seq = roombaTelemetryFrame.seq(frame, i);
+            if (!seen.isNewer(uniqueID, seq)) {
+                duplicates.increment();
+                continue;
+            }
+            if (refused > 0) {
+                // the buffer is full, do not wait for it once per remaining report
+                refused++;
+                continue;
+            }
+            int flags = roombaTelemetryFrame.flags(frame, i);
+            roombaTelemetry update = new roombaTelemetry(uniqueID,
+                    roombaTelemetryFrame.posX(frame, i), roombaTelemetryFrame.posY(frame, i),
+                    (flags & roombaTelemetryFrame.FLAG_FULL) != 0,
+                    (flags & roombaTelemetryFrame.FLAG_NEEDS_CHARGING) != 0,
+                    (flags & roombaTelemetryFrame.FLAG_BACK_TO_SHOP) != 0,
+                    (flags & roombaTelemetryFrame.FLAG_IN_SHOP) != 0);
+            if (telemetryBuffer.offer(update)) {
+                // only remember the seq once the report is in, so a resend of a rejected one is not a duplicate
+                seen.put(uniqueID, seq);
+                accepted++;
+            }
+            else {
+                refused++;
+            }
+        }
+        if (refused > 0) {
+            rejected.add(refused);
+            ByteBuffer reply = ByteBuffer.allocate(9);
+            reply.put(roombaTelemetryFrame.VERSION).putInt(accepted).putInt(refused).flip();
+            session.sendMessage(new BinaryMessage(reply));
+        }
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("connections", connections.sum());
+        counters.put("frames", frames.sum());
+        counters.put("records", records.sum());
+        counters.put("bytes", bytes.sum());
+        counters.put("duplicates", duplicates.sum());
+        counters.put("rejected", rejected.sum());
+        counters.put("malformed", malformed.sum());
+        return counters;
+    }
+
+    /**
+     * Last seq per uniqueID of one connection, open addressing over int
+     * arrays so lookups do not box. Only used by the thread handling the
+     * connection's messages.
+     */
+    static final class SeqTable {
+
+        private int[] keys = new int[8];
+        private int[] values = new int[8];
+        private boolean[] used = new boolean[8];
+        private int size;
+
+        /** seq is newer than the last one stored, allowing for wrap around. */
+        boolean isNewer(int uniqueID, int seq) {
+            int slot = find(uniqueID);
+            return !used[slot] || seq - values[slot] > 0;
+        }
+
+        void put(int uniqueID, int seq) {
+            int slot = find(uniqueID);
+            if (!used[slot]) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    slot = find(uniqueID);
+                }
+                used[slot] = true;
+                keys[slot] = uniqueID;
+                size++;
+            }
+            values[slot] = seq;
+        }
+
+        private int find(int uniqueID) {
+            int mask = keys.length - 1;
+            int hash = uniqueID * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (used[slot] && keys[slot] != uniqueID)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = find(oldKeys[i]);
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package onetomany.roomba;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Position history of every robot, kept on disk in append-only segment files
+ * instead of the database.
+ *
+ * Robots are spread over a fixed number of shards by uniqueID. Each shard of
+ * each resolution has one writable segment, a memory-mapped file of fixed-size
+ * records in time order that is rolled when its time window ends or it is
+ * full. Besides the raw points, the first point of every second, minute and
+ * hour of each robot is written to its own level, so long ranges can be
+ * replayed from a much smaller file set. Every level has its own retention.
+ *
+ * A shard holds many robots, so each segment also keeps the record numbers
+ * of every robot in it: in memory while the segment is written, and in an
+ * index file next to it (same name, .idx) once it is rolled. Segments from
+ * before the index files, or whose index was not written, get one the first
+ * time they are read. A replay reads only the records of its own robot,
+ * straight from the mapped files, and hands them to the caller one at a
+ * time.
+ */
+@Service
+public class roombaTrackStore {
+
+    /** Resolutions a track can be replayed at. */
+    public enum Resolution {
+        RAW("raw", 0),
+        SECOND("1s", 1000L),
+        MINUTE("1m", 60_000L),
+        HOUR("1h", 3_600_000L);
+
+        final String label;
+        final long bucketMs;
+
+        Resolution(String label, long bucketMs) {
+            this.label = label;
+            this.bucketMs = bucketMs;
+        }
+
+        public static Resolution parse(String label) {
+            for (Resolution r : values()) {
+                if (r.label.equalsIgnoreCase(label))
+                    return r;
+            }
+            throw new IllegalArgumentException("Unknown resolution " + label);
+        }
+    }
+
+    /** Receives replayed points. */
+    public interface PointConsumer {
+        void accept(long time, int posX, int posY, byte flags) throws IOException;
+    }
+
+    // record: time (8) uniqueID (4) posX (4) posY (4) flags (1) padding (3)
+    static final int RECORD_SIZE = 24;
+    // header: magic (4) record size (4) record count (4) reserved (4)
+    static final int HEADER_SIZE = 16;
+    static final int MAGIC = 0x524d4254;
+
+    @Value("${roomba.track.dir:data/track}")
+    String directory;
+
+    @Value("${roomba.track.shards:16}")
+    int shardCount;
+
+    @Value("${roomba.track.segment-records:1048576}")
+    int segmentRecords;
+
+    @Value("${roomba.track.segment-ms:3600000}")
+    long segmentMs;
+
+    @Value("${roomba.track.raw-retention-hours:72}")
+    long rawRetentionHours;
+
+    @Value("${roomba.track.second-retention-hours:720}")
+    long secondRetentionHours;
+
+    @Value("${roomba.track.minute-retention-hours:8760}")
+    long minuteRetentionHours;
+
+    /** 0 keeps hourly points for good. */
+    @Value("${roomba.track.hour-retention-hours:0}")
+    long hourRetentionHours;
+
+    private final Resolution[] levels = Resolution.values();
+    // [level][shard]
+    private Shard[][] shards;
+    // per robot, the bucket of the last point written to each downsampled level
+    private final Map<Integer, long[]> lastBuckets = new ConcurrentHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(roombaTrackStore.class);
+
+    @PostConstruct
+    void open() throws IOException {
+        shards = new Shard[levels.length][shardCount];
+        for (Resolution level : levels) {
+            for (int s = 0; s < shardCount; s++) {
+                Path dir = Paths.get(directory, level.label, Integer.toString(s));
+                Files.createDirectories(dir);
+                boolean raw = level == Resolution.RAW;
+                shards[level.ordinal()][s] = new Shard(dir, raw ? segmentRecords : Math.max(1024, segmentRecords / 16),
+                        retentionMs(level));
+            }
+        }
+    }
+
+    private long retentionMs(Resolution level) {
+        long hours;
+        switch (level) {
+            case RAW: hours = rawRetentionHours; break;
+            case SECOND: hours = secondRetentionHours; break;
+            case MINUTE: hours = minuteRetentionHours; break;
+            default: hours = hourRetentionHours;
+        }
+        return hours <= 0 ? Long.MAX_VALUE : hours * 3_600_000L;
+    }
+
+    @PreDestroy
+    void close() {
+        for (Shard[] level : shards) {
+            for (Shard shard : level)
+                shard.close();
+        }
+    }
+
+    @EventListener
+    public void onStateChange(roombaStateChange change) {
+        if (change.isRemoved()) {
+            lastBuckets.remove(change.getPrevious().getUniqueID());
+            return;
+        }
+        if (!change.changed(roombaState.FIELD_POSITION | roombaState.FIELD_FULL
+                | roombaState.FIELD_NEEDS_CHARGING | roombaState.FIELD_BACK_TO_SHOP | roombaState.FIELD_IN_SHOP))
+            return;
+        roombaState s = change.getCurrent();
+        append(System.currentTimeMillis(), s.getUniqueID(), s.getPosX(), s.getPosY(), s.flags());
+    }
+
+    public void append(long time, int uniqueID, int posX, int posY, byte flags) {
+        int shard = Math.floorMod(uniqueID, shardCount);
+        shards[Resolution.RAW.ordinal()][shard].append(time, uniqueID, posX, posY, flags);
+
+        // the first point of each new bucket goes to that level, which keeps
+        // every level in append order
+        long[] buckets = lastBuckets.computeIfAbsent(uniqueID, id -> newBuckets());
+        for (int l = 1; l < levels.length; l++) {
+            long bucket = time / levels[l].bucketMs;
+            boolean opened;
+            synchronized (buckets) {
+                opened = buckets[l - 1] != bucket;
+                buckets[l - 1] = bucket;
+            }
+            if (!opened)
+                break;
+            shards[l][shard].append(time, uniqueID, posX, posY, flags);
+        }
+    }
+
+    /**
+     * Streams the points of one robot between from and to (inclusive, epoch
+     * millis) in time order.
+     */
+    public void replay(int uniqueID, long from, long to, Resolution resolution, PointConsumer consumer)
+            throws IOException {
+        int shard = Math.floorMod(uniqueID, shardCount);
+        shards[resolution.ordinal()][shard].replay(uniqueID, from, to, consumer);
+    }
+
+    private long[] newBuckets() {
+        long[] buckets = new long[levels.length - 1];
+        Arrays.fill(buckets, Long.MIN_VALUE);
+        return buckets;
+    }
+
+    /** The segments of one resolution and shard. */
+    private final class Shard {
+
+        private final Path dir;
+        private final int capacity;
+        private final long retentionMs;
+        private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+        private Segment current;
+
+        Shard(Path dir, int capacity, long retentionMs) throws IOException {
+            this.dir = dir;
+            this.capacity = capacity;
+            this.retentionMs = retentionMs;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.seg")) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    long start = Long.parseLong(name.substring(0, name.length() - 4));
+                    segments.put(start, new Segment(file, start));
+                }
+            }
+        }
+
+        synchronized void append(long time, int uniqueID, int posX, int posY, byte flags) {
+            if (current != null)
+                time = Math.max(time, current.lastTime);
+            if (current == null || current.isFull() || time >= current.start + segmentMs)
+                roll(time);
+            current.append(time, uniqueID, posX, posY, flags);
+        }
+
+        private void roll(long time) {
+            if (current != null) {
+                current.force();
+                current.writeIndex();
+            }
+            long start = time;
+            while (segments.containsKey(start))
+                start++;
+            try {
+                current = Segment.create(dir.resolve(start + ".seg"), start, capacity);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segments.put(start, current);
+            if (retentionMs != Long.MAX_VALUE)
+                dropOlderThan(time - retentionMs);
+        }
+
+        private void dropOlderThan(long cutoff) {
+            // a segment can go once the one after it starts before the cutoff
+            List<Long> expired = new ArrayList<>();
+            for (Map.Entry<Long, Segment> e : segments.entrySet()) {
+                Long next = segments.higherKey(e.getKey());
+                if (next == null || next >= cutoff)
+                    break;
+                expired.add(e.getKey());
+            }
+            for (Long start : expired) {
+                Segment segment = segments.remove(start);
+                try {
+                    Files.deleteIfExists(segment.path);
+                    Files.deleteIfExists(segment.indexPath);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not delete track segment {}", segment.path, e);
+                }
+            }
+        }
+
+        void replay(int uniqueID, long from, long to, PointConsumer consumer) throws IOException {
+            Long first = segments.floorKey(from);
+            NavigableMap<Long, Segment> range = segments.subMap(first == null ? Long.MIN_VALUE : first, true, to, true);
+            for (Segment segment : range.values()) {
+                int[] records = segment.recordsOf(uniqueID);
+                if (records.length == 0)
+                    continue;
+                ByteBuffer buf = segment.view();
+                for (int i = Segment.firstAtOrAfter(buf, records, from); i < records.length; i++) {
+                    int at = HEADER_SIZE + records[i] * RECORD_SIZE;
+                    long time = buf.getLong(at);
+                    if (time > to)
+                        return;
+                    consumer.accept(time, buf.getInt(at + 12), buf.getInt(at + 16), buf.get(at + 20));
+                }
+            }
+        }
+
+        // the current segment is not rolled on shutdown, write its index anyway
+        synchronized void close() {
+            if (current != null) {
+                current.force();
+                current.writeIndex();
+            }
+        }
+    }
+
+    /** One segment file. Only the newest segment of a shard is written to. */
+    private static final class Segment {
+
+        private static final Logger logger = LoggerFactory.getLogger(roombaTrackStore.class);
+
+        // index file: magic (4) robot count (4), then per robot in uniqueID
+        // order uniqueID (4) first entry (4) entries (4), then the entries:
+        // record numbers (4 each), grouped by robot and in time order
+        static final int INDEX_MAGIC = 0x524d4249;
+        static final int INDEX_HEADER_SIZE = 8;
+        static final int INDEX_ROBOT_SIZE = 12;
+
+        final Path path;
+        final Path indexPath;
+        final long start;
+        private volatile MappedByteBuffer buffer;
+        private volatile int count = -1;
+        private final boolean writable;
+        long lastTime;
+        // record numbers per robot, while there is no index file to read them from
+        private volatile Map<Integer, IntList> records;
+        private volatile ByteBuffer index;
+
+        // an existing, closed segment; mapped on first read
+        Segment(Path path, long start) {
+            this.path = path;
+            this.indexPath = path.resolveSibling(start + ".idx");
+            this.start = start;
+            this.writable = false;
+        }
+
+        private Segment(Path path, long start, MappedByteBuffer buffer) {
+            this.path = path;
+            this.indexPath = path.resolveSibling(start + ".idx");
+            this.start = start;
+            this.buffer = buffer;
+            this.count = 0;
+            this.writable = true;
+            this.records = new ConcurrentHashMap<>();
+        }
+
+        static Segment create(Path path, long start, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) capacity * RECORD_SIZE);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, RECORD_SIZE);
+                buffer.putInt(8, 0);
+                return new Segment(path, start, buffer);
+            }
+        }
+
+        boolean isFull() {
+            return HEADER_SIZE + (long) (count + 1) * RECORD_SIZE > buffer.capacity();
+        }
+
+        // called with the shard lock held
+        void append(long time, int uniqueID, int posX, int posY, byte flags) {
+            int at = HEADER_SIZE + count * RECORD_SIZE;
+            buffer.putInt(at + 8, uniqueID);
+            buffer.putInt(at + 12, posX);
+            buffer.putInt(at + 16, posY);
+            buffer.put(at + 20, flags);
+            buffer.putLong(at, time);
+            buffer.putInt(8, count + 1);
+            // published after the record, so a reader that sees the number sees the record
+            records.computeIfAbsent(uniqueID, id -> new IntList()).add(count);
+            lastTime = time;
+            count++;
+        }
+
+        int count() {
+            if (count < 0)
+                view();
+            return count;
+        }
+
+        ByteBuffer view() {
+            MappedByteBuffer b = buffer;
+            if (b == null) {
+                synchronized (this) {
+                    if (buffer == null) {
+                        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        }
+                        catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        count = buffer.getInt(8);
+                    }
+                    b = buffer;
+                }
+            }
+            return b.duplicate();
+        }
+
+        /** Binary search for the first of the given records at or after time. */
+        static int firstAtOrAfter(ByteBuffer buf, int[] records, long time) {
+            int lo = 0, hi = records.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (buf.getLong(HEADER_SIZE + records[mid] * RECORD_SIZE) < time)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        /** Record numbers of one robot in this segment, in time order. */
+        int[] recordsOf(int uniqueID) {
+            Map<Integer, IntList> live = records;
+            if (live != null) {
+                IntList list = live.get(uniqueID);
+                return list == null ? IntList.EMPTY : list.toArray();
+            }
+            ByteBuffer idx = index;
+            if (idx == null) {
+                loadIndex();
+                return recordsOf(uniqueID);
+            }
+            idx = idx.duplicate();
+            int lo = 0, hi = idx.getInt(4) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int at = INDEX_HEADER_SIZE + mid * INDEX_ROBOT_SIZE;
+                int id = idx.getInt(at);
+                if (id < uniqueID)
+                    lo = mid + 1;
+                else if (id > uniqueID)
+                    hi = mid - 1;
+                else {
+                    int first = idx.getInt(at + 4);
+                    int[] out = new int[idx.getInt(at + 8)];
+                    idx.position(first * 4).asIntBuffer().get(out);
+                    return out;
+                }
+            }
+            return IntList.EMPTY;
+        }
+
+        // maps the index file, or builds it from the records if there is none
+        private synchronized void loadIndex() {
+            if (records != null || index != null)
+                return;
+            if (Files.exists(indexPath)) {
+                try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                    MappedByteBuffer idx = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (idx.getInt(0) == INDEX_MAGIC) {
+                        index = idx;
+                        return;
+                    }
+                    logger.warn("Ignoring track index {} with a bad header", indexPath);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not read track index {}, rebuilding it", indexPath, e);
+                }
+            }
+            ByteBuffer buf = view();
+            int n = count();
+            Map<Integer, IntList> built = new HashMap<>();
+            for (int i = 0; i < n; i++)
+                built.computeIfAbsent(buf.getInt(HEADER_SIZE + i * RECORD_SIZE + 8), id -> new IntList()).add(i);
+            records = built;
+            writeIndex();
+        }
+
+        /**
+         * Writes the record numbers per robot to the index file and reads
+         * them from there from now on. Called when the segment is rolled;
+         * if the file cannot be written they stay in memory.
+         */
+        synchronized void writeIndex() {
+            Map<Integer, IntList> live = records;
+            if (live == null)
+                return;
+            int[] ids = new int[live.size()];
+            int robots = 0, entries = 0;
+            for (Map.Entry<Integer, IntList> e : live.entrySet()) {
+                ids[robots++] = e.getKey();
+                entries += e.getValue().size();
+            }
+            Arrays.sort(ids);
+            int entriesAt = INDEX_HEADER_SIZE + robots * INDEX_ROBOT_SIZE;
+            ByteBuffer out = ByteBuffer.allocate(entriesAt + entries * 4);
+            out.putInt(INDEX_MAGIC).putInt(robots);
+            int first = entriesAt / 4;
+            for (int id : ids) {
+                int[] numbers = live.get(id).toArray();
+                out.putInt(id).putInt(first).putInt(numbers.length);
+                for (int j = 0; j < numbers.length; j++)
+                    out.putInt((first + j) * 4, numbers[j]);
+                first += numbers.length;
+            }
+            out.position(0);
+
+            Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    while (out.hasRemaining())
+                        channel.write(out);
+                    channel.force(false);
+                }
+                Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                    index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                records = null;
+            }
+            catch (IOException e) {
+                logger.warn("Could not write track index {}, keeping it in memory", indexPath, e);
+            }
+        }
+
+        void force() {
+            if (writable)
+                buffer.force();
+        }
+    }
+
+    /** Growable int array with one writer and any number of readers. */
+    static final class IntList {
+
+        static final int[] EMPTY = new int[0];
+
+        private volatile int[] items = new int[8];
+        private volatile int size;
+
+        // the value is in place before size moves past it
+        void add(int value) {
+            int[] a = items;
+            if (size == a.length) {
+                a = Arrays.copyOf(a, size * 2);
+                items = a;
+            }
+            a[size] = value;
+            size = size + 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            int n = size;
+            return Arrays.copyOf(items, n);
+        }
+    }
+}
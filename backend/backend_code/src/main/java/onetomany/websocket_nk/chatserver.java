@@ -7,14 +7,38 @@ import jakarta.websocket.Session;
 import jakarta.websocket.server.PathParam;
 import jakarta.websocket.server.ServerEndpoint;
 
+import onetomany.ChatBroker;
+import onetomany.WebSocketOutbound;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Map;
+@Component
 public class chatserver {
+
+    // set once by Spring on the bean, used by the instances the container creates per connection
+    private static WebSocketOutbound outbound;
+
+    @Autowired
+    public void setOutbound(WebSocketOutbound webSocketOutbound) {
+        outbound = webSocketOutbound;
+    }
+
+    // messages and DMs go through the broker, keyed by recipient or ChatBroker.ALL; usernames
+    // are only unique per instance
+    static final String CHANNEL = "chatserver";
+    private static ChatBroker broker;
+
+    @Autowired
+    public void setBroker(ChatBroker chatBroker) {
+        broker = chatBroker;
+        broker.subscribe(CHANNEL, chatserver::deliver);
+    }
+
     private static Map<Session, String> sessionUsernameMap = new Hashtable<>();
     private static Map<String, Session> usernameSessionMap = new Hashtable<>();
     private final Logger logger = LoggerFactory.getLogger(chatserver.class);
@@ -65,6 +89,7 @@ public class chatserver {
         logger.info("[onClose] " + username);
         sessionUsernameMap.remove(session);
         usernameSessionMap.remove(username);
+        outbound.remove(session);
         broadcast("User " + username + " has disconnected");
         broadcastActiveUsers();
     }
@@ -75,24 +100,22 @@ public class chatserver {
     }
 
     private void sendMessageToParticularUser(String username, String message) {
-        try {
-            Session session = usernameSessionMap.get(username);
-            if (session != null) {
-                session.getBasicRemote().sendText(message);
-            }
-        } catch (IOException e) {
-            logger.error("Failed to send message to user " + username, e);
-        }
+        broker.publish(CHANNEL, username, message);
     }
 
     private void broadcast(String message) {
-        sessionUsernameMap.keySet().forEach(session -> {
-            try {
-                session.getBasicRemote().sendText(message);
-            } catch (IOException e) {
-                logger.error("Failed to broadcast message", e);
-            }
-        });
+        broker.publish(CHANNEL, ChatBroker.ALL, message);
+    }
+
+    private static void deliver(String key, String message) {
+        if (ChatBroker.ALL.equals(key)) {
+            sessionUsernameMap.keySet().forEach(session -> outbound.send(session, message));
+            return;
+        }
+        Session session = usernameSessionMap.get(key);
+        if (session != null) {
+            outbound.send(session, message);
+        }
     }
 
     private void broadcastActiveUsers() {
@@ -0,0 +1,145 @@
+package onetomany;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Several brokers on one machine, each on a port of its own choosing. */
+class TcpChatBrokerTest {
+
+    private final List<TcpChatBroker> brokers = new ArrayList<>();
+
+    @AfterEach
+    void stop() throws IOException {
+        for (TcpChatBroker broker : brokers)
+            broker.stop();
+    }
+
+    private TcpChatBroker broker(int queueSize) throws IOException {
+        TcpChatBroker broker = new TcpChatBroker();
+        broker.port = 0;
+        broker.queueSize = queueSize;
+        broker.reconnectMs = 100;
+        broker.start();
+        brokers.add(broker);
+        return broker;
+    }
+
+    private static BlockingQueue<String> subscribe(TcpChatBroker broker, String channel) {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        broker.subscribe(channel, (key, message) -> received.add(key + " " + message));
+        return received;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    @Test
+    void messagesReachTheSubscribersOfBothInstances() throws Exception {
+        TcpChatBroker a = broker(100), b = broker(100);
+        a.connect("127.0.0.1:" + b.getPort());
+        b.connect("127.0.0.1:" + a.getPort());
+        await(() -> a.getCounters().get("peersConnected") == 1 && b.getCounters().get("peersConnected") == 1);
+        BlockingQueue<String> atA = subscribe(a, "chat"), atB = subscribe(b, "chat");
+        BlockingQueue<String> dmAtB = subscribe(b, "dm");
+
+        a.publish("chat", "group-1", "hello");
+        b.publish("dm", "alice", "hi");
+
+        assertThat(atA.poll(5, TimeUnit.SECONDS)).isEqualTo("group-1 hello");
+        assertThat(atB.poll(5, TimeUnit.SECONDS)).isEqualTo("group-1 hello");
+        assertThat(dmAtB.poll(5, TimeUnit.SECONDS)).isEqualTo("alice hi");
+        // a frame from a peer is not sent on, and nothing comes twice
+        assertThat(atA.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(atB.poll(1, TimeUnit.MILLISECONDS)).isNull();
+
+        await(() -> a.getCounters().get("framesSent") == 1 && b.getCounters().get("framesSent") == 1);
+        assertThat(a.getCounters()).containsEntry("framesReceived", 1L).containsEntry("framesDropped", 0L);
+        assertThat(b.getCounters()).containsEntry("framesReceived", 1L).containsEntry("framesDropped", 0L);
+    }
+
+    @Test
+    void framesKeepLargeAndNonAsciiMessagesWhole() throws Exception {
+        TcpChatBroker a = broker(100), b = broker(100);
+        a.connect("127.0.0.1:" + b.getPort());
+        BlockingQueue<String> atB = subscribe(b, "chat");
+
+        String large = "ä€😀\"\n".repeat(50_000);
+        for (int i = 0; i < 100; i++)
+            a.publish("chat", "group-" + i, i == 50 ? large : "message " + i);
+
+        for (int i = 0; i < 100; i++)
+            assertThat(atB.poll(5, TimeUnit.SECONDS)).isEqualTo("group-" + i + " " + (i == 50 ? large : "message " + i));
+        await(() -> b.getCounters().get("latencySamples") == 100);
+    }
+
+    @Test
+    void aBadFrameDropsOnlyItsConnection() throws Exception {
+        TcpChatBroker a = broker(100), b = broker(100);
+        try (Socket socket = new Socket("127.0.0.1", b.getPort())) {
+            new DataOutputStream(socket.getOutputStream()).writeInt(-5);
+            await(() -> b.getCounters().get("badFrames") == 1);
+        }
+
+        a.connect("127.0.0.1:" + b.getPort());
+        BlockingQueue<String> atB = subscribe(b, "chat");
+        a.publish("chat", "group-1", "still here");
+        assertThat(atB.poll(5, TimeUnit.SECONDS)).isEqualTo("group-1 still here");
+    }
+
+    @Test
+    void framesForAPeerThatIsDownAreQueuedThenDropped() throws Exception {
+        int closedPort;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            closedPort = unused.getLocalPort();
+        }
+        TcpChatBroker a = broker(3);
+        a.connect("127.0.0.1:" + closedPort);
+        BlockingQueue<String> atA = subscribe(a, "chat");
+
+        for (int i = 0; i < 10; i++)
+            a.publish("chat", "group-1", "message " + i);
+
+        // local subscribers do not wait for the peer
+        assertThat(atA).hasSize(10);
+        assertThat(a.getCounters()).containsEntry("framesQueued", 3L).containsEntry("framesDropped", 7L)
+                .containsEntry("framesSent", 0L).containsEntry("peersConnected", 0L);
+    }
+
+    @Test
+    void queuedFramesGoOutOnceThePeerIsUp() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        TcpChatBroker a = broker(100);
+        a.connect("127.0.0.1:" + port);
+        a.publish("chat", "group-1", "early");
+
+        TcpChatBroker b = new TcpChatBroker();
+        b.port = port;
+        BlockingQueue<String> atB = subscribe(b, "chat");
+        b.start();
+        brokers.add(b);
+
+        assertThat(atB.poll(10, TimeUnit.SECONDS)).isEqualTo("group-1 early");
+        await(() -> a.getCounters().get("framesSent") == 1);
+        assertThat(a.getCounters()).containsEntry("framesDropped", 0L);
+    }
+}
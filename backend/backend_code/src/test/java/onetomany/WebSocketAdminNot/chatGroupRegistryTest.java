@@ -0,0 +1,58 @@
+package onetomany.WebSocketAdminNot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import jakarta.websocket.Session;
+
+import org.junit.jupiter.api.Test;
+
+class chatGroupRegistryTest {
+
+    private final chatGroupRegistry registry = new chatGroupRegistry();
+    private final Session a = mock(Session.class), b = mock(Session.class), c = mock(Session.class);
+
+    @Test
+    void membersAreTheSessionsOfTheirGroupOnly() {
+        registry.join(1, a);
+        registry.join(1, b);
+        registry.join(2, c);
+        registry.join(1, a);
+
+        assertThat(registry.members(1)).containsExactly(a, b);
+        assertThat(registry.members(2)).containsExactly(c);
+        assertThat(registry.members(3)).isEmpty();
+        assertThat(registry.groupOf(b)).isEqualTo(1);
+        assertThat(registry.groupCount()).isEqualTo(2);
+        assertThat(registry.sessionCount()).isEqualTo(3);
+    }
+
+    @Test
+    void joiningAnotherGroupLeavesTheFirst() {
+        registry.join(1, a);
+        registry.join(1, b);
+        registry.join(2, a);
+
+        assertThat(registry.members(1)).containsExactly(b);
+        assertThat(registry.members(2)).containsExactly(a);
+        assertThat(registry.groupOf(a)).isEqualTo(2);
+        assertThat(registry.sessionCount()).isEqualTo(2);
+    }
+
+    @Test
+    void theLastSessionToLeaveTakesTheGroupWithIt() {
+        registry.join(1, a);
+        registry.join(1, b);
+        Session[] before = registry.members(1);
+
+        assertThat(registry.leave(a)).isEqualTo(1);
+        assertThat(registry.members(1)).containsExactly(b);
+        // a broadcast still walking the old array is not disturbed
+        assertThat(before).containsExactly(a, b);
+
+        assertThat(registry.leave(b)).isEqualTo(1);
+        assertThat(registry.leave(b)).isNull();
+        assertThat(registry.groupCount()).isZero();
+        assertThat(registry.sessionCount()).isZero();
+    }
+}
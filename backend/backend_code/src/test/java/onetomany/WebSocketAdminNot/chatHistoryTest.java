@@ -0,0 +1,122 @@
+package onetomany.WebSocketAdminNot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import onetomany.KeysetPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Walks a group's history page by page on the sim profile's H2 database,
+ * where most messages share one timestamp and only the id orders them.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("sim")
+class chatHistoryTest {
+
+    static final Date EARLIER = new Date(1_700_000_000_000L);
+    static final Date SAME = new Date(1_700_000_001_000L);
+    static final Date LATER = new Date(1_700_000_002_000L);
+
+    @Autowired
+    MessageRepository messageRepository;
+
+    private chatHistory history;
+
+    // group 1 oldest first, as the pages return it
+    private final List<Long> group1 = new ArrayList<>();
+
+    @BeforeEach
+    void saveMessages() {
+        history = new chatHistory();
+        history.messageRepository = messageRepository;
+        history.objectMapper = new ObjectMapper();
+
+        save(1, EARLIER);
+        save(2, EARLIER);
+        save(1, EARLIER);
+        for (int i = 0; i < 7; i++) {
+            save(1, SAME);
+            save(2, SAME);
+        }
+        save(1, LATER);
+    }
+
+    private void save(int groupId, Date sent) {
+        Message message = new Message("user" + groupId, "message " + messageRepository.count(), groupId);
+        message.setSent(sent);
+        Long id = messageRepository.save(message).getId();
+        if (groupId == 1)
+            group1.add(id);
+    }
+
+    private static List<Long> ids(KeysetPage<Message> page) {
+        return page.getItems().stream().map(Message::getId).toList();
+    }
+
+    @Test
+    void cursorsWalkTheWholeGroupThroughEqualTimestamps() {
+        List<Long> seen = new ArrayList<>();
+        KeysetPage<Message> page = history.page(1, null, null, 3);
+        seen.addAll(0, ids(page));
+        int pages = 1;
+        while (page.getNext() != null) {
+            page = history.page(1, page.getNext(), null, 3);
+            seen.addAll(0, ids(page));
+            pages++;
+        }
+
+        // every message once and in order, though pages start and end inside the run of 7 equal times
+        assertThat(seen).isEqualTo(group1);
+        assertThat(pages).isEqualTo(4);
+    }
+
+    @Test
+    void aPageIsOldestFirstAndPointsAtItsOldestMessage() {
+        KeysetPage<Message> page = history.page(1, null, null, 3);
+
+        assertThat(ids(page)).isEqualTo(group1.subList(group1.size() - 3, group1.size()));
+        assertThat(page.getNext()).isEqualTo(group1.get(group1.size() - 3));
+        assertThat(page.getItems()).extracting(Message::getSent).containsExactly(SAME, SAME, LATER);
+    }
+
+    @Test
+    void beforeTimeSkipsEverythingAtOrAfterIt() {
+        KeysetPage<Message> page = history.page(1, null, SAME, 10);
+
+        assertThat(ids(page)).isEqualTo(group1.subList(0, 2));
+        assertThat(page.getNext()).isNull();
+    }
+
+    @Test
+    void rejectsCursorsFromOtherGroupsAndBadLimits() {
+        Long otherGroup = history.page(2, null, null, 1).getItems().get(0).getId();
+
+        assertThatThrownBy(() -> history.page(1, otherGroup, null, 3)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> history.page(1, null, null, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> history.page(1, null, null, KeysetPage.MAX_LIMIT + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void historyFramesAreAnsweredWithThePageOrAnError() {
+        assertThat(history.answer(1, "/history before=" + group1.get(1) + " limit=5"))
+                .contains("\"id\":" + group1.get(0) + ",").contains("\"next\":null");
+        assertThat(history.answer(1, "/history limit=x")).startsWith("{\"error\":");
+        assertThat(history.answer(1, "/history beforeTime=yesterday"))
+                .isEqualTo("{\"error\":\"beforeTime must be an ISO-8601 time with offset\"}");
+        assertThat(history.answer(1, "/history after=3")).isEqualTo("{\"error\":\"unknown parameter after\"}");
+    }
+}
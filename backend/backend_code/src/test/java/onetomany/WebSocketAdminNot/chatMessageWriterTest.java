@@ -0,0 +1,116 @@
+package onetomany.WebSocketAdminNot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.stubbing.OngoingStubbing;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/** Flushes are run by the test; the scheduled one is an hour away. */
+class chatMessageWriterTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    // the size of every batch that reached the database, failed or not
+    private final List<Integer> batches = new ArrayList<>();
+    private chatMessageWriter writer;
+
+    @BeforeEach
+    void start() {
+        writer = new chatMessageWriter();
+        writer.jdbcTemplate = jdbcTemplate;
+        writer.transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        writer.maxDelayMs = 3_600_000;
+        writer.batchSize = 10;
+        writer.capacity = 3;
+        writer.offerTimeoutMs = 0;
+        writer.maxAttempts = 3;
+        writer.start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        writer.stop();
+    }
+
+    private void database(boolean... up) {
+        OngoingStubbing<int[][]> stubbing = when(jdbcTemplate.batchUpdate(eq(chatMessageWriter.INSERT_SQL),
+                ArgumentMatchers.<Collection<Message>>any(), anyInt(),
+                ArgumentMatchers.<ParameterizedPreparedStatementSetter<Message>>any()));
+        for (boolean ok : up) {
+            stubbing = stubbing.thenAnswer(call -> {
+                batches.add(call.<Collection<?>>getArgument(1).size());
+                if (!ok)
+                    throw new DataAccessResourceFailureException("database down");
+                return new int[0][];
+            });
+        }
+    }
+
+    private static Message message(int i) {
+        return new Message("user", "message " + i, 1);
+    }
+
+    @Test
+    void aFailedBatchIsWrittenOnALaterFlush() throws Exception {
+        database(false, false, true, true);
+        writer.offer(message(1));
+        writer.offer(message(2));
+
+        writer.flush();
+        writer.offer(message(3));
+        writer.flush();
+        writer.flush();
+
+        // the failed batch goes first and on its own, then what queued up behind it
+        assertThat(batches).containsExactly(2, 2, 2, 1);
+        assertThat(writer.getCounters()).containsEntry("written", 3L).containsEntry("lost", 0L)
+                .containsEntry("failedFlushes", 2L).containsEntry("pending", 0L);
+    }
+
+    @Test
+    void aBatchIsDroppedAfterMaxAttempts() throws Exception {
+        database(false, false, false, true);
+        writer.offer(message(1));
+        writer.offer(message(2));
+
+        writer.flush();
+        writer.flush();
+        writer.offer(message(3));
+        writer.flush();
+
+        // the third failure drops the batch and the flush goes on with the queue
+        assertThat(batches).containsExactly(2, 2, 2, 1);
+        assertThat(writer.getCounters()).containsEntry("written", 1L).containsEntry("lost", 2L)
+                .containsEntry("failedFlushes", 3L);
+    }
+
+    @Test
+    void aFullQueueRejectsMessages() throws Exception {
+        database(false, true);
+        assertThat(writer.offer(message(1))).isTrue();
+        writer.flush();
+        assertThat(writer.offer(message(2))).isTrue();
+        assertThat(writer.offer(message(3))).isTrue();
+        assertThat(writer.offer(message(4))).isTrue();
+
+        // the failed batch is held outside the queue, so the queue fills at capacity
+        assertThat(writer.offer(message(5))).isFalse();
+        assertThat(writer.getCounters()).containsEntry("accepted", 4L).containsEntry("rejected", 1L)
+                .containsEntry("pending", 3L);
+    }
+}
@@ -0,0 +1,84 @@
+package onetomany.WebSocketAdminNot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import onetomany.KeysetPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class chatRecentMessagesTest {
+
+    private final chatHistory history = mock(chatHistory.class);
+    private chatRecentMessages recent;
+
+    @BeforeEach
+    void setUp() {
+        recent = new chatRecentMessages();
+        recent.history = history;
+        recent.capacity = 3;
+        recent.maxMb = 1;
+    }
+
+    // what the database holds for the group, oldest first
+    private void stored(int groupId, String... contents) {
+        List<Message> messages = new ArrayList<>();
+        for (String content : contents)
+            messages.add(new Message("user", content, groupId));
+        when(history.page(groupId, null, null, recent.capacity)).thenReturn(new KeysetPage<>(messages, null));
+    }
+
+    @Test
+    void aGroupIsLoadedOnceThenKeptUpByAppends() {
+        stored(1, "a", "b");
+
+        assertThat(recent.joinTail(1)).isEqualTo("user: a\nuser: b\n");
+        recent.addIfLoaded(1, chatRecentMessages.line("bob", "c"));
+        recent.addIfLoaded(1, chatRecentMessages.line("bob", "d"));
+
+        // the ring keeps the last capacity lines
+        assertThat(recent.joinTail(1)).isEqualTo("user: b\nbob: c\nbob: d\n");
+        verify(history, times(1)).page(1, null, null, 3);
+        assertThat(recent.getCounters()).containsEntry("misses", 1L).containsEntry("hits", 1L)
+                .containsEntry("appends", 2L).containsEntry("hitRatePercent", 50L);
+    }
+
+    @Test
+    void appendsToGroupsNotLoadedHereAreIgnored() {
+        recent.addIfLoaded(2, "bob: hello");
+
+        assertThat(recent.getCounters()).containsEntry("groups", 0L).containsEntry("appends", 0L)
+                .containsEntry("bytes", 0L);
+        verify(history, never()).page(anyInt(), isNull(), isNull(), anyInt());
+    }
+
+    @Test
+    void theLeastRecentlyUsedGroupsGoFirstPastTheBudget() {
+        // each group's ring is just under 40% of the 1 MB budget
+        String large = "x".repeat(400_000);
+        stored(1, large);
+        stored(2, large);
+        stored(3, large);
+
+        recent.joinTail(1);
+        recent.joinTail(2);
+        recent.joinTail(1);
+        recent.joinTail(3);
+
+        assertThat(recent.getCounters()).containsEntry("groups", 2L).containsEntry("evictions", 1L)
+                .containsEntry("bytes", 2 * chatRecentMessages.sizeOf("user: " + large));
+        // group 2 was dropped, it loads again
+        recent.joinTail(2);
+        verify(history, times(2)).page(2, null, null, 3);
+        verify(history, times(1)).page(1, null, null, 3);
+    }
+}
@@ -0,0 +1,58 @@
+package onetomany;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import jakarta.websocket.Extension;
+
+import org.junit.jupiter.api.Test;
+
+class WebSocketDeflateTest {
+
+    private static Extension extension(String name) {
+        Extension extension = mock(Extension.class);
+        when(extension.getName()).thenReturn(name);
+        when(extension.getParameters()).thenReturn(List.of());
+        return extension;
+    }
+
+    @Test
+    void disabledRemovesOnlyDeflate() {
+        WebSocketDeflate deflate = new WebSocketDeflate(false, false);
+        Extension other = extension("x-other");
+
+        assertThat(deflate.negotiate(List.of(extension(WebSocketDeflate.EXTENSION), other))).containsExactly(other);
+        assertThat(deflate.negotiate("permessage-deflate; client_max_window_bits, x-other")).isEqualTo("x-other");
+        assertThat(deflate.negotiate("permessage-deflate")).isNull();
+    }
+
+    @Test
+    void enabledPassesDeflateThrough() {
+        WebSocketDeflate deflate = new WebSocketDeflate(true, false);
+        Extension offered = extension(WebSocketDeflate.EXTENSION);
+
+        assertThat(deflate.negotiate(List.of(offered))).containsExactly(offered);
+        assertThat(deflate.negotiate("permessage-deflate; client_max_window_bits"))
+                .isEqualTo("permessage-deflate; client_max_window_bits");
+    }
+
+    @Test
+    void noContextTakeoverIsAddedOnce() {
+        WebSocketDeflate deflate = new WebSocketDeflate(true, true);
+
+        List<Extension> negotiated = deflate.negotiate(List.of(extension(WebSocketDeflate.EXTENSION)));
+        assertThat(negotiated).hasSize(1);
+        assertThat(negotiated.get(0).getName()).isEqualTo(WebSocketDeflate.EXTENSION);
+        assertThat(negotiated.get(0).getParameters()).extracting(Extension.Parameter::getName)
+                .containsExactly(WebSocketDeflate.SERVER_NO_CONTEXT_TAKEOVER);
+
+        assertThat(deflate.negotiate("permessage-deflate, x-other"))
+                .isEqualTo("permessage-deflate; server_no_context_takeover, x-other");
+        assertThat(deflate.negotiate("permessage-deflate; server_no_context_takeover"))
+                .isEqualTo("permessage-deflate; server_no_context_takeover");
+        assertThat(deflate.negotiate((String) null)).isNull();
+    }
+}
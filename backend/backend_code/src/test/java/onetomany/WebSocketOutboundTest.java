@@ -0,0 +1,218 @@
+package onetomany;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A client that takes its time: every message stays on the wire until the
+ * test completes it, so the queue behind it fills up.
+ */
+class WebSocketOutboundTest {
+
+    private WebSocketOutbound outbound;
+
+    @AfterEach
+    void stop() {
+        if (outbound != null)
+            outbound.stop();
+    }
+
+    private WebSocketOutbound outbound(String policy, int queueSize, int coalesceMaxChars) {
+        outbound = new WebSocketOutbound();
+        outbound.policyName = policy;
+        outbound.queueSize = queueSize;
+        outbound.coalesceMaxChars = coalesceMaxChars;
+        outbound.start();
+        return outbound;
+    }
+
+    /** A session whose sends are held until complete() is called. */
+    static final class SlowClient {
+
+        final Session session = mock(Session.class);
+        final BlockingQueue<String> onTheWire = new LinkedBlockingQueue<>();
+        final BlockingQueue<SendHandler> pending = new LinkedBlockingQueue<>();
+
+        SlowClient() {
+            RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+            when(session.isOpen()).thenReturn(true);
+            when(session.getAsyncRemote()).thenReturn(remote);
+            doAnswer(call -> {
+                onTheWire.add(call.getArgument(0));
+                pending.add(call.getArgument(1));
+                return null;
+            }).when(remote).sendText(anyString(), any(SendHandler.class));
+        }
+
+        /** Completes the send on the wire and returns the next message sent, or null. */
+        String complete() throws InterruptedException {
+            pending.poll(5, TimeUnit.SECONDS).onResult(new SendResult());
+            return onTheWire.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestMessages() throws Exception {
+        outbound("drop-oldest", 2, 65536);
+        SlowClient client = new SlowClient();
+
+        for (String text : List.of("a", "b", "c", "d", "e"))
+            outbound.send(client.session, text);
+
+        assertThat(client.onTheWire.poll()).isEqualTo("a");
+        assertThat(client.complete()).isEqualTo("d");
+        assertThat(client.complete()).isEqualTo("e");
+        assertThat(outbound.getCounters()).containsEntry("dropped", 2L).containsEntry("evicted", 0L);
+        verify(client.session, never()).close(any(CloseReason.class));
+    }
+
+    @Test
+    void coalesceJoinsTheQueuedMessages() throws Exception {
+        outbound("coalesce", 2, 65536);
+        SlowClient client = new SlowClient();
+
+        for (String text : List.of("a", "b", "c", "d", "e"))
+            outbound.send(client.session, text);
+
+        assertThat(client.onTheWire.poll()).isEqualTo("a");
+        // d found b and c queued and joined them, e found b\nc and d
+        assertThat(client.complete()).isEqualTo("b\nc\nd");
+        assertThat(client.complete()).isEqualTo("e");
+        assertThat(outbound.getCounters()).containsEntry("coalesced", 2L).containsEntry("dropped", 0L);
+    }
+
+    @Test
+    void coalescePastItsLimitDisconnects() throws Exception {
+        outbound("coalesce", 2, 10);
+        SlowClient client = new SlowClient();
+
+        for (String text : List.of("a", "bbbb", "cccc", "dddd", "eeee"))
+            outbound.send(client.session, text);
+
+        verify(client.session, timeout(5000)).close(any(CloseReason.class));
+        assertThat(outbound.getCounters()).containsEntry("evicted", 1L).containsEntry("queued", 0L);
+    }
+
+    @Test
+    void disconnectClosesTheSessionAndIgnoresItAfterwards() throws Exception {
+        outbound("disconnect", 2, 65536);
+        SlowClient client = new SlowClient();
+
+        for (String text : List.of("a", "b", "c", "d", "e"))
+            outbound.send(client.session, text);
+
+        verify(client.session, timeout(5000)).close(
+                argThat(reason -> reason.getCloseCode() == CloseReason.CloseCodes.TRY_AGAIN_LATER));
+        assertThat(client.onTheWire.poll()).isEqualTo("a");
+        client.pending.take().onResult(new SendResult());
+        assertThat(client.onTheWire.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(outbound.getCounters()).containsEntry("evicted", 1L).containsEntry("queued", 0L)
+                .containsEntry("enqueued", 4L).containsEntry("sessions", 1L);
+
+        outbound.remove(client.session);
+        assertThat(outbound.getCounters()).containsEntry("sessions", 0L);
+    }
+
+    @Test
+    void aSessionCanOverrideThePolicy() throws Exception {
+        outbound("drop-oldest", 1, 65536);
+        SlowClient dropping = new SlowClient(), disconnecting = new SlowClient();
+        outbound.policy(disconnecting.session, WebSocketOutbound.Policy.DISCONNECT);
+
+        for (String text : List.of("a", "b", "c")) {
+            outbound.send(dropping.session, text);
+            outbound.send(disconnecting.session, text);
+        }
+
+        verify(disconnecting.session, timeout(5000)).close(any(CloseReason.class));
+        verify(dropping.session, never()).close(any(CloseReason.class));
+        assertThat(dropping.onTheWire.poll()).isEqualTo("a");
+        assertThat(dropping.complete()).isEqualTo("c");
+    }
+
+    @Test
+    void aFailedSendStopsTheSession() throws Exception {
+        outbound("drop-oldest", 4, 65536);
+        SlowClient client = new SlowClient();
+        outbound.send(client.session, "a");
+        outbound.send(client.session, "b");
+
+        client.pending.take().onResult(new SendResult(new java.io.IOException("reset")));
+        outbound.send(client.session, "c");
+
+        assertThat(client.onTheWire.poll(200, TimeUnit.MILLISECONDS)).isEqualTo("a");
+        assertThat(client.onTheWire.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(outbound.getCounters()).containsEntry("failed", 1L).containsEntry("queued", 0L);
+    }
+
+    @Test
+    void batchFramesStayWithinTheLimitAfterEscaping() throws Exception {
+        outbound("drop-oldest", 16, 40);
+        SlowClient client = new SlowClient();
+        outbound.batch(client.session, 10);
+        // 6 characters that are 12 once escaped, two of them fill 31 of the 40 and three would not fit
+        String quotes = "\"".repeat(6);
+        for (int i = 0; i < 6; i++)
+            outbound.send(client.session, quotes);
+
+        List<String> messages = new ArrayList<>();
+        String frame = client.onTheWire.poll(5, TimeUnit.SECONDS);
+        while (frame != null) {
+            assertThat(frame.length()).isLessThanOrEqualTo(40);
+            messages.addAll(List.of(new ObjectMapper().readValue(frame, String[].class)));
+            frame = messages.size() < 6 ? client.complete() : null;
+        }
+
+        assertThat(messages).hasSize(6).containsOnly(quotes);
+        assertThat(outbound.getCounters()).containsEntry("batches", 3L).containsEntry("batchedMessages", 6L);
+    }
+
+    @Test
+    void aMessageOverTheLimitGoesOutAlone() throws Exception {
+        outbound("drop-oldest", 16, 50);
+        SlowClient client = new SlowClient();
+        outbound.batch(client.session, 10);
+        String large = "x".repeat(100);
+        outbound.send(client.session, large);
+        outbound.send(client.session, "small");
+
+        assertThat(client.onTheWire.poll(5, TimeUnit.SECONDS)).isEqualTo("[\"" + large + "\"]");
+        assertThat(client.complete()).isEqualTo("[\"small\"]");
+    }
+
+    @Test
+    void closedSessionsGetNoOutbox() {
+        outbound("drop-oldest", 4, 65536);
+        SlowClient client = new SlowClient();
+        when(client.session.isOpen()).thenReturn(false);
+
+        outbound.send(client.session, "a");
+
+        assertThat(client.onTheWire).isEmpty();
+        assertThat(outbound.getCounters()).containsEntry("sessions", 0L).containsEntry("enqueued", 0L);
+    }
+}
@@ -0,0 +1,73 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+class roombaDispatcherTest {
+
+    private roombaDispatcher dispatcher;
+    private roombaFleet fleet;
+
+    @BeforeEach
+    void setUp() {
+        fleet = new roombaFleet();
+        fleet.publisher = mock(ApplicationEventPublisher.class);
+        dispatcher = new roombaDispatcher();
+        dispatcher.fleet = fleet;
+        dispatcher.jdbcTemplate = mock(JdbcTemplate.class);
+        // one slot close by, plenty far away; ticks are run by the test
+        dispatcher.shopList = "0:0:1,100:0:5";
+        dispatcher.tickMs = 3_600_000;
+        dispatcher.arriveRadius = 2;
+        dispatcher.start();
+    }
+
+    @AfterEach
+    void stop() {
+        dispatcher.stop();
+    }
+
+    private void robot(int uniqueID, int posX) {
+        roomba r = new roomba(posX, 0, uniqueID);
+        r.setFull(true);
+        fleet.put(r);
+    }
+
+    @Test
+    void robotsKeepTheShopTheyWereSentTo() {
+        robot(100001, 10);
+        robot(100002, 20);
+        dispatcher.tick();
+
+        // the second robot went to the far shop, as the near one had a single slot
+        assertThat(dispatcher.getAssignedShop(100001)).isEqualTo(0);
+        assertThat(dispatcher.getAssignedShop(100002)).isEqualTo(1);
+        assertThat(fleet.get(100002).isBackToShop()).isTrue();
+
+        dispatcher.tick();
+        assertThat(dispatcher.getAssignedShop(100002)).isEqualTo(1);
+        assertThat(dispatcher.getStats()).containsEntry("lastDispatched", 0);
+    }
+
+    @Test
+    void aFailedWriteSendsNobody() {
+        robot(100001, 10);
+        when(dispatcher.jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("down"));
+
+        assertThatThrownBy(dispatcher::tick).isInstanceOf(DataAccessResourceFailureException.class);
+        assertThat(dispatcher.getAssignedShop(100001)).isNull();
+        assertThat(fleet.get(100001).isBackToShop()).isFalse();
+    }
+}
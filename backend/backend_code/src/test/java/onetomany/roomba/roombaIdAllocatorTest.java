@@ -0,0 +1,109 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class roombaIdAllocatorTest {
+
+    private roombaIdAllocator allocator;
+
+    @AfterEach
+    void stop() {
+        if (allocator != null)
+            allocator.stop();
+    }
+
+    private roombaIdAllocator allocator(int poolSize, List<Integer> usedIDs) {
+        allocator = new roombaIdAllocator();
+        allocator.roombaRepository1 = mock(roombaRepository.class);
+        when(allocator.roombaRepository1.findAllUniqueIDs()).thenReturn(usedIDs);
+        allocator.poolSize = poolSize;
+        return allocator;
+    }
+
+    @Test
+    void concurrentAllocationsNeverShareAnID() throws Exception {
+        int threads = 8, perThread = 5000;
+        List<Integer> usedIDs = new ArrayList<>();
+        for (int id = roombaIdAllocator.MIN_ID; id < roombaIdAllocator.MIN_ID + 1000; id++)
+            usedIDs.add(id);
+        roombaIdAllocator allocator = allocator(256, usedIDs);
+
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> duplicates = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                duplicates.add(pool.submit(() -> {
+                    start.await();
+                    int n = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        int id = allocator.allocate();
+                        if (id < roombaIdAllocator.MIN_ID + 1000 || !seen.add(id))
+                            n++;
+                    }
+                    return n;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> d : duplicates)
+                assertThat(d.get(30, TimeUnit.SECONDS)).isZero();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(seen).hasSize(threads * perThread);
+        assertThat(allocator.getUsedCount()).isEqualTo(1000 + threads * perThread);
+    }
+
+    @Test
+    void poolIsRefilledInTheBackground() throws Exception {
+        roombaIdAllocator allocator = allocator(256, List.of());
+        allocator.allocate();
+        // down to below a quarter, but never empty, so only the background refill can top it up
+        while (allocator.getPoolCount() >= 256 / 4)
+            allocator.allocate();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (allocator.getPoolCount() < 256 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertThat(allocator.getPoolCount()).isEqualTo(256);
+    }
+
+    @Test
+    void releasedIDsAreHandedOutAgain() {
+        // every ID but the last ten is taken
+        List<Integer> usedIDs = new ArrayList<>();
+        int lastFree = roombaIdAllocator.MIN_ID + roombaIdAllocator.ID_COUNT - 10;
+        for (int id = roombaIdAllocator.MIN_ID; id < lastFree; id++)
+            usedIDs.add(id);
+        roombaIdAllocator allocator = allocator(256, usedIDs);
+
+        List<Integer> allocated = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            allocated.add(allocator.allocate());
+        assertThat(allocated).doesNotHaveDuplicates().allMatch(id -> id >= lastFree);
+        assertThatThrownBy(allocator::allocate).isInstanceOf(IllegalStateException.class);
+
+        // as after a failed insert
+        allocator.release(allocated.get(3));
+        assertThat(allocator.allocate()).isEqualTo(allocated.get(3));
+    }
+}
@@ -0,0 +1,113 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class roombaLookupCacheTest {
+
+    static final int KNOWN = 100001;
+    static final int UNKNOWN = 999999;
+
+    private roombaLookupCache cache;
+    private roombaRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(roombaRepository.class);
+        when(repository.findPairingByUniqueID(anyInt()))
+                .thenAnswer(call -> {
+                    int uniqueID = call.getArgument(0);
+                    return uniqueID == UNKNOWN ? null : new roombaPairing(uniqueID - 100000, uniqueID, false, 0);
+                });
+        cache = new roombaLookupCache();
+        cache.roombaRepository1 = repository;
+        cache.maxSize = 2;
+        cache.ttlMs = 60_000;
+        cache.negativeTtlMs = 60_000;
+    }
+
+    @Test
+    void secondLookupIsAHit() {
+        roombaPairing first = cache.findByUniqueID(KNOWN);
+        roombaPairing second = cache.findByUniqueID(KNOWN);
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.getUniqueID()).isEqualTo(KNOWN);
+        verify(repository, times(1)).findPairingByUniqueID(KNOWN);
+        assertThat(cache.getCounters()).containsEntry("misses", 1L).containsEntry("hits", 1L);
+    }
+
+    @Test
+    void unknownIDsAreCachedAsMisses() {
+        assertThat(cache.findByUniqueID(UNKNOWN)).isNull();
+        assertThat(cache.findByUniqueID(UNKNOWN)).isNull();
+
+        verify(repository, times(1)).findPairingByUniqueID(UNKNOWN);
+        assertThat(cache.getCounters()).containsEntry("negativeHits", 1L);
+    }
+
+    @Test
+    void invalidatedEntriesAreLoadedAgain() {
+        cache.findByUniqueID(KNOWN);
+        cache.invalidate(KNOWN);
+        cache.findByUniqueID(KNOWN);
+
+        verify(repository, times(2)).findPairingByUniqueID(KNOWN);
+        assertThat(cache.getCounters()).containsEntry("invalidations", 1L);
+    }
+
+    @Test
+    void stateChangesInvalidate() {
+        roombaState state = new roombaState(1, 1, KNOWN, 0, 0, false, false, false, false, false, 0);
+        cache.findByUniqueID(KNOWN);
+        cache.onStateChange(new roombaStateChange(state, state.withShopFlags(true, false, 2), roombaState.FIELD_BACK_TO_SHOP));
+        cache.findByUniqueID(KNOWN);
+
+        verify(repository, times(2)).findPairingByUniqueID(KNOWN);
+    }
+
+    @Test
+    void aLoadThatOverlapsAnInvalidationIsNotCached() {
+        when(repository.findPairingByUniqueID(KNOWN)).thenAnswer(call -> {
+            // the robot is saved while its old row is being read
+            cache.invalidate(KNOWN);
+            return new roombaPairing(1, KNOWN, false, 0);
+        });
+        cache.findByUniqueID(KNOWN);
+        cache.findByUniqueID(KNOWN);
+
+        verify(repository, times(2)).findPairingByUniqueID(KNOWN);
+        assertThat(cache.getCounters()).containsEntry("size", 0L);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        cache.findByUniqueID(KNOWN);
+        cache.findByUniqueID(KNOWN + 1);
+        cache.findByUniqueID(KNOWN);
+        cache.findByUniqueID(KNOWN + 2);
+
+        cache.findByUniqueID(KNOWN);
+        cache.findByUniqueID(KNOWN + 1);
+        verify(repository, times(1)).findPairingByUniqueID(KNOWN);
+        verify(repository, times(2)).findPairingByUniqueID(KNOWN + 1);
+        assertThat(cache.getCounters()).containsEntry("evictions", 2L).containsEntry("size", 2L);
+    }
+
+    @Test
+    void expiredEntriesAreLoadedAgain() {
+        cache.ttlMs = 0;
+        cache.findByUniqueID(KNOWN);
+        cache.findByUniqueID(KNOWN);
+
+        verify(repository, times(2)).findPairingByUniqueID(KNOWN);
+        assertThat(cache.getCounters()).containsEntry("expirations", 1L);
+    }
+}
@@ -0,0 +1,123 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import onetomany.Reports.Reports;
+import onetomany.Reports.ReportsRepository;
+import onetomany.Users.User;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Counts the statements behind the fleet overview on the sim profile's H2
+ * database: one per page, however many robots and reports there are.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=warn" })
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("sim")
+class roombaRepositoryTest {
+
+    static final int ROBOTS = 40;
+    static final int REPORTS_PER_ROBOT = 3;
+
+    @Autowired
+    roombaRepository roombaRepository1;
+
+    @Autowired
+    ReportsRepository reportsRepository;
+
+    @Autowired
+    TestEntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void saveFleet() {
+        User user = entityManager.persist(new User("Test", "test@example.com", "secret", "tester", 1));
+        for (int i = 0; i < ROBOTS; i++) {
+            roomba r = new roomba(i, i, 100000 + i);
+            if (i % 2 == 0) {
+                r.setHasAssignedUser(true);
+                r.setUserId(user.getId());
+            }
+            entityManager.persist(r);
+            for (int j = 0; j < REPORTS_PER_ROBOT; j++) {
+                Reports report = new Reports("report " + j);
+                report.setRoomba(r);
+                entityManager.persist(report);
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void overviewIsOneStatementPerPage() {
+        List<roombaOverview> page = roombaRepository1.findOverview(0, PageRequest.ofSize(ROBOTS + 1));
+
+        assertThat(page).hasSize(ROBOTS);
+        assertThat(page).allSatisfy(o -> assertThat(o.getReportCount()).isEqualTo(REPORTS_PER_ROBOT));
+        assertThat(page).filteredOn(roombaOverview::isHasAssignedUser)
+                .allSatisfy(o -> assertThat(o.getUsername()).isEqualTo("tester"))
+                .hasSize(ROBOTS / 2);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void overviewStreamIsOneStatement() {
+        try (Stream<roombaOverview> rows = roombaRepository1.streamOverview()) {
+            assertThat(rows.mapToLong(roombaOverview::getReportCount).sum()).isEqualTo(ROBOTS * REPORTS_PER_ROBOT);
+        }
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void reportsPageDoesNotLoadTheRobots() {
+        List<Reports> page = reportsRepository.findByIdGreaterThanOrderByIdAsc(0, PageRequest.ofSize(1000));
+
+        assertThat(page).hasSize(ROBOTS * REPORTS_PER_ROBOT);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void pairingLookupReadsNoReports() {
+        roombaPairing pairing = roombaRepository1.findPairingByUniqueID(100000);
+
+        assertThat(pairing.isHasAssignedUser()).isTrue();
+        assertThat(roombaRepository1.findPairingByUniqueID(100001).isHasAssignedUser()).isFalse();
+        assertThat(roombaRepository1.findPairingByUniqueID(999999)).isNull();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void entityListLoadsReportsPerRobot() {
+        // what the overview replaces: the reports list costs one query per robot
+        List<roomba> all = roombaRepository1.findAll();
+        all.forEach(r -> r.getRoombaReports().size());
+
+        assertThat(all).hasSize(ROBOTS);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1 + ROBOTS);
+    }
+}
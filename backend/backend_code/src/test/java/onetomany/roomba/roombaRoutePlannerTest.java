@@ -0,0 +1,63 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class roombaRoutePlannerTest {
+
+    private roombaRoutePlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        planner = new roombaRoutePlanner();
+        planner.shopList = "0:0:5,9:9:5";
+        // a wall at x = 5 that reaches past the top edge, with a gap in the bottom row,
+        // and a rectangle that lies entirely off the map
+        planner.updateMap(10, 10, roombaRoutePlanner.parseObstacles("5:-3:5:8,20:20:30:30"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<int[]> path(Map<String, Object> route) {
+        return (List<int[]>) route.get("path");
+    }
+
+    @Test
+    void routesToTheClosestShop() {
+        Map<String, Object> route = planner.route(8, 0);
+
+        assertThat(route).containsEntry("shop", 1).containsEntry("length", 10);
+        assertThat(path(route)).hasSize(11).last().isEqualTo(new int[] { 9, 9 });
+    }
+
+    @Test
+    void routesToTheGivenShopAroundTheWall() {
+        Map<String, Object> route = planner.route(8, 0, 0);
+
+        assertThat(route).containsEntry("shop", 0).containsEntry("length", 9 + 8 + 9);
+        assertThat(path(route)).first().isEqualTo(new int[] { 8, 0 });
+        assertThat(path(route)).last().isEqualTo(new int[] { 0, 0 });
+        assertThat(path(route)).noneMatch(p -> p[0] == 5 && p[1] < 9);
+    }
+
+    @Test
+    void rejectsUnknownShopsAndPointsOffTheMap() {
+        assertThatThrownBy(() -> planner.route(1, 1, 2)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> planner.route(1, 1, -1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> planner.route(10, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> planner.route(1, -1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void unreachableShopsGiveNoRoute() {
+        planner.updateMap(10, 10, roombaRoutePlanner.parseObstacles("5:0:5:9"));
+
+        assertThat(planner.route(8, 0, 0)).isNull();
+        assertThat(planner.route(8, 0)).containsEntry("shop", 1);
+    }
+}
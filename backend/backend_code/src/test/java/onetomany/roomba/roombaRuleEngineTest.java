@@ -0,0 +1,106 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class roombaRuleEngineTest {
+
+    // the rules shipped in application.properties
+    static final String DEFAULT_RULES = "full-not-returning: full & !backToShop for 10m; "
+            + "charging-far-from-shop: needsCharging & !backToShop & shopDistance > 200";
+
+    private roombaRuleEngine engine;
+    private final List<roombaAlert> alerts = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void stop() {
+        if (engine != null)
+            engine.stop();
+    }
+
+    private roombaRuleEngine engine(String definitions, String shops) {
+        engine = new roombaRuleEngine();
+        engine.sinks = List.of(alerts::add);
+        engine.definitions = definitions;
+        // the timer is driven by the test through checkDeadlines
+        engine.tickMs = 3_600_000;
+        engine.shopList = shops;
+        engine.start();
+        return engine;
+    }
+
+    private static roombaState state(long seq, int posX, boolean full, boolean needsCharging) {
+        return new roombaState(seq, 1, 100001, posX, 0, full, needsCharging, false, false, false, 0);
+    }
+
+    private void change(roombaState previous, roombaState current) {
+        engine.onStateChange(new roombaStateChange(previous, current, roombaState.diff(previous, current)));
+    }
+
+    @Test
+    void shopDistanceRulesAreSkippedWithoutShops() {
+        engine("needs-charging: needsCharging; " + DEFAULT_RULES, "");
+
+        assertThat(engine.getRules()).extracting(roombaRule::getName)
+                .containsExactly("needs-charging", "full-not-returning");
+        change(null, state(1, 5000, false, true));
+        assertThat(alerts).extracting(roombaAlert::getRule).containsExactly("needs-charging");
+    }
+
+    @Test
+    void shopDistanceRulesUseTheClosestShop() {
+        engine(DEFAULT_RULES, "0:0:20,1000:0:20");
+
+        roombaState near = state(1, 1100, false, true);
+        change(null, near);
+        assertThat(alerts).isEmpty();
+
+        roombaState far = state(2, 500, false, true);
+        change(near, far);
+        assertThat(alerts).extracting(roombaAlert::getKind, roombaAlert::getRule)
+                .containsExactly(tuple(roombaAlert.Kind.RAISED, "charging-far-from-shop"));
+    }
+
+    @Test
+    void rulesWithADurationFireOnceItHasPassed() {
+        engine(DEFAULT_RULES, "");
+        long start = System.currentTimeMillis();
+        roombaState full = state(1, 0, true, false);
+        change(null, full);
+        assertThat(alerts).isEmpty();
+
+        engine.checkDeadlines(start + 9 * 60_000);
+        assertThat(alerts).isEmpty();
+
+        engine.checkDeadlines(System.currentTimeMillis() + 10 * 60_000);
+        assertThat(alerts).singleElement().satisfies(a -> {
+            assertThat(a.getKind()).isEqualTo(roombaAlert.Kind.RAISED);
+            assertThat(a.getRule()).isEqualTo("full-not-returning");
+            assertThat(a.getUniqueID()).isEqualTo(100001);
+        });
+
+        // fired once, then cleared when the robot is emptied
+        engine.checkDeadlines(System.currentTimeMillis() + 20 * 60_000);
+        change(full, state(2, 0, false, false));
+        assertThat(alerts).extracting(roombaAlert::getKind)
+                .containsExactly(roombaAlert.Kind.RAISED, roombaAlert.Kind.CLEARED);
+        assertThat(engine.getCounters()).containsEntry("tracked", 0L);
+    }
+
+    @Test
+    void aConditionThatStopsHoldingBeforeItsDurationNeverFires() {
+        engine(DEFAULT_RULES, "");
+        roombaState full = state(1, 0, true, false);
+        change(null, full);
+        change(full, state(2, 0, false, false));
+
+        engine.checkDeadlines(System.currentTimeMillis() + 10 * 60_000);
+        assertThat(alerts).isEmpty();
+    }
+}
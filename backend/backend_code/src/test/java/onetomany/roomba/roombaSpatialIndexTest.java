@@ -0,0 +1,97 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class roombaSpatialIndexTest {
+
+    static final int GRID = 1024;
+    static final int ROBOTS = 2000;
+
+    private roombaSpatialIndex index;
+    private final List<roombaState> fleet = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        index = new roombaSpatialIndex();
+        index.cellSize = 64;
+        Random random = new Random(7);
+        for (int i = 0; i < ROBOTS; i++) {
+            roombaState state = new roombaState(1, i + 1, 100000 + i, random.nextInt(GRID), random.nextInt(GRID),
+                    random.nextInt(4) == 0, random.nextBoolean(), false, false, false, 0);
+            fleet.add(state);
+            index.onStateChange(new roombaStateChange(null, state, roombaState.ALL_FIELDS));
+        }
+    }
+
+    private static long distanceSq(roombaState s, int x, int y) {
+        long dx = s.getPosX() - x;
+        long dy = s.getPosY() - y;
+        return dx * dx + dy * dy;
+    }
+
+    @Test
+    void nearestMatchesAScan() {
+        Random random = new Random(11);
+        for (int q = 0; q < 200; q++) {
+            int x = random.nextInt(GRID + 400) - 200, y = random.nextInt(GRID + 400) - 200;
+            List<roombaState> nearest = index.nearest(x, y, 5, true, null);
+
+            List<Long> expected = fleet.stream().filter(roombaState::isFull)
+                    .map(s -> distanceSq(s, x, y)).sorted().limit(5).toList();
+            // ties may come in any order, the distances may not
+            assertThat(nearest).extracting(s -> distanceSq(s, x, y)).containsExactlyElementsOf(expected);
+            assertThat(nearest).allMatch(roombaState::isFull);
+        }
+    }
+
+    @Test
+    void withinMatchesAScan() {
+        Random random = new Random(13);
+        for (int q = 0; q < 200; q++) {
+            int minX = random.nextInt(GRID), minY = random.nextInt(GRID);
+            int maxX = minX + random.nextInt(300), maxY = minY + random.nextInt(300);
+            List<roombaState> within = index.within(minX, minY, maxX, maxY, null, false);
+
+            List<roombaState> expected = fleet.stream().filter(s -> !s.isNeedsCharging()
+                    && s.getPosX() >= minX && s.getPosX() <= maxX && s.getPosY() >= minY && s.getPosY() <= maxY)
+                    .toList();
+            assertThat(within).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    @Test
+    void queriesReturnTheLatestState() {
+        roombaState before = fleet.get(0);
+        roombaState assigned = new roombaState(2, before.getId(), before.getUniqueID(), before.getPosX(),
+                before.getPosY(), before.isFull(), before.isNeedsCharging(), true, false, true, 42);
+        index.onStateChange(new roombaStateChange(before, assigned, roombaState.diff(before, assigned)));
+
+        assertThat(index.nearest(before.getPosX(), before.getPosY(), 1, null, null)).singleElement()
+                .isSameAs(assigned);
+        assertThat(index.within(before.getPosX(), before.getPosY(), before.getPosX(), before.getPosY(), null, null))
+                .contains(assigned).doesNotContain(before);
+    }
+
+    @Test
+    void movedRobotsAreFoundAtTheirNewPosition() {
+        roombaState before = fleet.get(0);
+        roombaState moved = new roombaState(2, before.getId(), before.getUniqueID(), GRID + 500, GRID + 500,
+                before.isFull(), before.isNeedsCharging(), false, false, false, 0);
+        index.onStateChange(new roombaStateChange(before, moved, roombaState.FIELD_POSITION));
+
+        assertThat(index.nearest(GRID + 500, GRID + 500, 1, null, null)).containsExactly(moved);
+        assertThat(index.within(0, 0, GRID, GRID, null, null)).doesNotContain(before, moved).hasSize(ROBOTS - 1);
+
+        // a late, older change does not move it back
+        index.onStateChange(new roombaStateChange(null, before, roombaState.ALL_FIELDS));
+        assertThat(index.nearest(GRID + 500, GRID + 500, 1, null, null)).containsExactly(moved);
+        assertThat(index.size()).isEqualTo(ROBOTS);
+    }
+}
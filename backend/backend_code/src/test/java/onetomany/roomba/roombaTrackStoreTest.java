@@ -0,0 +1,128 @@
+package onetomany.roomba;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class roombaTrackStoreTest {
+
+    static final long T0 = 1_700_000_000_000L;
+    static final int ROBOTS = 10;
+    static final int STEPS = 500;
+
+    @TempDir
+    Path dir;
+
+    private roombaTrackStore store;
+
+    @AfterEach
+    void close() {
+        if (store != null)
+            store.close();
+    }
+
+    private roombaTrackStore open() throws IOException {
+        if (store != null)
+            store.close();
+        store = new roombaTrackStore();
+        store.directory = dir.toString();
+        store.shardCount = 2;
+        store.segmentRecords = 64;
+        store.segmentMs = 1000;
+        store.rawRetentionHours = 1;
+        store.secondRetentionHours = 2;
+        store.minuteRetentionHours = 0;
+        store.hourRetentionHours = 0;
+        store.open();
+        return store;
+    }
+
+    // robot r is at (r, step) at T0 + step * 10ms
+    private void appendSteps() {
+        for (int step = 0; step < STEPS; step++) {
+            for (int r = 1; r <= ROBOTS; r++)
+                store.append(T0 + step * 10L, r, r, step, (byte) 0);
+        }
+    }
+
+    private List<long[]> replay(int uniqueID, long from, long to, roombaTrackStore.Resolution resolution)
+            throws IOException {
+        List<long[]> points = new ArrayList<>();
+        store.replay(uniqueID, from, to, resolution, (time, posX, posY, flags) ->
+                points.add(new long[] { time, posX, posY }));
+        return points;
+    }
+
+    private void assertTrack(int uniqueID, List<long[]> points) {
+        assertThat(points).hasSize(STEPS);
+        for (int step = 0; step < STEPS; step++)
+            assertThat(points.get(step)).containsExactly(T0 + step * 10L, uniqueID, step);
+    }
+
+    private long files(String glob) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(dir.getFileSystem().getPathMatcher("glob:**/" + glob)::matches).count();
+        }
+    }
+
+    @Test
+    void replaysOnlyTheRobotsOwnPoints() throws IOException {
+        open();
+        appendSteps();
+
+        // robots 3 and 5 share a shard and its segments
+        assertTrack(3, replay(3, T0, Long.MAX_VALUE, roombaTrackStore.Resolution.RAW));
+        assertTrack(5, replay(5, T0, Long.MAX_VALUE, roombaTrackStore.Resolution.RAW));
+        assertThat(replay(3, T0 + 1000, T0 + 1990, roombaTrackStore.Resolution.RAW)).hasSize(100);
+        assertThat(replay(3, T0, Long.MAX_VALUE, roombaTrackStore.Resolution.SECOND))
+                .extracting(p -> p[0]).containsExactly(T0, T0 + 1000, T0 + 2000, T0 + 3000, T0 + 4000);
+        assertThat(replay(ROBOTS + 1, T0, Long.MAX_VALUE, roombaTrackStore.Resolution.RAW)).isEmpty();
+        assertThat(files("*.idx")).isGreaterThan(0);
+    }
+
+    @Test
+    void readsTheIndexFilesAfterARestart() throws IOException {
+        open();
+        appendSteps();
+        open();
+        assertThat(files("*.idx")).isEqualTo(files("*.seg"));
+        assertTrack(7, replay(7, T0, Long.MAX_VALUE, roombaTrackStore.Resolution.RAW));
+
+        // segments without an index get one on first read
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path idx : files.filter(p -> p.toString().endsWith(".idx")).toList())
+                Files.delete(idx);
+        }
+        open();
+        assertTrack(7, replay(7, T0, Long.MAX_VALUE, roombaTrackStore.Resolution.RAW));
+        assertThat(files("*.idx")).isGreaterThan(0);
+    }
+
+    @Test
+    void dropsSegmentsPastTheirLevelsRetention() throws IOException {
+        open();
+        appendSteps();
+        long later = T0 + 3 * 3_600_000L;
+        for (int r = 1; r <= ROBOTS; r++)
+            store.append(later, r, r, -1, (byte) 0);
+        // a segment goes once the one after it is past the cutoff too
+        for (int r = 1; r <= ROBOTS; r++)
+            store.append(later + 9_000_000L, r, r, -2, (byte) 0);
+
+        // raw keeps an hour and seconds two, minutes are kept for good
+        assertThat(replay(3, T0, T0 + 10_000, roombaTrackStore.Resolution.RAW)).isEmpty();
+        assertThat(replay(3, T0, T0 + 10_000, roombaTrackStore.Resolution.SECOND)).isEmpty();
+        assertThat(replay(3, T0, T0 + 10_000, roombaTrackStore.Resolution.MINUTE)).hasSize(1);
+        assertThat(replay(3, later, later, roombaTrackStore.Resolution.RAW)).hasSize(1);
+        assertThat(files("*.idx")).isLessThanOrEqualTo(files("*.seg"));
+    }
+}
@@ -0,0 +1,92 @@
+package onetomany;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Entry point of target/benchmarks.jar.
+ *
+ *     java -jar target/benchmarks.jar                       all suites
+ *     java -jar target/benchmarks.jar chatNot -f 1 -wi 3    any JMH options
+ *     java -jar target/benchmarks.jar compare old.json new.json
+ *
+ * Runs JMH with its usual options, but unless -rf/-rff are given the results
+ * are also written as JSON to target/jmh-result.json. Keep that file from one
+ * version and compare it with the next to see what moved.
+ */
+public class BenchmarkMain {
+
+    static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("compare")) {
+            if (args.length != 3) {
+                System.err.println("Usage: compare <old.json> <new.json>");
+                System.exit(2);
+            }
+            compare(new File(args[1]), new File(args[2]));
+            return;
+        }
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf") && !jmhArgs.contains("-rff")) {
+            new File(DEFAULT_RESULT).getParentFile().mkdirs();
+            jmhArgs.addAll(List.of("-rf", "json", "-rff", DEFAULT_RESULT));
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+
+    /**
+     * Prints every benchmark found in both files with the old and new score
+     * and the change in percent. Scores more than the two errors apart are
+     * marked with a *.
+     */
+    static void compare(File oldFile, File newFile) throws IOException {
+        Map<String, JsonNode> before = load(oldFile);
+        Map<String, JsonNode> after = load(newFile);
+        System.out.printf("%-80s %14s %14s %9s%n", "Benchmark", "Old", "New", "Change");
+        for (Map.Entry<String, JsonNode> entry : after.entrySet()) {
+            JsonNode b = before.get(entry.getKey());
+            JsonNode a = entry.getValue().get("primaryMetric");
+            String unit = a.get("scoreUnit").asText();
+            if (b == null) {
+                System.out.printf("%-80s %14s %14.3f %9s  %s%n", entry.getKey(), "-", a.get("score").asDouble(), "new", unit);
+                continue;
+            }
+            b = b.get("primaryMetric");
+            double oldScore = b.get("score").asDouble();
+            double newScore = a.get("score").asDouble();
+            double change = oldScore == 0 ? 0 : (newScore - oldScore) * 100 / oldScore;
+            boolean significant = Math.abs(newScore - oldScore) > error(a) + error(b);
+            System.out.printf("%-80s %14.3f %14.3f %+8.1f%%%s %s%n", entry.getKey(), oldScore, newScore, change,
+                    significant ? "*" : " ", unit);
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key))
+                System.out.printf("%-80s %14.3f %14s %9s%n", key, before.get(key).get("primaryMetric").get("score").asDouble(), "-", "gone");
+        }
+    }
+
+    private static double error(JsonNode metric) {
+        double error = metric.path("scoreError").asDouble(0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    // benchmark name plus its parameters, in the order JMH wrote them
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.get("benchmark").asText().replace("onetomany.", ""));
+            run.path("params").fields().forEachRemaining(p -> key.append(' ').append(p.getKey()).append('=').append(p.getValue().asText()));
+            results.put(key.toString(), run);
+        }
+        return results;
+    }
+}
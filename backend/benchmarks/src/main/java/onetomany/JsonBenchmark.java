@@ -0,0 +1,84 @@
+package onetomany;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import onetomany.Users.User;
+import onetomany.WebSocketAdminNot.Message;
+import onetomany.roomba.roomba;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Jackson serialization of the entities the REST controllers return, with
+ * an ObjectMapper built the way Spring MVC builds its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private ObjectWriter writer;
+    private roomba robot;
+    private User user;
+    private Message message;
+    // what GET /roomba/ returns for a small fleet
+    private List<roomba> fleet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = mapper.writer();
+
+        robot = new roomba(512, 384, 123456);
+        robot.setId(17);
+        user = new User("Jane Doe", "jane@example.com", "secret", "jdoe", 123456);
+        message = new Message("jdoe", "robot 123456 is stuck under the couch again");
+        message.setGroupID(3);
+
+        fleet = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            roomba r = new roomba(i % 1024, i / 1024, 100000 + i);
+            r.setId(i + 1);
+            fleet.add(r);
+        }
+    }
+
+    @Benchmark
+    public byte[] roomba() throws Exception {
+        return writer.writeValueAsBytes(robot);
+    }
+
+    @Benchmark
+    public byte[] user() throws Exception {
+        return writer.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public byte[] message() throws Exception {
+        return writer.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] roombaList1000() throws Exception {
+        return writer.writeValueAsBytes(fleet);
+    }
+}
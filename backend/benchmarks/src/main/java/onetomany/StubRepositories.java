@@ -0,0 +1,35 @@
+package onetomany;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Spring Data repositories without a database. Only the methods given are
+ * answered, anything else the benchmark touches fails loudly.
+ */
+public final class StubRepositories {
+
+    private StubRepositories() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T of(Class<T> repository, Map<String, Function<Object[], Object>> answers) {
+        return (T) Proxy.newProxyInstance(repository.getClassLoader(), new Class<?>[] { repository },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "stub " + repository.getSimpleName();
+                        default:
+                            Function<Object[], Object> answer = answers.get(method.getName());
+                            if (answer == null)
+                                throw new UnsupportedOperationException(repository.getSimpleName() + "." + method.getName());
+                            return answer.apply(args);
+                    }
+                });
+    }
+}
@@ -0,0 +1,320 @@
+package onetomany;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.EncodeException;
+import jakarta.websocket.Extension;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import jakarta.websocket.WebSocketContainer;
+
+/**
+ * A jakarta.websocket Session that is always open and whose remotes only
+ * count what they are asked to send, so a broadcast costs what the endpoint
+ * itself does and nothing of the network. Async sends complete at once.
+ */
+public class StubSession implements Session {
+
+    private final String id;
+    private final Map<String, Object> userProperties = new HashMap<>();
+    private final Basic basic = new Basic();
+    private final Async async = new Async();
+
+    public long messages;
+    public long chars;
+
+    public StubSession(String id) {
+        this.id = id;
+    }
+
+    private final class Basic implements RemoteEndpoint.Basic {
+
+        @Override
+        public void sendText(String text) {
+            messages++;
+            chars += text.length();
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data) {
+            messages++;
+            chars += data.remaining();
+        }
+
+        @Override
+        public void sendText(String partialMessage, boolean isLast) {
+            chars += partialMessage.length();
+            if (isLast)
+                messages++;
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer partialByte, boolean isLast) {
+            chars += partialByte.remaining();
+            if (isLast)
+                messages++;
+        }
+
+        @Override
+        public OutputStream getSendStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Writer getSendWriter() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendObject(Object data) throws IOException, EncodeException {
+            sendText(String.valueOf(data));
+        }
+
+        @Override
+        public void setBatchingAllowed(boolean allowed) {
+        }
+
+        @Override
+        public boolean getBatchingAllowed() {
+            return false;
+        }
+
+        @Override
+        public void flushBatch() {
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) {
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) {
+        }
+    }
+
+    private final class Async implements RemoteEndpoint.Async {
+
+        private long sendTimeout;
+
+        @Override
+        public long getSendTimeout() {
+            return sendTimeout;
+        }
+
+        @Override
+        public void setSendTimeout(long timeout) {
+            sendTimeout = timeout;
+        }
+
+        @Override
+        public void sendText(String text, SendHandler handler) {
+            basic.sendText(text);
+            handler.onResult(new SendResult());
+        }
+
+        @Override
+        public Future<Void> sendText(String text) {
+            basic.sendText(text);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public Future<Void> sendBinary(ByteBuffer data) {
+            basic.sendBinary(data);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data, SendHandler handler) {
+            basic.sendBinary(data);
+            handler.onResult(new SendResult());
+        }
+
+        @Override
+        public Future<Void> sendObject(Object data) {
+            basic.sendText(String.valueOf(data));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void sendObject(Object data, SendHandler handler) {
+            basic.sendText(String.valueOf(data));
+            handler.onResult(new SendResult());
+        }
+
+        @Override
+        public void setBatchingAllowed(boolean allowed) {
+        }
+
+        @Override
+        public boolean getBatchingAllowed() {
+            return false;
+        }
+
+        @Override
+        public void flushBatch() {
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) {
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) {
+        }
+    }
+
+    @Override
+    public RemoteEndpoint.Basic getBasicRemote() {
+        return basic;
+    }
+
+    @Override
+    public RemoteEndpoint.Async getAsyncRemote() {
+        return async;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public Map<String, Object> getUserProperties() {
+        return userProperties;
+    }
+
+    @Override
+    public WebSocketContainer getContainer() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addMessageHandler(MessageHandler handler) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> void addMessageHandler(Class<T> clazz, MessageHandler.Whole<T> handler) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> void addMessageHandler(Class<T> clazz, MessageHandler.Partial<T> handler) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<MessageHandler> getMessageHandlers() {
+        return Set.of();
+    }
+
+    @Override
+    public void removeMessageHandler(MessageHandler handler) {
+    }
+
+    @Override
+    public String getProtocolVersion() {
+        return "13";
+    }
+
+    @Override
+    public String getNegotiatedSubprotocol() {
+        return null;
+    }
+
+    @Override
+    public List<Extension> getNegotiatedExtensions() {
+        return List.of();
+    }
+
+    @Override
+    public long getMaxIdleTimeout() {
+        return 0;
+    }
+
+    @Override
+    public void setMaxIdleTimeout(long milliseconds) {
+    }
+
+    @Override
+    public void setMaxBinaryMessageBufferSize(int length) {
+    }
+
+    @Override
+    public int getMaxBinaryMessageBufferSize() {
+        return 8192;
+    }
+
+    @Override
+    public void setMaxTextMessageBufferSize(int length) {
+    }
+
+    @Override
+    public int getMaxTextMessageBufferSize() {
+        return 8192;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void close(CloseReason closeReason) {
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return URI.create("/chat");
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestParameterMap() {
+        return Map.of();
+    }
+
+    @Override
+    public String getQueryString() {
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getPathParameters() {
+        return Map.of();
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    @Override
+    public Set<Session> getOpenSessions() {
+        return Set.of(this);
+    }
+}
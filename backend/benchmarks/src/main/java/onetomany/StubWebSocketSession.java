@@ -0,0 +1,114 @@
+package onetomany;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * A Spring WebSocketSession that is always open and only counts what is
+ * sent to it. Attributes work, so handshake attributes such as the username
+ * can be set up front.
+ */
+public class StubWebSocketSession implements WebSocketSession {
+
+    private final String id;
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    public long messages;
+    public long bytes;
+
+    public StubWebSocketSession(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        messages++;
+        bytes += message.getPayloadLength();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public URI getUri() {
+        return URI.create("/dm");
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return HttpHeaders.EMPTY;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return 8192;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return 8192;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return List.of();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+    }
+}
@@ -0,0 +1,148 @@
+package onetomany.WebSocketAdminNot;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.websocket.Session;
+
+import onetomany.LocalChatBroker;
+import onetomany.StubRepositories;
+import onetomany.StubSession;
+import onetomany.WebSocketOutbound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Group chat fan-out and the history sent on join, over stub sessions and a
+ * stub MessageRepository. The private methods are called directly, the
+ * session maps and group registry are filled the way onOpen fills them.
+ * Sends go through a WebSocketOutbound with its default settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class chatNotBenchmark {
+
+    /** Connected groups; a group message should cost the same for any number. */
+    @Param({ "20", "200", "2000" })
+    int groups;
+
+    @Param({ "50" })
+    int groupSize;
+
+    /** Messages the stub repository returns when the ring is loaded. */
+    @Param({ "50" })
+    int history;
+
+    private chatNot endpoint;
+    private MethodHandle broadcastHandle;
+    private MethodHandle broadcastToGroupHandle;
+    private chatRecentMessages recentMessages;
+    private final List<Map<Object, Object>> sessionMaps = new ArrayList<>();
+    private chatGroupRegistry registry;
+    private WebSocketOutbound outbound;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Message> messages = new ArrayList<>(history);
+        for (int i = 0; i < history; i++) {
+            Message m = new Message("user" + (i % 50), "message number " + i + " about the robot in the hallway");
+            m.setId((long) (history - i));
+            m.setGroupID(0);
+            messages.add(m);
+        }
+        outbound = new WebSocketOutbound();
+        outbound.start();
+        endpoint = new chatNot();
+        endpoint.setOutbound(outbound);
+        endpoint.setBroker(new LocalChatBroker());
+        chatHistory chatHistory = new chatHistory();
+        chatHistory.messageRepository = StubRepositories.of(MessageRepository.class,
+                Map.of("findByGroupIDOrderBySentDescIdDesc", args -> new ArrayList<>(messages)));
+        recentMessages = new chatRecentMessages();
+        recentMessages.history = chatHistory;
+        recentMessages.joinTail(0);
+        endpoint.setChatHistory(chatHistory);
+        endpoint.setRecentMessages(recentMessages);
+
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(chatNot.class, MethodHandles.lookup());
+        broadcastHandle = lookup.findVirtual(chatNot.class, "broadcast", MethodType.methodType(void.class, String.class));
+        broadcastToGroupHandle = lookup.findVirtual(chatNot.class, "broadcastToGroup",
+                MethodType.methodType(void.class, String.class, int.class));
+
+        Map<Object, Object> sessionUsername = staticMap("sessionUsernameMap");
+        Map<Object, Object> usernameSession = staticMap("usernameSessionMap");
+        Field groupsField = chatNot.class.getDeclaredField("groups");
+        groupsField.setAccessible(true);
+        registry = (chatGroupRegistry) groupsField.get(null);
+        for (int i = 0; i < groups * groupSize; i++) {
+            Session session = new StubSession(String.valueOf(i));
+            sessionUsername.put(session, "user" + i);
+            usernameSession.put("user" + i, session);
+            registry.join(i % groups, session);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> staticMap(String name) throws ReflectiveOperationException {
+        Field field = chatNot.class.getDeclaredField(name);
+        field.setAccessible(true);
+        Map<Object, Object> map = (Map<Object, Object>) field.get(null);
+        map.clear();
+        sessionMaps.add(map);
+        return map;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessionMaps.get(0).keySet().forEach(session -> registry.leave((Session) session));
+        sessionMaps.forEach(Map::clear);
+        sessionMaps.clear();
+        outbound.stop();
+    }
+
+    /** A join or leave notice, sent to every session. */
+    @Benchmark
+    public void broadcast() throws Throwable {
+        broadcastHandle.invoke(endpoint, "Roomba:user42 is here");
+    }
+
+    /** One chat message, sent to the sessions of one group. */
+    @Benchmark
+    public void broadcastToGroup() throws Throwable {
+        broadcastToGroupHandle.invoke(endpoint, "user42: is the robot in room 3 done yet?", 7 % groups);
+    }
+
+    /** History sent to a session when it joins, from the group's ring. */
+    @Benchmark
+    public String joinTail() {
+        return recentMessages.joinTail(0);
+    }
+
+    /** A message recorded in the ring, then a join that renders the tail again. */
+    @Benchmark
+    public String joinTailAfterMessage() {
+        recentMessages.addIfLoaded(0, chatRecentMessages.line("user7", "back in the shop, battery at 12%"));
+        return recentMessages.joinTail(0);
+    }
+}
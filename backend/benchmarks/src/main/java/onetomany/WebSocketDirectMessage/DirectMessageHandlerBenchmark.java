@@ -0,0 +1,79 @@
+package onetomany.WebSocketDirectMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import onetomany.LocalChatBroker;
+import onetomany.StubWebSocketSession;
+import onetomany.WebSocketOutbound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+/**
+ * Parsing and delivery of one "@recipient:text" direct message, through the
+ * public handleMessage entry point Spring calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectMessageHandlerBenchmark {
+
+    @Param({ "1000" })
+    int users;
+
+    private DirectMessageHandler handler;
+    private WebSocketOutbound outbound;
+    private final List<StubWebSocketSession> sessions = new ArrayList<>();
+    private TextMessage direct;
+    private TextMessage malformed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        outbound = new WebSocketOutbound();
+        outbound.start();
+        handler = new DirectMessageHandler(outbound, new LocalChatBroker(), 0);
+        for (int i = 0; i < users; i++) {
+            StubWebSocketSession session = new StubWebSocketSession(String.valueOf(i));
+            session.getAttributes().put("username", "user" + i);
+            handler.afterConnectionEstablished(session);
+            sessions.add(session);
+        }
+        direct = new TextMessage("@user" + (users / 2) + ":are you taking robot 123456 to the shop or should I?");
+        malformed = new TextMessage("no recipient in this one, it is dropped");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (StubWebSocketSession session : sessions)
+            handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        sessions.clear();
+        outbound.stop();
+    }
+
+    @Benchmark
+    public void directMessage() throws Exception {
+        handler.handleMessage(sessions.get(0), direct);
+    }
+
+    @Benchmark
+    public void malformedMessage() throws Exception {
+        handler.handleMessage(sessions.get(0), malformed);
+    }
+}
@@ -0,0 +1,69 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import onetomany.StubRepositories;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * roombaController.generateUniqueSixDigitId, which hands straight over to
+ * roombaIdAllocator.allocate. Each call gives its ID back so the share of
+ * used IDs stays where the parameter puts it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class roombaIdAllocatorBenchmark {
+
+    /** Share of the 900000 six-digit IDs already taken. */
+    @Param({ "0.1", "0.9", "0.99" })
+    double used;
+
+    private roombaIdAllocator allocator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Integer> taken = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < roombaIdAllocator.ID_COUNT; i++) {
+            if (random.nextDouble() < used)
+                taken.add(roombaIdAllocator.MIN_ID + i);
+        }
+        allocator = new roombaIdAllocator();
+        allocator.poolSize = 4096;
+        allocator.roombaRepository1 = StubRepositories.of(roombaRepository.class,
+                Map.of("findAllUniqueIDs", args -> taken));
+        allocator.getUsedCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        allocator.stop();
+    }
+
+    @Benchmark
+    public int allocate() {
+        int id = allocator.allocate();
+        allocator.release(id);
+        return id;
+    }
+}
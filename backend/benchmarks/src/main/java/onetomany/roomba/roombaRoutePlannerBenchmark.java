@@ -0,0 +1,132 @@
+package onetomany.roomba;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Route to the closest shop from the precomputed distance fields, against an
+ * A* search per request on the same 1024x1024 map, plus the cost of
+ * rebuilding the fields after a map change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class roombaRoutePlannerBenchmark {
+
+    private static final int SIZE = 1024;
+    private static final String SHOPS = "10:10:5,1000:1000:5,500:20:5";
+    private static final String OBSTACLES = "100:0:110:900,300:100:310:1023,600:0:610:800,0:500:900:505";
+
+    private roombaRoutePlanner planner;
+    private List<int[]> obstacles;
+    private int[][] shops;
+    private BitSet blocked;
+    private int[] starts;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        obstacles = roombaRoutePlanner.parseObstacles(OBSTACLES);
+        shops = roombaDispatcher.parseShops(SHOPS);
+        planner = new roombaRoutePlanner();
+        planner.shopList = SHOPS;
+        planner.updateMap(SIZE, SIZE, obstacles);
+
+        blocked = new BitSet(SIZE * SIZE);
+        for (int[] o : obstacles) {
+            for (int y = o[1]; y <= o[3]; y++)
+                blocked.set(y * SIZE + o[0], y * SIZE + o[2] + 1);
+        }
+        Random random = new Random(1);
+        starts = new int[2 * 256];
+        for (int i = 0; i < starts.length / 2; i++) {
+            int x, y;
+            do {
+                x = random.nextInt(SIZE);
+                y = random.nextInt(SIZE);
+            } while (planner.route(x, y) == null);
+            starts[2 * i] = x;
+            starts[2 * i + 1] = y;
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> routeFromFields() {
+        int i = next++ & 255;
+        return planner.route(starts[2 * i], starts[2 * i + 1]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int routeAStar() {
+        int i = next++ & 255;
+        return aStar(starts[2 * i], starts[2 * i + 1]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void updateMap() {
+        planner.updateMap(SIZE, SIZE, obstacles);
+    }
+
+    // length of the shortest path to any shop, Manhattan distance to the
+    // closest shop as the heuristic
+    private int aStar(int startX, int startY) {
+        int[] cost = new int[SIZE * SIZE];
+        Arrays.fill(cost, -1);
+        PriorityQueue<long[]> open = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        int start = startY * SIZE + startX;
+        cost[start] = 0;
+        open.add(new long[] { estimate(startX, startY), start });
+        while (!open.isEmpty()) {
+            long[] entry = open.poll();
+            int cell = (int) entry[1];
+            int x = cell % SIZE, y = cell / SIZE;
+            for (int[] shop : shops) {
+                if (shop[0] == x && shop[1] == y)
+                    return cost[cell];
+            }
+            if (entry[0] > cost[cell] + estimate(x, y))
+                continue;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + (d == 0 ? 1 : d == 1 ? -1 : 0);
+                int ny = y + (d == 2 ? 1 : d == 3 ? -1 : 0);
+                if (nx < 0 || ny < 0 || nx >= SIZE || ny >= SIZE)
+                    continue;
+                int n = ny * SIZE + nx;
+                if (blocked.get(n) || (cost[n] >= 0 && cost[n] <= cost[cell] + 1))
+                    continue;
+                cost[n] = cost[cell] + 1;
+                open.add(new long[] { cost[n] + estimate(nx, ny), n });
+            }
+        }
+        return -1;
+    }
+
+    private int estimate(int x, int y) {
+        int best = Integer.MAX_VALUE;
+        for (int[] shop : shops)
+            best = Math.min(best, Math.abs(x - shop[0]) + Math.abs(y - shop[1]));
+        return best;
+    }
+}
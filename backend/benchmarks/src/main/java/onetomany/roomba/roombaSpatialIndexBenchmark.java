@@ -0,0 +1,118 @@
+package onetomany.roomba;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Nearest robots and robots in a box through roombaSpatialIndex against a
+ * scan of the whole fleet, which is what answering the query without the
+ * index costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class roombaSpatialIndexBenchmark {
+
+    private static final int GRID = 1024;
+    private static final int K = 5;
+    // side of the /roomba/within box
+    private static final int BOX = 128;
+
+    @Param({ "10000", "100000" })
+    int robots;
+
+    private roombaSpatialIndex index;
+    private roombaState[] fleet;
+    private int[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        index = new roombaSpatialIndex();
+        index.cellSize = 64;
+        fleet = new roombaState[robots];
+        for (int i = 0; i < robots; i++) {
+            fleet[i] = new roombaState(1, i + 1, 100000 + i, random.nextInt(GRID), random.nextInt(GRID),
+                    random.nextInt(4) == 0, false, false, false, false, 0);
+            index.update(fleet[i]);
+        }
+        queries = new int[2 * 1024];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = random.nextInt(GRID);
+    }
+
+    @Benchmark
+    public List<roombaState> nearestIndexed() {
+        int q = next++ & 1023;
+        return index.nearest(queries[2 * q], queries[2 * q + 1], K, null, null);
+    }
+
+    @Benchmark
+    public List<roombaState> nearestFullIndexed() {
+        int q = next++ & 1023;
+        return index.nearest(queries[2 * q], queries[2 * q + 1], K, true, null);
+    }
+
+    @Benchmark
+    public List<roombaState> nearestScan() {
+        int q = next++ & 1023;
+        int x = queries[2 * q], y = queries[2 * q + 1];
+        Comparator<roombaState> byDistance = Comparator.comparingLong(s -> distanceSq(s, x, y));
+        PriorityQueue<roombaState> best = new PriorityQueue<>(K + 1, byDistance.reversed());
+        for (roombaState state : fleet) {
+            best.offer(state);
+            if (best.size() > K)
+                best.poll();
+        }
+        List<roombaState> result = new ArrayList<>(best);
+        result.sort(byDistance);
+        return result;
+    }
+
+    @Benchmark
+    public List<roombaState> withinIndexed() {
+        int q = next++ & 1023;
+        int x = queries[2 * q], y = queries[2 * q + 1];
+        return index.within(x, y, x + BOX, y + BOX, null, null);
+    }
+
+    @Benchmark
+    public List<roombaState> withinScan() {
+        int q = next++ & 1023;
+        int x = queries[2 * q], y = queries[2 * q + 1];
+        List<roombaState> result = new ArrayList<>();
+        for (roombaState state : fleet) {
+            if (state.getPosX() >= x && state.getPosX() <= x + BOX && state.getPosY() >= y
+                    && state.getPosY() <= y + BOX)
+                result.add(state);
+        }
+        return result;
+    }
+
+    private static long distanceSq(roombaState s, int x, int y) {
+        long dx = s.getPosX() - x;
+        long dy = s.getPosY() - y;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,83 @@
+package onetomany.roomba;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Decoding one batch of telemetry reports: a binary frame as the /telemetry
+ * socket reads it against the JSON body POST /roomba/telemetry binds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class roombaTelemetryBenchmark {
+
+    @Param({ "100" })
+    int reports;
+
+    private ByteBuffer frame;
+    private byte[] json;
+    private ObjectReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        List<roombaTelemetry> batch = new ArrayList<>(reports);
+        frame = ByteBuffer.allocate(roombaTelemetryFrame.HEADER_SIZE + reports * roombaTelemetryFrame.RECORD_SIZE);
+        roombaTelemetryFrame.startFrame(frame);
+        for (int i = 0; i < reports; i++) {
+            roombaTelemetry t = new roombaTelemetry(100000 + i, random.nextInt(1024), random.nextInt(1024),
+                    random.nextBoolean(), random.nextBoolean(), false, false);
+            batch.add(t);
+            int flags = (t.isFull() ? roombaTelemetryFrame.FLAG_FULL : 0)
+                    | (t.isNeedsCharging() ? roombaTelemetryFrame.FLAG_NEEDS_CHARGING : 0);
+            roombaTelemetryFrame.putRecord(frame, t.getUniqueID(), i, t.getPosX(), t.getPosY(), flags);
+        }
+        frame.flip();
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        json = mapper.writeValueAsBytes(batch);
+        reader = mapper.readerFor(new TypeReference<List<roombaTelemetry>>() { });
+    }
+
+    @Benchmark
+    public void decodeBinary(Blackhole bh) {
+        int n = roombaTelemetryFrame.records(frame);
+        for (int i = 0; i < n; i++) {
+            bh.consume(roombaTelemetryFrame.uniqueID(frame, i));
+            bh.consume(roombaTelemetryFrame.seq(frame, i));
+            bh.consume(roombaTelemetryFrame.posX(frame, i));
+            bh.consume(roombaTelemetryFrame.posY(frame, i));
+            bh.consume(roombaTelemetryFrame.flags(frame, i));
+        }
+    }
+
+    @Benchmark
+    public List<roombaTelemetry> decodeJson() throws Exception {
+        return reader.readValue(json);
+    }
+}
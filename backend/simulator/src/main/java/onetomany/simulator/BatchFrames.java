@@ -0,0 +1,70 @@
+package onetomany.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the frames a batching session gets (JSON arrays of strings, see
+ * WebSocketOutbound.batch on the server) back into messages.
+ */
+final class BatchFrames {
+
+    private BatchFrames() {
+    }
+
+    static List<String> split(String frame) {
+        List<String> messages = new ArrayList<>();
+        int i = skipSpace(frame, 0);
+        if (i >= frame.length() || frame.charAt(i) != '[')
+            throw new IllegalArgumentException("Not a batch frame: " + abbreviate(frame));
+        i = skipSpace(frame, i + 1);
+        if (i < frame.length() && frame.charAt(i) == ']')
+            return messages;
+        while (true) {
+            if (i >= frame.length() || frame.charAt(i) != '"')
+                throw new IllegalArgumentException("Expected a string at " + i + ": " + abbreviate(frame));
+            StringBuilder message = new StringBuilder();
+            i++;
+            while (true) {
+                char c = frame.charAt(i++);
+                if (c == '"')
+                    break;
+                if (c != '\\') {
+                    message.append(c);
+                    continue;
+                }
+                char e = frame.charAt(i++);
+                switch (e) {
+                    case 'n': message.append('\n'); break;
+                    case 'r': message.append('\r'); break;
+                    case 't': message.append('\t'); break;
+                    case 'b': message.append('\b'); break;
+                    case 'f': message.append('\f'); break;
+                    case 'u':
+                        message.append((char) Integer.parseInt(frame.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default: message.append(e);
+                }
+            }
+            messages.add(message.toString());
+            i = skipSpace(frame, i);
+            char next = frame.charAt(i++);
+            if (next == ']')
+                return messages;
+            if (next != ',')
+                throw new IllegalArgumentException("Expected , or ] at " + (i - 1) + ": " + abbreviate(frame));
+            i = skipSpace(frame, i);
+        }
+    }
+
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+            i++;
+        return i;
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() > 80 ? s.substring(0, 80) + "..." : s;
+    }
+}
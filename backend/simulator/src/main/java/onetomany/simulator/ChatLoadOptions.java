@@ -0,0 +1,105 @@
+package onetomany.simulator;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options of ChatLoadTest, all given as --name=value.
+ */
+public class ChatLoadOptions {
+
+    /** chat for /chat/{id}/{username}, dm for /dm/{username}. */
+    String mode = "chat";
+    /** WebSocket clients to open. */
+    int clients = 1000;
+    /** Clients per chat group; in dm mode every message goes to one other client. */
+    int groupSize = 50;
+    /** Connections opened per second. */
+    int connectRate = 200;
+    /** Messages sent per second over all clients. */
+    int rate = 100;
+    /** Seconds to measure for, after the warm-up. */
+    int duration = 60;
+    /** Seconds to run before the numbers are reset. */
+    int warmup = 10;
+    /** Seconds to wait for the last messages to arrive. */
+    int drain = 5;
+    /** Seconds between progress lines. */
+    int reportEvery = 5;
+    /** Sends allowed in flight at once; further sends wait. */
+    int maxInFlight = 512;
+    /** Ask for batched frames (?batch=1): JSON arrays of the messages queued within the server's window. */
+    boolean batch = false;
+    /** Extra listening clients on plain sockets that count bytes on the wire, chat mode only. */
+    int probes = 0;
+    /** Whether the probes offer permessage-deflate. */
+    boolean deflate = false;
+    /**
+     * Backend to drive, or several separated by commas with the clients spread over them in turn;
+     * when empty, the backend jar is started on port with the sim profile.
+     */
+    String target = "";
+    String backendJar = "../backend_code/target/onetomany-1.0.0-exec.jar";
+    int port = 18080;
+    /** Backends to start without --target, on port, port + 1, ... and joined by the tcp chat broker. */
+    int instances = 1;
+    /** Chat broker port of the first started backend, the others count up from it. */
+    int brokerPort = 17601;
+    /** Where the JSON report goes. */
+    String report = "target/chat-load-report.json";
+    /** An earlier report to print the changes against. */
+    String baseline = "";
+    /** Free text stored in the report, e.g. the release under test. */
+    String label = "";
+
+    static ChatLoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options look like --name=value, got " + arg);
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        ChatLoadOptions o = new ChatLoadOptions();
+        o.mode = values.getOrDefault("mode", o.mode);
+        o.clients = intOption(values, "clients", o.clients);
+        o.groupSize = intOption(values, "group-size", o.groupSize);
+        o.connectRate = intOption(values, "connect-rate", o.connectRate);
+        o.rate = intOption(values, "rate", o.rate);
+        o.duration = intOption(values, "duration", o.duration);
+        o.warmup = intOption(values, "warmup", o.warmup);
+        o.drain = intOption(values, "drain", o.drain);
+        o.reportEvery = intOption(values, "report-every", o.reportEvery);
+        o.maxInFlight = intOption(values, "max-in-flight", o.maxInFlight);
+        o.batch = Boolean.parseBoolean(values.getOrDefault("batch", String.valueOf(o.batch)));
+        o.probes = intOption(values, "probes", o.probes);
+        o.deflate = Boolean.parseBoolean(values.getOrDefault("deflate", String.valueOf(o.deflate)));
+        o.target = values.getOrDefault("target", o.target);
+        o.backendJar = values.getOrDefault("backend-jar", o.backendJar);
+        o.port = intOption(values, "port", o.port);
+        o.instances = intOption(values, "instances", o.instances);
+        o.brokerPort = intOption(values, "broker-port", o.brokerPort);
+        o.report = values.getOrDefault("report", o.report);
+        o.baseline = values.getOrDefault("baseline", o.baseline);
+        o.label = values.getOrDefault("label", o.label);
+        values.keySet().removeAll(List.of("mode", "clients", "group-size", "connect-rate", "rate", "duration",
+                "warmup", "drain", "report-every", "max-in-flight", "batch", "probes", "deflate", "target", "backend-jar",
+                "port", "instances", "broker-port", "report", "baseline", "label"));
+        if (!values.isEmpty())
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        if (!o.mode.equals("chat") && !o.mode.equals("dm"))
+            throw new IllegalArgumentException("--mode must be chat or dm");
+        if (o.clients < 2 || o.groupSize < 1 || o.connectRate < 1 || o.rate < 1 || o.maxInFlight < 1)
+            throw new IllegalArgumentException("clients must be at least 2; group-size, rates and max-in-flight positive");
+        if (o.probes < 0 || (o.probes > 0 && !o.mode.equals("chat")))
+            throw new IllegalArgumentException("--probes must not be negative and only go with --mode=chat");
+        if (o.instances < 1 || (o.instances > 1 && !o.target.isEmpty()))
+            throw new IllegalArgumentException("--instances must be positive and starts backends, it does not go with --target");
+        return o;
+    }
+
+    private static int intOption(Map<String, String> values, String name, int fallback) {
+        String value = values.get(name);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,555 @@
+package onetomany.simulator;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.WebSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Opens thousands of WebSocket clients against the chat endpoints and
+ * measures how long a message takes from being sent until every receiver
+ * has it.
+ *
+ * In chat mode the clients join /chat/{group}/{username} in groups of
+ * --group-size and every message is broadcast to the sender's group. In dm
+ * mode they connect to /dm/{username} and every message goes to the next
+ * client, which the server delivers to both ends. Messages carry the time
+ * they were due, so latency includes any time the sender spent waiting,
+ * and every delivery that has not arrived once the run is drained counts as
+ * dropped.
+ *
+ *     mvn -f backend/pom.xml package -DskipTests
+ *     cd backend/simulator
+ *     java -cp target/simulator-1.0.0.jar onetomany.simulator.ChatLoadTest --clients=2000 --group-size=100
+ *
+ * Without --target the backend jar is started with the sim profile on an
+ * in-memory database. The report (target/chat-load-report.json by default)
+ * also holds the server's heap and thread peaks from /runtime/stats; pass
+ * an older report as --baseline to print the changes.
+ *
+ * With --instances=N, N backends are started and joined by the tcp chat
+ * broker (or pass several comma-separated --target URLs). Clients are spread
+ * over them in turn, so every group has members on every instance; the
+ * server numbers are those of the first one, and the report adds the broker's
+ * cross-node latency and dropped frames of all of them. Each started backend
+ * has its own in-memory database.
+ *
+ * --batch=true asks the server for batched frames (JSON arrays of the
+ * messages queued within its window). The report counts the frames the
+ * clients got and, from /websocket/outbound/stats, the frames and text the
+ * servers sent; --probes=N adds N listening clients on plain sockets that
+ * count the bytes on the wire for one session, offering permessage-deflate
+ * with --deflate=true.
+ */
+public class ChatLoadTest {
+
+    // unique per run, so what an earlier run left in the history of the same backend is not taken for deliveries
+    private final String marker = "#lt" + Long.toString(System.currentTimeMillis(), 36) + "#";
+
+    private final ChatLoadOptions options;
+    private final List<String> baseUrls;
+    private final HttpClient client;
+    private final Semaphore inFlight;
+    private final RuntimeSampler sampler;
+
+    private final LatencyRecorder connect = new LatencyRecorder("connect");
+    private final LatencyRecorder delivery = new LatencyRecorder("delivery");
+    private final LatencyRecorder send = new LatencyRecorder("send");
+
+    private final List<Client> clients = new ArrayList<>();
+    private final List<WireProbe> probes = new ArrayList<>();
+    // connected clients per group, so a broadcast knows how many should get it
+    private final AtomicIntegerArray groupOpen;
+
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    // summed over the targets, when measuring started
+    private Map<String, Long> outboundAtStart = Map.of();
+    private final LongAdder otherMessages = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+
+    ChatLoadTest(ChatLoadOptions options, List<String> baseUrls) {
+        this.options = options;
+        this.baseUrls = baseUrls;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.inFlight = new Semaphore(options.maxInFlight);
+        this.sampler = new RuntimeSampler(baseUrls.get(0));
+        this.groupOpen = new AtomicIntegerArray((options.clients + options.groupSize - 1) / options.groupSize);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChatLoadOptions options = ChatLoadOptions.parse(args);
+        List<EmbeddedBackend> backends = new ArrayList<>();
+        List<String> baseUrls = new ArrayList<>();
+        try {
+            if (options.target.isEmpty()) {
+                startBackends(options, backends);
+                for (EmbeddedBackend backend : backends)
+                    baseUrls.add(backend.getBaseUrl());
+            }
+            else {
+                for (String target : options.target.split(","))
+                    baseUrls.add(target.trim());
+            }
+            new ChatLoadTest(options, baseUrls).run();
+        }
+        finally {
+            for (EmbeddedBackend backend : backends)
+                backend.stop();
+        }
+    }
+
+    private static void startBackends(ChatLoadOptions options, List<EmbeddedBackend> backends) throws Exception {
+        if (options.instances == 1) {
+            System.out.println("Starting backend " + options.backendJar + " on port " + options.port);
+            backends.add(EmbeddedBackend.start(options.backendJar, options.port));
+            return;
+        }
+        for (int i = 0; i < options.instances; i++) {
+            List<String> peers = new ArrayList<>();
+            for (int j = 0; j < options.instances; j++) {
+                if (j != i)
+                    peers.add("127.0.0.1:" + (options.brokerPort + j));
+            }
+            int port = options.port + i;
+            System.out.println("Starting backend " + options.backendJar + " on port " + port
+                    + ", chat broker on " + (options.brokerPort + i));
+            backends.add(EmbeddedBackend.start(options.backendJar, port, "backend-" + i + ".log", List.of(
+                    "--roomba.broker.type=tcp",
+                    "--roomba.broker.tcp.port=" + (options.brokerPort + i),
+                    "--roomba.broker.tcp.peers=" + String.join(",", peers))));
+        }
+    }
+
+    void run() throws Exception {
+        sampler.start();
+        if (!sampler.isAvailable())
+            System.out.println("No /runtime/stats on " + baseUrls.get(0) + ", the report will not have server numbers");
+        long connectStart = System.nanoTime();
+        openClients();
+        double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+        List<Client> open = new ArrayList<>();
+        for (Client c : clients) {
+            if (c.isOpen())
+                open.add(c);
+        }
+        System.out.printf(Locale.ROOT, "Connected %d of %d clients in %.1f s, %d closed by the server since%n",
+                connect.getCount(), clients.size(), connectSeconds, disconnects.sum());
+        if (open.size() < 2) {
+            System.out.println("Not enough clients connected, stopping");
+            sampler.stop();
+            return;
+        }
+        openProbes();
+
+        long intervalNanos = 1_000_000_000L / options.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmup);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.duration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(options.reportEvery);
+        boolean measuring = options.warmup == 0;
+        long[] last = new long[2];
+        outboundAtStart = outboundStats();
+        System.out.printf(Locale.ROOT, "Sending %d messages/s, %d s warm-up, %d s measured%n",
+                options.rate, options.warmup, options.duration);
+
+        for (long k = 0; ; k++) {
+            long due = start + k * intervalNanos;
+            if (due >= end)
+                break;
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            if (!measuring && due >= measureFrom) {
+                resetCounters();
+                last = new long[2];
+                measuring = true;
+            }
+            if (due >= nextReport) {
+                last = progress(due - start, last);
+                nextReport += TimeUnit.SECONDS.toNanos(options.reportEvery);
+            }
+            Client sender = open.get((int) (k % open.size()));
+            Client recipient = open.get((int) ((k + 1) % open.size()));
+            sendMessage(sender, recipient, due, measuring);
+        }
+
+        // wait for the sends still queued, then for the last deliveries
+        inFlight.tryAcquire(options.maxInFlight, 30, TimeUnit.SECONDS);
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drain);
+        while (received.sum() < expected.sum() && System.nanoTime() < drainUntil)
+            Thread.sleep(50);
+        double seconds = (end - measureFrom) / 1e9;
+        sampler.stop();
+        Map<String, Long> outbound = outboundStats();
+        for (Client c : open)
+            c.close();
+        for (WireProbe probe : probes)
+            probe.close();
+        summary(seconds, connectSeconds, open.size(), outbound);
+    }
+
+    private void openClients() throws InterruptedException {
+        System.out.printf(Locale.ROOT, "Opening %d %s clients at %d/s on %d backend(s)%n", options.clients, options.mode,
+                options.connectRate, baseUrls.size());
+        long intervalNanos = 1_000_000_000L / options.connectRate;
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (int i = 0; i < options.clients; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            Client c = new Client("lt" + i, i / options.groupSize);
+            clients.add(c);
+            String wsBase = baseUrls.get(i % baseUrls.size()).replaceFirst("^http", "ws");
+            URI uri = URI.create((options.mode.equals("chat")
+                    ? wsBase + "/chat/" + c.group + "/" + c.username
+                    : wsBase + "/dm/" + c.username) + (options.batch ? "?batch=1" : ""));
+            pending.add(client.newWebSocketBuilder().buildAsync(uri, c).whenComplete((socket, error) -> {
+                if (error != null) {
+                    connect.error();
+                    return;
+                }
+                connect.record((System.nanoTime() - due) / 1000);
+                c.opened(socket);
+            }));
+        }
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        }
+        catch (Exception e) {
+            // failed connections are counted as connect errors
+        }
+    }
+
+    private void openProbes() {
+        for (int i = 0; i < options.probes; i++) {
+            String wsBase = baseUrls.get(i % baseUrls.size()).replaceFirst("^http", "ws");
+            URI uri = URI.create(wsBase + "/chat/" + (i % groupOpen.length()) + "/probe" + i
+                    + (options.batch ? "?batch=1" : ""));
+            try {
+                probes.add(WireProbe.open(uri, options.deflate, options.batch));
+            }
+            catch (Exception e) {
+                System.out.println("Probe " + uri + " failed: " + e);
+            }
+        }
+        if (!probes.isEmpty())
+            System.out.println("Opened " + probes.size() + " wire probes, extensions: "
+                    + (probes.get(0).getExtensions().isEmpty() ? "none" : probes.get(0).getExtensions()));
+    }
+
+    private Map<String, Long> outboundStats() {
+        Map<String, Long> sum = new HashMap<>();
+        for (String baseUrl : baseUrls) {
+            RuntimeSampler.fetch(client, HttpRequest.newBuilder(URI.create(baseUrl + "/websocket/outbound/stats"))
+                    .timeout(Duration.ofSeconds(2)).build()).forEach((k, v) -> sum.merge(k, v, Long::sum));
+        }
+        return sum;
+    }
+
+    private long outboundGrowth(Map<String, Long> now, String key) {
+        return now.getOrDefault(key, 0L) - outboundAtStart.getOrDefault(key, 0L);
+    }
+
+    private void sendMessage(Client sender, Client recipient, long due, boolean measuring) {
+        String payload = marker + (measuring ? '1' : '0') + "#" + due;
+        int receivers;
+        String text;
+        if (options.mode.equals("chat")) {
+            receivers = groupOpen.get(sender.group);
+            text = payload;
+        }
+        else {
+            receivers = recipient == sender ? 1 : 2;
+            text = "@" + recipient.username + ":" + payload;
+        }
+        inFlight.acquireUninterruptibly();
+        sender.send(text).whenComplete((ws, error) -> {
+            inFlight.release();
+            if (error != null) {
+                send.error();
+                return;
+            }
+            send.record((System.nanoTime() - due) / 1000);
+            if (measuring)
+                expected.add(receivers);
+        });
+    }
+
+    private void receivedFrame(String text) {
+        frames.increment();
+        if (!options.batch) {
+            received(text);
+            return;
+        }
+        for (String message : BatchFrames.split(text))
+            received(message);
+    }
+
+    private void received(String text) {
+        if (text.indexOf('\n') >= 0) {
+            // a join tail, or messages the server coalesced
+            for (String line : text.split("\n"))
+                received(line);
+            return;
+        }
+        int at = text.indexOf(marker);
+        if (at < 0) {
+            // join notices, history, welcome messages
+            otherMessages.increment();
+            return;
+        }
+        long now = System.nanoTime();
+        if (text.charAt(at + marker.length()) != '1')
+            return;
+        long due = Long.parseLong(text.substring(at + marker.length() + 2).trim());
+        delivery.record((now - due) / 1000);
+        received.increment();
+    }
+
+    private void resetCounters() {
+        delivery.reset();
+        send.reset();
+        expected.reset();
+        received.reset();
+        frames.reset();
+        otherMessages.reset();
+        sampler.reset();
+        for (WireProbe probe : probes)
+            probe.reset();
+        outboundAtStart = outboundStats();
+    }
+
+    private long[] progress(long elapsedNanos, long[] last) {
+        long s = send.getCount(), d = received.sum();
+        double seconds = options.reportEvery;
+        System.out.printf(Locale.ROOT, "%6.0fs  sent %.0f/s  delivered %.0f/s p99 %.2f ms  send errors %d  disconnects %d"
+                        + "  |  server heap %d MB threads %d%n",
+                elapsedNanos / 1e9, Math.max(0, s - last[0]) / seconds, Math.max(0, d - last[1]) / seconds,
+                delivery.percentile(0.99) / 1000.0, send.getErrors(), disconnects.sum(),
+                sampler.latest("heapUsed") >> 20, sampler.latest("threads"));
+        return new long[] { s, d };
+    }
+
+    private void summary(double seconds, double connectSeconds, int connected, Map<String, Long> outbound)
+            throws Exception {
+        long wanted = expected.sum(), got = received.sum();
+        System.out.printf(Locale.ROOT, "%nMeasured %.1f s%n", seconds);
+        System.out.printf(Locale.ROOT, "%-10s %9s %7s %9s %9s %9s %9s %9s%n", "", "count", "errors", "per s",
+                "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (LatencyRecorder r : List.of(send, delivery)) {
+            System.out.printf(Locale.ROOT, "%-10s %9d %7d %9.0f %9.2f %9.2f %9.2f %9.2f%n", r.getName(), r.getCount(),
+                    r.getErrors(), r.getCount() / seconds, r.percentile(0.5) / 1000.0, r.percentile(0.99) / 1000.0,
+                    r.percentile(0.999) / 1000.0, r.percentile(1.0) / 1000.0);
+        }
+        System.out.printf(Locale.ROOT, "deliveries expected %d, received %d, dropped %d; disconnects %d%n",
+                wanted, got, Math.max(0, wanted - got), disconnects.sum());
+        long frameCount = frames.sum(), allMessages = got + otherMessages.sum();
+        long serverFrames = outboundGrowth(outbound, "sent"), serverChars = outboundGrowth(outbound, "sentChars");
+        System.out.printf(Locale.ROOT, "frames: clients got %.0f/s, %.2f messages each; servers sent %.0f/s, %.0f KB/s of text%n",
+                frameCount / seconds, frameCount == 0 ? 0 : (double) allMessages / frameCount, serverFrames / seconds,
+                serverChars / seconds / 1024);
+        long probeFrames = 0, probeMessages = 0, probePayload = 0, probeWire = 0;
+        for (WireProbe probe : probes) {
+            probeFrames += probe.getFrames();
+            probeMessages += probe.getMessages();
+            probePayload += probe.getPayloadBytes();
+            probeWire += probe.getWireBytes();
+            if (probe.getFailure() != null)
+                System.out.println("Probe failed: " + probe.getFailure());
+        }
+        String deflate = probes.isEmpty() || probes.get(0).getExtensions().isEmpty() ? "none" : probes.get(0).getExtensions();
+        double perProbe = Math.max(1, probes.size()) * seconds;
+        if (!probes.isEmpty()) {
+            System.out.printf(Locale.ROOT, "per session (%d probes, extensions %s): %.0f frames/s, %.0f messages/s, "
+                            + "payload %.1f KB/s, wire %.1f KB/s%n", probes.size(), deflate, probeFrames / perProbe,
+                    probeMessages / perProbe, probePayload / perProbe / 1024, probeWire / perProbe / 1024);
+        }
+        if (sampler.isAvailable()) {
+            System.out.printf(Locale.ROOT, "server peak heap %d MB used / %d MB committed, peak threads %d, %d GCs taking %d ms%n",
+                    sampler.getPeakHeapUsed() >> 20, sampler.getPeakHeapCommitted() >> 20, sampler.getPeakThreads(),
+                    sampler.growth("gcCount"), sampler.growth("gcTimeMs"));
+        }
+
+        LoadReport report = new LoadReport();
+        report.put("label", options.label);
+        report.put("mode", options.mode);
+        report.put("instances", baseUrls.size());
+        report.put("clients", options.clients);
+        report.put("groupSize", options.mode.equals("chat") ? options.groupSize : 2);
+        report.put("rate", options.rate);
+        report.put("durationSeconds", seconds);
+        report.put("connected", connect.getCount());
+        report.put("openAtStart", connected);
+        report.put("disconnects", disconnects.sum());
+        report.put("connectSeconds", connectSeconds);
+        report.put("connectErrors", connect.getErrors());
+        report.put("connectP99Ms", connect.percentile(0.99) / 1000.0);
+        report.put("messagesSent", send.getCount());
+        report.put("sendErrors", send.getErrors());
+        report.put("sendP99Ms", send.percentile(0.99) / 1000.0);
+        report.put("deliveriesExpected", wanted);
+        report.put("deliveriesReceived", got);
+        report.put("deliveriesDropped", Math.max(0, wanted - got));
+        report.put("deliveriesPerSecond", got / seconds);
+        report.put("latencyMeanMs", delivery.getMeanMicros() / 1000.0);
+        report.put("latencyP50Ms", delivery.percentile(0.5) / 1000.0);
+        report.put("latencyP90Ms", delivery.percentile(0.9) / 1000.0);
+        report.put("latencyP99Ms", delivery.percentile(0.99) / 1000.0);
+        report.put("latencyP999Ms", delivery.percentile(0.999) / 1000.0);
+        report.put("latencyMaxMs", delivery.percentile(1.0) / 1000.0);
+        report.put("otherMessages", otherMessages.sum());
+        report.put("batch", String.valueOf(options.batch));
+        report.put("clientFramesPerSecond", frameCount / seconds);
+        report.put("messagesPerFrame", frameCount == 0 ? 0 : (double) allMessages / frameCount);
+        report.put("serverFramesPerSecond", serverFrames / seconds);
+        report.put("serverTextKbPerSecond", serverChars / seconds / 1024);
+        if (!probes.isEmpty()) {
+            report.put("probeExtensions", deflate);
+            report.put("probeFramesPerSecond", probeFrames / perProbe);
+            report.put("probeMessagesPerSecond", probeMessages / perProbe);
+            report.put("probePayloadKbPerSecond", probePayload / perProbe / 1024);
+            report.put("probeWireKbPerSecond", probeWire / perProbe / 1024);
+        }
+        if (sampler.isAvailable()) {
+            report.put("serverPeakHeapUsedMb", sampler.getPeakHeapUsed() >> 20);
+            report.put("serverPeakHeapCommittedMb", sampler.getPeakHeapCommitted() >> 20);
+            report.put("serverPeakThreads", sampler.getPeakThreads());
+            report.put("serverGcCount", sampler.growth("gcCount"));
+            report.put("serverGcTimeMs", sampler.growth("gcTimeMs"));
+        }
+        if (baseUrls.size() > 1)
+            brokerSummary(report);
+        Path file = Path.of(options.report);
+        report.write(file);
+        System.out.println("Report written to " + file);
+        if (!options.baseline.isEmpty())
+            report.printComparison(Path.of(options.baseline));
+    }
+
+    // counted since each backend started, warm-up included; latency is over its last frames received
+    private void brokerSummary(LoadReport report) {
+        long dropped = 0, p50 = 0, p99 = 0, max = 0;
+        for (String baseUrl : baseUrls) {
+            Map<String, Long> stats = RuntimeSampler.fetch(client,
+                    HttpRequest.newBuilder(URI.create(baseUrl + "/websocket/broker/stats")).timeout(Duration.ofSeconds(2)).build());
+            if (stats.isEmpty()) {
+                System.out.println("No /websocket/broker/stats on " + baseUrl);
+                continue;
+            }
+            System.out.printf(Locale.ROOT, "broker %s: frames sent %d received %d dropped %d, peers %d of %d, "
+                            + "cross-node p50 %.2f ms p99 %.2f ms max %.2f ms%n", baseUrl,
+                    stats.getOrDefault("framesSent", 0L), stats.getOrDefault("framesReceived", 0L),
+                    stats.getOrDefault("framesDropped", 0L), stats.getOrDefault("peersConnected", 0L),
+                    stats.getOrDefault("peers", 0L), stats.getOrDefault("latencyP50Micros", 0L) / 1000.0,
+                    stats.getOrDefault("latencyP99Micros", 0L) / 1000.0, stats.getOrDefault("latencyMaxMicros", 0L) / 1000.0);
+            dropped += stats.getOrDefault("framesDropped", 0L);
+            p50 = Math.max(p50, stats.getOrDefault("latencyP50Micros", 0L));
+            p99 = Math.max(p99, stats.getOrDefault("latencyP99Micros", 0L));
+            max = Math.max(max, stats.getOrDefault("latencyMaxMicros", 0L));
+        }
+        report.put("brokerFramesDropped", dropped);
+        report.put("brokerLatencyP50Ms", p50 / 1000.0);
+        report.put("brokerLatencyP99Ms", p99 / 1000.0);
+        report.put("brokerLatencyMaxMs", max / 1000.0);
+    }
+
+    /**
+     * One chat client. Its sends are chained one after the other because a
+     * WebSocket only takes one outstanding send.
+     */
+    private final class Client implements WebSocket.Listener {
+
+        final String username;
+        final int group;
+        volatile WebSocket socket;
+        private CompletableFuture<WebSocket> tail;
+        private final StringBuilder partial = new StringBuilder();
+        private boolean closed;
+
+        Client(String username, int group) {
+            this.username = username;
+            this.group = group;
+        }
+
+        synchronized void opened(WebSocket socket) {
+            this.socket = socket;
+            this.tail = CompletableFuture.completedFuture(socket);
+            if (!closed)
+                groupOpen.incrementAndGet(group);
+        }
+
+        synchronized boolean isOpen() {
+            return socket != null && !closed;
+        }
+
+        synchronized CompletableFuture<WebSocket> send(String text) {
+            // a failed send fails only its own message, the next one goes out regardless
+            tail = tail.handle((ws, error) -> socket).thenCompose(ws -> ws.sendText(text, true));
+            return tail;
+        }
+
+        synchronized void close() {
+            closed = true;
+            tail.handle((ws, error) -> socket).thenCompose(ws -> ws.sendClose(WebSocket.NORMAL_CLOSURE, ""))
+                    .orTimeout(5, TimeUnit.SECONDS).exceptionally(error -> null).join();
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            if (last && partial.length() == 0) {
+                receivedFrame(data.toString());
+            }
+            else {
+                partial.append(data);
+                if (last) {
+                    receivedFrame(partial.toString());
+                    partial.setLength(0);
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            lost();
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            lost();
+        }
+
+        private synchronized void lost() {
+            if (closed)
+                return;
+            closed = true;
+            disconnects.increment();
+            if (socket != null)
+                groupOpen.decrementAndGet(group);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package onetomany.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the backend jar in its own JVM with the sim profile (in-memory H2,
+ * bound to 127.0.0.1), so the simulator needs nothing but a built backend.
+ * Its log goes to target/backend.log, or target/<log> for several backends.
+ */
+public class EmbeddedBackend {
+
+    private static final long START_TIMEOUT_MS = 180_000;
+
+    private final Process process;
+    private final String baseUrl;
+
+    private EmbeddedBackend(Process process, String baseUrl) {
+        this.process = process;
+        this.baseUrl = baseUrl;
+    }
+
+    static EmbeddedBackend start(String jar, int port) throws IOException, InterruptedException {
+        return start(jar, port, "backend.log", List.of());
+    }
+
+    /** Starts the backend with more --name=value arguments, e.g. the chat broker settings. */
+    static EmbeddedBackend start(String jar, int port, String logName, List<String> extraArgs)
+            throws IOException, InterruptedException {
+        File jarFile = new File(jar);
+        if (!jarFile.isFile())
+            throw new IllegalArgumentException("Backend jar " + jarFile.getAbsolutePath()
+                    + " not found, build it with mvn -f backend/pom.xml package or pass --target");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        File log = new File("target", logName);
+        log.getParentFile().mkdirs();
+        List<String> command = new ArrayList<>(List.of(java, "-jar", jarFile.getAbsolutePath(),
+                "--spring.profiles.active=sim", "--server.port=" + port));
+        command.addAll(extraArgs);
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        EmbeddedBackend backend = new EmbeddedBackend(process, "http://127.0.0.1:" + port);
+        Runtime.getRuntime().addShutdownHook(new Thread(backend::stop));
+        backend.awaitReady(log);
+        return backend;
+    }
+
+    private void awaitReady(File log) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest probe = HttpRequest.newBuilder(URI.create(baseUrl + "/roomba/stats")).build();
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive())
+                throw new IllegalStateException("Backend exited with " + process.exitValue() + ", see " + log);
+            try {
+                if (client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == 200)
+                    return;
+            }
+            catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        stop();
+        throw new IllegalStateException("Backend did not start within " + START_TIMEOUT_MS / 1000 + " s, see " + log);
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    void stop() {
+        if (!process.isAlive())
+            return;
+        process.destroy();
+        // a run started right after must not find this one still holding the port
+        try {
+            if (!process.waitFor(30, TimeUnit.SECONDS))
+                process.destroyForcibly();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package onetomany.simulator;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives the backend with a fleet of virtual robots and reports what it
+ * could sustain.
+ *
+ * Every robot registers through POST /roomba/ and pairs through
+ * /roomba/checkPairing/{uniqueID}/. Then the robots take turns at the
+ * configured rate: each turn moves one robot one tick and sends its
+ * telemetry, and robots that became full or low on battery ask
+ * /roomba/{uniqueID}/route for the way to the shop.
+ *
+ * Latencies are measured from the moment a request was due, not from when
+ * it was sent, so a backend that falls behind shows up in the percentiles
+ * instead of silently lowering the rate.
+ *
+ *     mvn -f backend/pom.xml package -DskipTests
+ *     cd backend/simulator
+ *     java -jar target/simulator-1.0.0.jar --robots=5000 --rate=10000 --duration=60
+ *
+ * Without --target the backend jar is started with the sim profile on an
+ * in-memory database; see SimulatorOptions for every option.
+ */
+public class FleetSimulator {
+
+    private static final Pattern UNIQUE_ID = Pattern.compile("\"uniqueID\":(\\d+)");
+    private static final Pattern PATH = Pattern.compile("\"path\":\\[(.*)]");
+    private static final Pattern POINT = Pattern.compile("\\[(-?\\d+),(-?\\d+)]");
+
+    private final SimulatorOptions options;
+    private final String baseUrl;
+    private final HttpClient client;
+    private final Semaphore inFlight;
+    private final Random random;
+
+    private final LatencyRecorder register = new LatencyRecorder("register");
+    private final LatencyRecorder pair = new LatencyRecorder("pair");
+    private final LatencyRecorder telemetry;
+    private final LatencyRecorder route = new LatencyRecorder("route");
+
+    private final List<VirtualRobot> robots = new ArrayList<>();
+    private final List<Connection> connections = new ArrayList<>();
+
+
+    FleetSimulator(SimulatorOptions options, String baseUrl) {
+        this.options = options;
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.inFlight = new Semaphore(options.maxInFlight);
+        this.random = new Random(options.seed);
+        this.telemetry = new LatencyRecorder(options.telemetry.equals("ws") ? "telemetry-ws-send" : "telemetry");
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulatorOptions options = SimulatorOptions.parse(args);
+        EmbeddedBackend backend = null;
+        String baseUrl = options.target;
+        if (baseUrl.isEmpty()) {
+            System.out.println("Starting backend " + options.backendJar + " on port " + options.port);
+            backend = EmbeddedBackend.start(options.backendJar, options.port);
+            baseUrl = backend.getBaseUrl();
+        }
+        try {
+            new FleetSimulator(options, baseUrl).run();
+        }
+        finally {
+            if (backend != null)
+                backend.stop();
+        }
+    }
+
+    void run() throws InterruptedException {
+        registerFleet();
+        if (robots.isEmpty()) {
+            System.out.println("No robot could register, stopping");
+            return;
+        }
+        if (options.telemetry.equals("ws"))
+            openConnections();
+
+        long intervalNanos = 1_000_000_000L / options.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmup);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.duration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(options.reportEvery);
+        boolean measuring = options.warmup == 0;
+        long[] lastCounts = new long[2];
+        System.out.printf(Locale.ROOT, "Driving %d robots at %d reports/s, %d s warm-up, %d s measured%n",
+                robots.size(), options.rate, options.warmup, options.duration);
+
+        for (long k = 0; ; k++) {
+            long due = start + k * intervalNanos;
+            if (due >= end)
+                break;
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            if (!measuring && due >= measureFrom) {
+                for (LatencyRecorder r : recorders())
+                    r.reset();
+                lastCounts = new long[2];
+                measuring = true;
+            }
+            if (due >= nextReport) {
+                lastCounts = progress(due - start, lastCounts);
+                nextReport += TimeUnit.SECONDS.toNanos(options.reportEvery);
+            }
+
+            VirtualRobot robot = robots.get((int) (k % robots.size()));
+            boolean wantsRoute = robot.step();
+            sendTelemetry(robot, (int) (k % robots.size()), due);
+            if (wantsRoute)
+                requestRoute(robot, due);
+        }
+
+        // let the requests still in flight finish before reading the numbers
+        inFlight.tryAcquire(options.maxInFlight, 30, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - measureFrom) / 1e9;
+        for (Connection c : connections)
+            c.close();
+        summary(seconds);
+    }
+
+    private void registerFleet() throws InterruptedException {
+        System.out.printf(Locale.ROOT, "Registering %d robots at %d/s%n", options.robots, options.registerRate);
+        CountDownLatch done = new CountDownLatch(options.robots);
+        long intervalNanos = 1_000_000_000L / options.registerRate;
+        long start = System.nanoTime();
+        List<VirtualRobot> registered = new ArrayList<>();
+        for (int i = 0; i < options.robots; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            int x = random.nextInt(options.grid), y = random.nextInt(options.grid);
+            HttpRequest request = json(baseUrl + "/roomba/").POST(body("{\"posX\":" + x + ",\"posY\":" + y + "}")).build();
+            send(register, request, due, registeredBody -> {
+                Matcher m = UNIQUE_ID.matcher(registeredBody);
+                if (!m.find()) {
+                    register.error();
+                    done.countDown();
+                    return;
+                }
+                int uniqueID = Integer.parseInt(m.group(1));
+                long pairDue = System.nanoTime();
+                HttpRequest pairing = HttpRequest.newBuilder(URI.create(baseUrl + "/roomba/checkPairing/" + uniqueID + "/")).build();
+                send(pair, pairing, pairDue, pairedBody -> {
+                    synchronized (registered) {
+                        registered.add(new VirtualRobot(uniqueID, x, y, options, new Random(options.seed + uniqueID)));
+                    }
+                    done.countDown();
+                }, done::countDown);
+            }, done::countDown);
+        }
+        done.await(5, TimeUnit.MINUTES);
+        synchronized (registered) {
+            robots.addAll(registered);
+        }
+        System.out.printf(Locale.ROOT, "Registered and paired %d robots in %.1f s%n", robots.size(),
+                (System.nanoTime() - start) / 1e9);
+        printTable(List.of(register, pair), (System.nanoTime() - start) / 1e9);
+    }
+
+    private void sendTelemetry(VirtualRobot robot, int index, long due) {
+        if (connections.isEmpty()) {
+            HttpRequest request = json(baseUrl + "/roomba/telemetry")
+                    .POST(body("[" + robot.telemetryJson() + "]")).build();
+            send(telemetry, request, due, body -> { }, () -> { });
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(1 + 17);
+        frame.put((byte) 1);
+        robot.putTelemetryRecord(frame);
+        frame.flip();
+        acquire();
+        connections.get(index % connections.size()).send(frame).whenComplete((ws, error) -> {
+            inFlight.release();
+            if (error != null)
+                telemetry.error();
+            else
+                telemetry.record((System.nanoTime() - due) / 1000);
+        });
+    }
+
+    private void requestRoute(VirtualRobot robot, long due) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/roomba/" + robot.uniqueID + "/route")).build();
+        send(route, request, due, body -> robot.routeReceived(parsePath(body)), () -> robot.routeReceived(null));
+    }
+
+    static int[] parsePath(String body) {
+        Matcher path = PATH.matcher(body);
+        if (!path.find())
+            return null;
+        Matcher point = POINT.matcher(path.group(1));
+        int[] points = new int[16];
+        int n = 0;
+        while (point.find()) {
+            if (n + 2 > points.length)
+                points = Arrays.copyOf(points, points.length * 2);
+            points[n++] = Integer.parseInt(point.group(1));
+            points[n++] = Integer.parseInt(point.group(2));
+        }
+        return Arrays.copyOf(points, n);
+    }
+
+    /** Sends asynchronously; onSuccess gets the body of a 2xx answer, onFailure runs otherwise. */
+    private void send(LatencyRecorder recorder, HttpRequest request, long due, Consumer<String> onSuccess,
+                      Runnable onFailure) {
+        acquire();
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            inFlight.release();
+            if (error != null || response.statusCode() >= 300) {
+                recorder.error();
+                onFailure.run();
+                return;
+            }
+            recorder.record((System.nanoTime() - due) / 1000);
+            onSuccess.accept(response.body());
+        });
+    }
+
+    private void acquire() {
+        inFlight.acquireUninterruptibly();
+    }
+
+    private static HttpRequest.Builder json(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json");
+    }
+
+    private static HttpRequest.BodyPublisher body(String json) {
+        return HttpRequest.BodyPublishers.ofString(json);
+    }
+
+    private void openConnections() {
+        URI uri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/telemetry");
+        for (int i = 0; i < options.wsConnections; i++)
+            connections.add(new Connection(client.newWebSocketBuilder().buildAsync(uri, new WebSocket.Listener() { }).join()));
+        System.out.printf(Locale.ROOT, "Opened %d telemetry WebSockets%n", connections.size());
+    }
+
+    private List<LatencyRecorder> recorders() {
+        return List.of(register, pair, telemetry, route);
+    }
+
+    private long[] progress(long elapsedNanos, long[] last) {
+        long t = telemetry.getCount(), r = route.getCount();
+        double seconds = options.reportEvery;
+        System.out.printf(Locale.ROOT, "%6.0fs  %s %.0f/s p99 %.2f ms  errors %d  |  route %.0f/s p99 %.2f ms  |  in flight %d%n",
+                elapsedNanos / 1e9, telemetry.getName(), Math.max(0, t - last[0]) / seconds,
+                telemetry.percentile(0.99) / 1000.0, telemetry.getErrors(), Math.max(0, r - last[1]) / seconds,
+                route.percentile(0.99) / 1000.0, options.maxInFlight - inFlight.availablePermits());
+        return new long[] { t, r };
+    }
+
+    private void summary(double seconds) {
+        System.out.printf(Locale.ROOT, "%nMeasured %.1f s%n", seconds);
+        printTable(List.of(telemetry, route), seconds);
+    }
+
+    private static void printTable(List<LatencyRecorder> recorders, double seconds) {
+        System.out.printf(Locale.ROOT, "%-18s %9s %7s %9s %9s %9s %9s %9s%n", "endpoint", "count", "errors", "per s",
+                "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (LatencyRecorder r : recorders) {
+            System.out.printf(Locale.ROOT, "%-18s %9d %7d %9.0f %9.2f %9.2f %9.2f %9.2f%n", r.getName(), r.getCount(),
+                    r.getErrors(), r.getCount() / seconds, r.percentile(0.5) / 1000.0, r.percentile(0.99) / 1000.0,
+                    r.percentile(0.999) / 1000.0, r.percentile(1.0) / 1000.0);
+        }
+    }
+
+    /**
+     * A WebSocket only takes one outstanding send, so the sends of a
+     * connection are chained one after the other.
+     */
+    private static final class Connection {
+
+        private final WebSocket socket;
+        private CompletableFuture<WebSocket> tail;
+
+        Connection(WebSocket socket) {
+            this.socket = socket;
+            this.tail = CompletableFuture.completedFuture(socket);
+        }
+
+        synchronized CompletableFuture<WebSocket> send(ByteBuffer frame) {
+            // a failed send fails only its own report, the next one goes out regardless
+            tail = tail.handle((ws, error) -> socket).thenCompose(ws -> ws.sendBinary(frame, true));
+            return tail;
+        }
+
+        synchronized void close() {
+            tail.handle((ws, error) -> socket).thenCompose(ws -> ws.sendClose(WebSocket.NORMAL_CLOSURE, "")).join();
+        }
+    }
+}
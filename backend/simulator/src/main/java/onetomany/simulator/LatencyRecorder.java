@@ -0,0 +1,101 @@
+package onetomany.simulator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram of one endpoint, safe to record into from any thread.
+ *
+ * Values are microseconds in log-linear buckets: 32 buckets per power of
+ * two, so a percentile is off by at most about 3%.
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long micros) {
+        long v = Math.max(0, micros);
+        buckets.incrementAndGet(bucketOf(v));
+        count.increment();
+        total.add(v);
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /** Upper bound of the bucket holding the given quantile (0..1), in micros. */
+    public long percentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        errors.reset();
+        total.reset();
+    }
+
+    static int bucketOf(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((SUB_BUCKETS + sub) << (exponent - SUB_BITS)) + width - 1;
+    }
+}
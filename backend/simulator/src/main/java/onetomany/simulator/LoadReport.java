@@ -0,0 +1,86 @@
+package onetomany.simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Result of one load test run as a flat JSON object of named numbers (plus a
+ * few strings describing the run), so two reports can be compared key by key
+ * without anything but this class.
+ */
+public class LoadReport {
+
+    private static final Pattern NUMBER = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9][0-9.eE+-]*)");
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    public void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, double value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, long value) {
+        values.put(key, value);
+    }
+
+    public void write(Path file) throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Files.writeString(file, toJson(), StandardCharsets.UTF_8);
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        int i = 0;
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            json.append("  \"").append(e.getKey()).append("\": ");
+            Object v = e.getValue();
+            if (v instanceof String)
+                json.append('"').append(((String) v).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            else if (v instanceof Double)
+                json.append(String.format(Locale.ROOT, "%.3f", (Double) v));
+            else
+                json.append(v);
+            json.append(++i < values.size() ? ",\n" : "\n");
+        }
+        return json.append("}\n").toString();
+    }
+
+    /** The numbers of a report written by write(), in file order. */
+    static Map<String, Double> readNumbers(Path file) throws IOException {
+        Map<String, Double> numbers = new LinkedHashMap<>();
+        Matcher m = NUMBER.matcher(Files.readString(file, StandardCharsets.UTF_8));
+        while (m.find())
+            numbers.put(m.group(1), Double.parseDouble(m.group(2)));
+        return numbers;
+    }
+
+    /** Prints every number of this report next to the one in baseline. */
+    void printComparison(Path baseline) throws IOException {
+        Map<String, Double> before = readNumbers(baseline);
+        System.out.printf(Locale.ROOT, "%nAgainst %s%n", baseline);
+        System.out.printf(Locale.ROOT, "%-32s %14s %14s %9s%n", "", "baseline", "this run", "change");
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            if (!(e.getValue() instanceof Number))
+                continue;
+            double now = ((Number) e.getValue()).doubleValue();
+            Double then = before.get(e.getKey());
+            if (then == null) {
+                System.out.printf(Locale.ROOT, "%-32s %14s %14.2f %9s%n", e.getKey(), "-", now, "");
+                continue;
+            }
+            String change = then == 0 ? (now == 0 ? "" : "new") : String.format(Locale.ROOT, "%+8.1f%%", (now - then) * 100 / then);
+            System.out.printf(Locale.ROOT, "%-32s %14.2f %14.2f %9s%n", e.getKey(), then, now, change);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package onetomany.simulator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Registers the same number of robots through single POST /roomba/ requests
+ * and through POST /roomba/batch, and prints the robots per second of both.
+ *
+ *     mvn -f backend/pom.xml package -DskipTests
+ *     cd backend/simulator
+ *     java -cp target/simulator-1.0.0.jar onetomany.simulator.ProvisioningLoadTest --robots=5000
+ *
+ * Options, all --name=value: robots (per path, default 5000), batch-size
+ * (robots per batch request, at most roomba.batch.max-size, default 5000),
+ * concurrency (single requests in flight, default 1), warmup (robots sent
+ * through each path first and not measured, default 500), and target,
+ * backend-jar and port as for FleetSimulator. Without --target the backend
+ * jar is started with the sim profile on an in-memory database, so both
+ * paths write to the same, initially empty table: the single path first,
+ * then the batch path on top of it.
+ */
+public class ProvisioningLoadTest {
+
+    private static final Pattern UNIQUE_ID = Pattern.compile("\"uniqueID\":(\\d+)");
+    private static final Pattern ID = Pattern.compile("\\d+");
+
+    int robots = 5000;
+    int batchSize = 5000;
+    int concurrency = 1;
+    int warmup = 500;
+    String target = "";
+    String backendJar = "../backend_code/target/onetomany-1.0.0-exec.jar";
+    int port = 18080;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final Random random = new Random(1);
+    private final Set<Integer> uniqueIDs = ConcurrentHashMap.newKeySet();
+    private String baseUrl;
+
+    public static void main(String[] args) throws Exception {
+        ProvisioningLoadTest test = parse(args);
+        EmbeddedBackend backend = null;
+        test.baseUrl = test.target;
+        if (test.baseUrl.isEmpty()) {
+            System.out.println("Starting backend " + test.backendJar + " on port " + test.port);
+            backend = EmbeddedBackend.start(test.backendJar, test.port);
+            test.baseUrl = backend.getBaseUrl();
+        }
+        try {
+            test.run();
+        }
+        finally {
+            if (backend != null)
+                backend.stop();
+        }
+    }
+
+    static ProvisioningLoadTest parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options look like --name=value, got " + arg);
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        ProvisioningLoadTest t = new ProvisioningLoadTest();
+        t.robots = Integer.parseInt(values.getOrDefault("robots", String.valueOf(t.robots)));
+        t.batchSize = Integer.parseInt(values.getOrDefault("batch-size", String.valueOf(t.batchSize)));
+        t.concurrency = Integer.parseInt(values.getOrDefault("concurrency", String.valueOf(t.concurrency)));
+        t.warmup = Integer.parseInt(values.getOrDefault("warmup", String.valueOf(t.warmup)));
+        t.target = values.getOrDefault("target", t.target);
+        t.backendJar = values.getOrDefault("backend-jar", t.backendJar);
+        t.port = Integer.parseInt(values.getOrDefault("port", String.valueOf(t.port)));
+        values.keySet().removeAll(List.of("robots", "batch-size", "concurrency", "warmup", "target", "backend-jar",
+                "port"));
+        if (!values.isEmpty())
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        if (t.robots < 1 || t.batchSize < 1 || t.concurrency < 1 || t.warmup < 0)
+            throw new IllegalArgumentException("robots, batch-size and concurrency must be positive");
+        return t;
+    }
+
+    void run() throws Exception {
+        if (warmup > 0) {
+            System.out.printf(Locale.ROOT, "Warming up with %d robots through each path%n", warmup);
+            single(warmup, new LatencyRecorder("warmup"));
+            batch(warmup, new LatencyRecorder("warmup"));
+            uniqueIDs.clear();
+        }
+
+        LatencyRecorder singleRequests = new LatencyRecorder("single");
+        System.out.printf(Locale.ROOT, "Registering %d robots through POST /roomba/, %d in flight%n", robots,
+                concurrency);
+        double singleSeconds = single(robots, singleRequests);
+
+        LatencyRecorder batchRequests = new LatencyRecorder("batch");
+        System.out.printf(Locale.ROOT, "Registering %d robots through POST /roomba/batch, %d per request%n", robots,
+                batchSize);
+        double batchSeconds = batch(robots, batchRequests);
+
+        System.out.printf(Locale.ROOT, "%n%-8s %9s %9s %7s %9s %10s %9s %9s%n", "path", "robots", "requests",
+                "errors", "seconds", "robots/s", "p50 ms", "p99 ms");
+        print(singleRequests, robots, singleSeconds);
+        print(batchRequests, robots, batchSeconds);
+        System.out.printf(Locale.ROOT, "%nbatch/single throughput: %.1fx, distinct uniqueIDs: %d of %d%n",
+                singleSeconds / batchSeconds, uniqueIDs.size(), 2 * robots);
+    }
+
+    // one robot per request, from concurrency threads
+    private double single(int count, LatencyRecorder recorder) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < concurrency; t++) {
+                done.add(threads.submit(() -> {
+                    while (next.getAndIncrement() < count) {
+                        String body = post("/roomba/", robotJson(), recorder);
+                        Matcher m = body == null ? null : UNIQUE_ID.matcher(body);
+                        if (m != null && m.find())
+                            uniqueIDs.add(Integer.parseInt(m.group(1)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done)
+                f.get();
+        }
+        finally {
+            threads.shutdownNow();
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private double batch(int count, LatencyRecorder recorder) {
+        long start = System.nanoTime();
+        for (int sent = 0; sent < count; sent += batchSize) {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = sent; i < Math.min(count, sent + batchSize); i++)
+                json.append(i > sent ? "," : "").append(robotJson());
+            String body = post("/roomba/batch", json.append(']').toString(), recorder);
+            if (body != null) {
+                Matcher m = ID.matcher(body);
+                while (m.find())
+                    uniqueIDs.add(Integer.parseInt(m.group()));
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private String robotJson() {
+        synchronized (random) {
+            return "{\"posX\":" + random.nextInt(1024) + ",\"posY\":" + random.nextInt(1024) + "}";
+        }
+    }
+
+    // the body of a 2xx answer, or null
+    private String post(String path, String json, LatencyRecorder recorder) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        long sent = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() >= 300) {
+                recorder.error();
+                return null;
+            }
+            recorder.record((System.nanoTime() - sent) / 1000);
+            return response.body();
+        }
+        catch (IOException e) {
+            recorder.error();
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recorder.error();
+            return null;
+        }
+    }
+
+    private static void print(LatencyRecorder r, int robots, double seconds) {
+        System.out.printf(Locale.ROOT, "%-8s %9d %9d %7d %9.2f %10.0f %9.2f %9.2f%n", r.getName(), robots,
+                r.getCount(), r.getErrors(), seconds, robots / seconds, r.percentile(0.5) / 1000.0,
+                r.percentile(0.99) / 1000.0);
+    }
+}
@@ -0,0 +1,138 @@
+package onetomany.simulator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Polls the backend's /runtime/stats once a second and keeps the peaks, so
+ * a report can say what a run cost the server in heap and threads.
+ */
+public class RuntimeSampler {
+
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":(-?\\d+)");
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private final HttpRequest request;
+    private final Thread thread;
+
+    // guarded by this
+    private Map<String, Long> first;
+    private Map<String, Long> latest;
+    private long peakHeapUsed;
+    private long peakHeapCommitted;
+    private long peakThreads;
+    private long failures;
+
+
+    public RuntimeSampler(String baseUrl) {
+        this.request = HttpRequest.newBuilder(URI.create(baseUrl + "/runtime/stats"))
+                .timeout(Duration.ofSeconds(2)).build();
+        this.thread = new Thread(this::loop, "runtime-sampler");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        sample();
+        thread.start();
+    }
+
+    void stop() {
+        thread.interrupt();
+        sample();
+    }
+
+    private void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            sample();
+        }
+    }
+
+    private void sample() {
+        Map<String, Long> values = fetch(client, request);
+        synchronized (this) {
+            if (values.isEmpty()) {
+                failures++;
+                return;
+            }
+            if (first == null)
+                first = values;
+            latest = values;
+            peakHeapUsed = Math.max(peakHeapUsed, values.getOrDefault("heapUsed", 0L));
+            peakHeapCommitted = Math.max(peakHeapCommitted, values.getOrDefault("heapCommitted", 0L));
+            peakThreads = Math.max(peakThreads, values.getOrDefault("threads", 0L));
+        }
+    }
+
+    /** The numbers of a JSON object of counters such as /runtime/stats, empty if it cannot be read. */
+    static Map<String, Long> fetch(HttpClient client, HttpRequest request) {
+        Map<String, Long> values = new HashMap<>();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200) {
+                Matcher m = FIELD.matcher(response.body());
+                while (m.find())
+                    values.put(m.group(1), Long.parseLong(m.group(2)));
+            }
+        }
+        catch (IOException e) {
+            // empty, the caller counts it
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return values;
+    }
+
+    /** Drops the peaks and starts counting GC from now, e.g. after the warm-up. */
+    synchronized void reset() {
+        first = latest;
+        peakHeapUsed = 0;
+        peakHeapCommitted = 0;
+        peakThreads = 0;
+    }
+
+    synchronized boolean isAvailable() {
+        return latest != null;
+    }
+
+    synchronized long latest(String key) {
+        return latest == null ? 0 : latest.getOrDefault(key, 0L);
+    }
+
+    /** How much a counter such as gcCount grew since the first sample or reset. */
+    synchronized long growth(String key) {
+        if (first == null || latest == null)
+            return 0;
+        return latest.getOrDefault(key, 0L) - first.getOrDefault(key, 0L);
+    }
+
+    synchronized long getPeakHeapUsed() {
+        return peakHeapUsed;
+    }
+
+    synchronized long getPeakHeapCommitted() {
+        return peakHeapCommitted;
+    }
+
+    synchronized long getPeakThreads() {
+        return peakThreads;
+    }
+
+    synchronized long getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,83 @@
+package onetomany.simulator;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options of FleetSimulator, all given as --name=value.
+ */
+public class SimulatorOptions {
+
+    /** Number of virtual robots. */
+    int robots = 1000;
+    /** Telemetry reports per second over the whole fleet. */
+    int rate = 2000;
+    /** Registrations per second while the fleet is being created. */
+    int registerRate = 500;
+    /** Seconds to measure for, after the warm-up. */
+    int duration = 60;
+    /** Seconds to run before the numbers are reset. */
+    int warmup = 10;
+    /** Seconds between progress lines. */
+    int reportEvery = 5;
+    /** Requests allowed in flight at once; further sends wait. */
+    int maxInFlight = 512;
+    /** rest for POST /roomba/telemetry, ws for binary frames over /telemetry. */
+    String telemetry = "rest";
+    /** WebSocket connections shared by the robots in ws mode. */
+    int wsConnections = 16;
+    /** Backend to drive; when empty, the backend jar is started on port with the sim profile. */
+    String target = "";
+    String backendJar = "../backend_code/target/onetomany-1.0.0-exec.jar";
+    int port = 18080;
+    /** Side of the square grid the robots move on; match roomba.route.width/height. */
+    int grid = 1024;
+    /** Average moves until a robot is full, until it needs charging, and spent in the shop. */
+    int fillTicks = 300;
+    int batteryTicks = 600;
+    int serviceTicks = 30;
+    long seed = 1;
+
+    static SimulatorOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options look like --name=value, got " + arg);
+            values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        SimulatorOptions o = new SimulatorOptions();
+        o.robots = intOption(values, "robots", o.robots);
+        o.rate = intOption(values, "rate", o.rate);
+        o.registerRate = intOption(values, "register-rate", o.registerRate);
+        o.duration = intOption(values, "duration", o.duration);
+        o.warmup = intOption(values, "warmup", o.warmup);
+        o.reportEvery = intOption(values, "report-every", o.reportEvery);
+        o.maxInFlight = intOption(values, "max-in-flight", o.maxInFlight);
+        o.telemetry = values.getOrDefault("telemetry", o.telemetry);
+        o.wsConnections = intOption(values, "ws-connections", o.wsConnections);
+        o.target = values.getOrDefault("target", o.target);
+        o.backendJar = values.getOrDefault("backend-jar", o.backendJar);
+        o.port = intOption(values, "port", o.port);
+        o.grid = intOption(values, "grid", o.grid);
+        o.fillTicks = intOption(values, "fill-ticks", o.fillTicks);
+        o.batteryTicks = intOption(values, "battery-ticks", o.batteryTicks);
+        o.serviceTicks = intOption(values, "service-ticks", o.serviceTicks);
+        o.seed = Long.parseLong(values.getOrDefault("seed", String.valueOf(o.seed)));
+        values.keySet().removeAll(List.of("robots", "rate", "register-rate", "duration", "warmup",
+                "report-every", "max-in-flight", "telemetry", "ws-connections", "target", "backend-jar", "port",
+                "grid", "fill-ticks", "battery-ticks", "service-ticks", "seed"));
+        if (!values.isEmpty())
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        if (!o.telemetry.equals("rest") && !o.telemetry.equals("ws"))
+            throw new IllegalArgumentException("--telemetry must be rest or ws");
+        if (o.robots < 1 || o.rate < 1 || o.registerRate < 1 || o.maxInFlight < 1 || o.wsConnections < 1)
+            throw new IllegalArgumentException("robots, rates, max-in-flight and ws-connections must be positive");
+        return o;
+    }
+
+    private static int intOption(Map<String, String> values, String name, int fallback) {
+        String value = values.get(name);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,139 @@
+package onetomany.simulator;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * One simulated robot. It wanders over the grid, fills up and drains its
+ * battery as it goes, asks the backend for a route once it is full or low,
+ * follows it to the shop and comes back out empty and charged.
+ *
+ * step() is called by the driver thread, the route arrives on an HTTP
+ * thread; both hold the robot's lock.
+ */
+public class VirtualRobot {
+
+    enum Phase { CLEANING, WAITING_FOR_ROUTE, RETURNING, IN_SHOP }
+
+    final int uniqueID;
+    private final Random random;
+    private final SimulatorOptions options;
+
+    private int posX;
+    private int posY;
+    private int seq;
+    private Phase phase = Phase.CLEANING;
+    private int dirt;
+    private int battery;
+    private int fillAt;
+    private boolean full;
+    private boolean needsCharging;
+    private int[] path;
+    private int pathIndex;
+    private int serviceLeft;
+    // ticks until a failed route request is retried, 0 while one is in flight
+    private int retryIn;
+
+
+    public VirtualRobot(int uniqueID, int posX, int posY, SimulatorOptions options, Random random) {
+        this.uniqueID = uniqueID;
+        this.posX = posX;
+        this.posY = posY;
+        this.options = options;
+        this.random = random;
+        refill();
+    }
+
+    // fill level and battery vary by robot so they do not all return together
+    private void refill() {
+        dirt = 0;
+        fillAt = options.fillTicks / 2 + random.nextInt(options.fillTicks + 1);
+        battery = options.batteryTicks / 2 + random.nextInt(options.batteryTicks + 1);
+    }
+
+    /** Moves one tick. Returns true if the robot now wants a route to the shop. */
+    synchronized boolean step() {
+        seq++;
+        switch (phase) {
+            case CLEANING:
+                wander();
+                if (++dirt >= fillAt)
+                    full = true;
+                if (--battery <= 0)
+                    needsCharging = true;
+                if (full || needsCharging) {
+                    phase = Phase.WAITING_FOR_ROUTE;
+                    return true;
+                }
+                return false;
+            case WAITING_FOR_ROUTE:
+                return retryIn > 0 && --retryIn == 0;
+            case RETURNING:
+                // two cells per tick, robots drive faster when not cleaning
+                for (int i = 0; i < 2 && pathIndex < path.length / 2; i++, pathIndex++) {
+                    posX = path[2 * pathIndex];
+                    posY = path[2 * pathIndex + 1];
+                }
+                if (pathIndex >= path.length / 2) {
+                    phase = Phase.IN_SHOP;
+                    serviceLeft = options.serviceTicks;
+                    path = null;
+                }
+                return false;
+            case IN_SHOP:
+                if (--serviceLeft <= 0) {
+                    full = false;
+                    needsCharging = false;
+                    refill();
+                    phase = Phase.CLEANING;
+                }
+                return false;
+            default:
+                throw new IllegalStateException(phase.toString());
+        }
+    }
+
+    private void wander() {
+        switch (random.nextInt(4)) {
+            case 0: posX = Math.min(options.grid - 1, posX + 1); break;
+            case 1: posX = Math.max(0, posX - 1); break;
+            case 2: posY = Math.min(options.grid - 1, posY + 1); break;
+            default: posY = Math.max(0, posY - 1); break;
+        }
+    }
+
+    /** path holds x,y pairs from the current cell to the shop; null if the request failed. */
+    synchronized void routeReceived(int[] path) {
+        if (phase != Phase.WAITING_FOR_ROUTE)
+            return;
+        if (path == null || path.length == 0) {
+            // no route, wait where we are and ask again a while later
+            retryIn = 50;
+            return;
+        }
+        this.path = path;
+        this.pathIndex = 0;
+        phase = Phase.RETURNING;
+    }
+
+    synchronized String telemetryJson() {
+        return "{\"uniqueID\":" + uniqueID + ",\"posX\":" + posX + ",\"posY\":" + posY + ",\"full\":" + full
+                + ",\"needsCharging\":" + needsCharging + ",\"backToShop\":" + isBackToShop()
+                + ",\"inShop\":" + (phase == Phase.IN_SHOP) + "}";
+    }
+
+    /** Same layout as roombaTelemetryFrame on the backend. */
+    synchronized void putTelemetryRecord(ByteBuffer out) {
+        int flags = (full ? 1 : 0) | (needsCharging ? 2 : 0) | (isBackToShop() ? 4 : 0)
+                | (phase == Phase.IN_SHOP ? 8 : 0);
+        out.putInt(uniqueID).putInt(seq).putInt(posX).putInt(posY).put((byte) flags);
+    }
+
+    private boolean isBackToShop() {
+        return phase == Phase.WAITING_FOR_ROUTE || phase == Phase.RETURNING;
+    }
+
+    synchronized Phase getPhase() {
+        return phase;
+    }
+}
@@ -0,0 +1,213 @@
+package onetomany.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A listening chat client on a plain socket. Unlike the JDK's WebSocket
+ * client it can offer permessage-deflate and it sees what actually crosses
+ * the wire, so a few of these next to the load test's clients show the
+ * bytes and frames one session costs.
+ */
+final class WireProbe {
+
+    private static final byte[] DEFLATE_TAIL = { 0, 0, (byte) 0xff, (byte) 0xff };
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final boolean batch;
+    private final String extensions;
+    private final Inflater inflater = new Inflater(true);
+    private final Thread reader;
+
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private volatile String failure;
+
+    private WireProbe(Socket socket, DataInputStream in, boolean batch, String extensions) {
+        this.socket = socket;
+        this.in = in;
+        this.batch = batch;
+        this.extensions = extensions;
+        this.reader = new Thread(this::read, "wire-probe");
+        this.reader.setDaemon(true);
+    }
+
+    /** Connects to a ws:// URI, asking for permessage-deflate if deflate is set. */
+    static WireProbe open(URI uri, boolean deflate, boolean batch) throws IOException {
+        Socket socket = new Socket(uri.getHost(), uri.getPort());
+        socket.setTcpNoDelay(true);
+        byte[] nonce = new byte[16];
+        new SecureRandom().nextBytes(nonce);
+        String request = "GET " + uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery())
+                + " HTTP/1.1\r\n"
+                + "Host: " + uri.getHost() + ":" + uri.getPort() + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(nonce) + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + (deflate ? "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n" : "")
+                + "\r\n";
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+
+        WireProbe[] probe = new WireProbe[1];
+        InputStream counting = new FilterInputStream(socket.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0 && probe[0] != null)
+                    probe[0].wireBytes.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0 && probe[0] != null)
+                    probe[0].wireBytes.add(n);
+                return n;
+            }
+        };
+        DataInputStream in = new DataInputStream(new BufferedInputStream(counting, 65536));
+        String status = readLine(in);
+        if (!status.contains(" 101 ")) {
+            socket.close();
+            throw new IOException("Handshake with " + uri + " failed: " + status);
+        }
+        String extensions = "";
+        for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+            if (line.toLowerCase().startsWith("sec-websocket-extensions:"))
+                extensions = line.substring(line.indexOf(':') + 1).trim();
+        }
+        probe[0] = new WireProbe(socket, in, batch, extensions);
+        probe[0].reader.start();
+        return probe[0];
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private void read() {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        boolean compressed = false;
+        try {
+            while (true) {
+                int b0 = in.readUnsignedByte();
+                int b1 = in.readUnsignedByte();
+                long length = b1 & 0x7f;
+                if (length == 126)
+                    length = in.readUnsignedShort();
+                else if (length == 127)
+                    length = in.readLong();
+                if ((b1 & 0x80) != 0)
+                    in.readFully(new byte[4]);
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                int opcode = b0 & 0x0f;
+                if (opcode == 8)
+                    return;
+                if (opcode > 8)
+                    continue; // ping, pong
+                if (opcode != 0) {
+                    message.reset();
+                    compressed = (b0 & 0x40) != 0;
+                }
+                message.write(payload);
+                if ((b0 & 0x80) != 0)
+                    received(compressed ? inflate(message.toByteArray()) : message.toByteArray());
+            }
+        }
+        catch (IOException | DataFormatException | RuntimeException e) {
+            if (!socket.isClosed())
+                failure = e.toString();
+        }
+    }
+
+    private byte[] inflate(byte[] data) throws DataFormatException {
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inflater.inflate(buffer)) > 0)
+            out.write(buffer, 0, n);
+        inflater.setInput(DEFLATE_TAIL);
+        while ((n = inflater.inflate(buffer)) > 0)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private void received(byte[] data) {
+        frames.increment();
+        payloadBytes.add(data.length);
+        String text = new String(data, StandardCharsets.UTF_8);
+        messages.add(batch && text.startsWith("[") ? BatchFrames.split(text).size() : 1);
+    }
+
+    /** Starts counting from now, e.g. after the warm-up. */
+    void reset() {
+        wireBytes.reset();
+        payloadBytes.reset();
+        frames.reset();
+        messages.reset();
+    }
+
+    void close() {
+        try {
+            // a masked close frame with status 1000, as a client has to send
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] { (byte) 0x88, (byte) 0x82, 0, 0, 0, 0, 0x03, (byte) 0xe8 });
+            out.flush();
+            socket.close();
+        }
+        catch (IOException e) {
+            // gone already
+        }
+    }
+
+    String getExtensions() {
+        return extensions;
+    }
+
+    String getFailure() {
+        return failure;
+    }
+
+    long getWireBytes() {
+        return wireBytes.sum();
+    }
+
+    long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    long getFrames() {
+        return frames.sum();
+    }
+
+    long getMessages() {
+        return messages.sum();
+    }
+}
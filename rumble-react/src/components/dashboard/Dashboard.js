@@ -4,6 +4,16 @@ import { useAuth } from '../../contexts/AuthContext';
 import apiService from '../../services/apiService';
 import RobotMap from '../maps/RobotMap';
 
+// Fleet socket entries (see apiService.subscribeToFleet) in the shape the
+// dashboard shows; the fleet does not report battery level or trash collected,
+// so those stay unset and show as unknown
+const toDashboardRobot = (entry) => ({
+  ...entry,
+  id: entry.uniqueID,
+  name: `Roomba ${entry.uniqueID}`,
+  status: entry.inShop ? 'maintenance' : entry.needsCharging ? 'charging' : entry.backToShop ? 'idle' : 'active',
+});
+
 const Dashboard = () => {
   const [isSidebarOpen, setIsSidebarOpen] = useState(false);
   const [robotData, setRobotData] = useState([]);
@@ -16,22 +26,37 @@ const Dashboard = () => {
   const { currentUser, token, logout } = useAuth();
   const navigate = useNavigate();
 
-  // Load dashboard data
+  // Robots owned by user, kept current by the fleet socket instead of refetching
+  useEffect(() => {
+    if (!token) {
+      return undefined;
+    }
+    const unsubscribe = apiService.subscribeToFleet(currentUser?.id, (robots) => {
+      setRobotData(robots.map(toDashboardRobot));
+    });
+    return unsubscribe;
+  }, [token, currentUser?.id]);
+
+  // Keep the selected robot current, and select the first robot by default
+  useEffect(() => {
+    if (robotData.length === 0) {
+      return;
+    }
+    const robot = robotData.find((r) => r.id === selectedRobotId);
+    if (robot) {
+      setSelectedRobot(robot);
+    } else if (!selectedRobotId) {
+      setSelectedRobotId(robotData[0].id);
+      setSelectedRobot(robotData[0]);
+    }
+  }, [robotData, selectedRobotId]);
+
+  // Load dashboard statistics
   useEffect(() => {
     const fetchData = async () => {
       try {
         setLoading(true);
         
-        // Fetch robots owned by user
-        const robots = await apiService.getAllRobots(token);
-        setRobotData(robots);
-        
-        // Set the first robot as selected by default
-        if (robots.length > 0 && !selectedRobotId) {
-          setSelectedRobotId(robots[0].id);
-          setSelectedRobot(robots[0]);
-        }
-        
         // Fetch dashboard statistics
         const stats = await apiService.getDashboardStats(token);
         setDashboardStats(stats);
@@ -48,7 +73,7 @@ const Dashboard = () => {
     if (token) {
       fetchData();
     }
-  }, [token, selectedRobotId]);
+  }, [token]);
 
   // Handle robot selection from sidebar
   const handleRobotSelection = async (robotId) => {
@@ -220,17 +245,21 @@ const Dashboard = () => {
                         </p>
                       </div>
                     </div>
-                    <div className="flex flex-col items-end">
-                      <div className={`text-sm font-medium ${getBatteryColor(robot.batteryLevel)}`}>
-                        {robot.batteryLevel}%
+                    {robot.batteryLevel == null ? (
+                      <div className="text-sm font-medium text-slate-400">Unknown</div>
+                    ) : (
+                      <div className="flex flex-col items-end">
+                        <div className={`text-sm font-medium ${getBatteryColor(robot.batteryLevel)}`}>
+                          {robot.batteryLevel}%
+                        </div>
+                        <div className="w-16 h-2 bg-black/30 rounded-full mt-1 overflow-hidden">
+                          <div 
+                            className={`h-full ${robot.batteryLevel > 70 ? 'bg-green-400' : robot.batteryLevel > 30 ? 'bg-yellow-400' : 'bg-red-400'}`} 
+                            style={{ width: `${robot.batteryLevel}%` }}
+                          ></div>
+                        </div>
                       </div>
-                      <div className="w-16 h-2 bg-black/30 rounded-full mt-1 overflow-hidden">
-                        <div 
-                          className={`h-full ${robot.batteryLevel > 70 ? 'bg-green-400' : robot.batteryLevel > 30 ? 'bg-yellow-400' : 'bg-red-400'}`} 
-                          style={{ width: `${robot.batteryLevel}%` }}
-                        ></div>
-                      </div>
-                    </div>
+                    )}
                   </div>
                 </button>
               ))}
@@ -400,17 +429,21 @@ const Dashboard = () => {
                   </li>
                   <li className="flex justify-between items-center">
                     <span className="text-slate-400">Battery Level:</span>
-                    <div className="flex items-center">
-                      <div className="w-32 h-3 bg-slate-700 rounded-full mr-2 overflow-hidden">
-                        <div 
-                          className={`h-full ${selectedRobot.batteryLevel > 70 ? 'bg-green-500' : selectedRobot.batteryLevel > 30 ? 'bg-yellow-500' : 'bg-red-500'}`} 
-                          style={{ width: `${selectedRobot.batteryLevel}%` }}
-                        ></div>
+                    {selectedRobot.batteryLevel == null ? (
+                      <span className="font-semibold text-slate-400">Unknown</span>
+                    ) : (
+                      <div className="flex items-center">
+                        <div className="w-32 h-3 bg-slate-700 rounded-full mr-2 overflow-hidden">
+                          <div 
+                            className={`h-full ${selectedRobot.batteryLevel > 70 ? 'bg-green-500' : selectedRobot.batteryLevel > 30 ? 'bg-yellow-500' : 'bg-red-500'}`} 
+                            style={{ width: `${selectedRobot.batteryLevel}%` }}
+                          ></div>
+                        </div>
+                        <span className={`font-semibold ${getBatteryColor(selectedRobot.batteryLevel)}`}>
+                          {selectedRobot.batteryLevel}%
+                        </span>
                       </div>
-                      <span className={`font-semibold ${getBatteryColor(selectedRobot.batteryLevel)}`}>
-                        {selectedRobot.batteryLevel}%
-                      </span>
-                    </div>
+                    )}
                   </li>
                   <li className="flex justify-between items-center">
                     <span className="text-slate-400">Last Collection:</span>
@@ -420,9 +453,13 @@ const Dashboard = () => {
                   </li>
                   <li className="flex justify-between items-center">
                     <span className="text-slate-400">Trash Collected:</span>
-                    <span className="font-semibold text-emerald-400">
-                      {selectedRobot.trashCollected.toFixed(1)} kg
-                    </span>
+                    {selectedRobot.trashCollected == null ? (
+                      <span className="font-semibold text-slate-400">Unknown</span>
+                    ) : (
+                      <span className="font-semibold text-emerald-400">
+                        {selectedRobot.trashCollected.toFixed(1)} kg
+                      </span>
+                    )}
                   </li>
                   <li className="flex justify-between items-center">
                     <span className="text-slate-400">Next Scheduled:</span>
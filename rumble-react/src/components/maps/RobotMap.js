@@ -115,7 +115,7 @@ const MapComponent = ({ robots, selectedRobot, onRobotSelect, center, zoom }) =>
             </div>
             <div style="font-size: 14px; line-height: 1.4;">
               <div><strong>Status:</strong> ${robotToDisplay.status.charAt(0).toUpperCase() + robotToDisplay.status.slice(1)}</div>
-              <div><strong>Battery:</strong> ${robotToDisplay.batteryLevel}%</div>
+              <div><strong>Battery:</strong> ${robotToDisplay.batteryLevel == null ? 'Unknown' : `${robotToDisplay.batteryLevel}%`}</div>
               ${robotToDisplay.trashCollected ? `<div><strong>Trash Collected:</strong> ${robotToDisplay.trashCollected} kg</div>` : ''}
             </div>
           </div>
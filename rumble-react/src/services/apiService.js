@@ -334,6 +334,62 @@ export const getDashboardData = async (userId) => {
   }
 };
 
+/**
+ * Live Fleet Updates
+ * WS /fleet/{userId} (or /fleet/all) - Sends one snapshot, then only the
+ * fields that changed. Calls onUpdate with the full list of robots after
+ * every message. The server drops a dashboard that falls behind, so a lost
+ * connection is opened again and starts over with a new snapshot. Returns a
+ * function that closes the connection for good.
+ */
+export const subscribeToFleet = (userId, onUpdate) => {
+  const scope = userId ? userId : 'all';
+  const url = `${API_BASE_URL.replace(/^http/, 'ws')}/fleet/${scope}`;
+  const robots = new Map();
+  let socket;
+  let stopped = false;
+
+  const connect = () => {
+    socket = new WebSocket(url);
+
+    socket.onmessage = (event) => {
+      const message = JSON.parse(event.data);
+      if (message.type === 'snapshot') {
+        robots.clear();
+      }
+      message.robots.forEach((entry) => {
+        if (entry.removed) {
+          robots.delete(entry.uniqueID);
+        } else {
+          robots.set(entry.uniqueID, { ...robots.get(entry.uniqueID), ...entry });
+        }
+      });
+      onUpdate(Array.from(robots.values()));
+    };
+
+    socket.onerror = (error) => {
+      console.error('Fleet socket error:', error);
+    };
+
+    socket.onclose = () => {
+      if (!stopped) {
+        setTimeout(() => {
+          if (!stopped) {
+            connect();
+          }
+        }, 1000);
+      }
+    };
+  };
+
+  connect();
+
+  return () => {
+    stopped = true;
+    socket.close();
+  };
+};
+
 /**
  * Default export with all API functions
  */
@@ -346,6 +402,7 @@ const apiService = {
   deleteUser,
   getAllUsers,
   getDashboardData,
+  subscribeToFleet,
 };
 
 export default apiService;
\ No newline at end of file